@@ -55,6 +55,15 @@ void Java_ir_mehdi_SQLite_SQLitePreparedStatement_reset(JNIEnv *env, jobject obj
     }
 }
 
+void Java_ir_mehdi_SQLite_SQLitePreparedStatement_clearBindings(JNIEnv *env, jobject object, int statementHandle) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) statementHandle;
+    
+    int errcode = sqlite3_clear_bindings(handle);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+    }
+}
+
 void Java_ir_mehdi_SQLite_SQLitePreparedStatement_finalize(JNIEnv *env, jobject object, int statementHandle) {
     sqlite3_finalize((sqlite3_stmt *) statementHandle);
 }
@@ -133,9 +142,37 @@ void Java_ir_mehdi_SQLite_SQLiteDatabase_beginTransaction(JNIEnv *env, jobject o
     sqlite3_exec(handle, "BEGIN", 0, 0, 0);
 }
 
-void Java_ir_mehdi_SQLite_SQLiteDatabase_commitTransaction(JNIEnv *env, jobject object, int sqliteHandle) {
+int Java_ir_mehdi_SQLite_SQLiteDatabase_commitTransaction(JNIEnv *env, jobject object, int sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *)sqliteHandle;
+    int errcode = sqlite3_exec(handle, "COMMIT", 0, 0, 0);
+    for (int a = 0; errcode == SQLITE_BUSY && a < 3; a++) {
+        sqlite3_sleep(10);
+        errcode = sqlite3_exec(handle, "COMMIT", 0, 0, 0);
+    }
+    if (errcode != SQLITE_OK && !sqlite3_get_autocommit(handle)) {
+        sqlite3_exec(handle, "ROLLBACK", 0, 0, 0);
+    }
+    return errcode;
+}
+
+void Java_ir_mehdi_SQLite_SQLiteDatabase_rollbackTransaction(JNIEnv *env, jobject object, int sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *)sqliteHandle;
+    if (!sqlite3_get_autocommit(handle)) {
+        sqlite3_exec(handle, "ROLLBACK", 0, 0, 0);
+    }
+}
+
+void Java_ir_mehdi_SQLite_SQLiteDatabase_beginSavepoint(JNIEnv *env, jobject object, int sqliteHandle) {
     sqlite3 *handle = (sqlite3 *)sqliteHandle;
-    sqlite3_exec(handle, "COMMIT", 0, 0, 0);
+    sqlite3_exec(handle, "SAVEPOINT grouped", 0, 0, 0);
+}
+
+void Java_ir_mehdi_SQLite_SQLiteDatabase_releaseSavepoint(JNIEnv *env, jobject object, int sqliteHandle, jboolean rollback) {
+    sqlite3 *handle = (sqlite3 *)sqliteHandle;
+    if (rollback) {
+        sqlite3_exec(handle, "ROLLBACK TO grouped", 0, 0, 0);
+    }
+    sqlite3_exec(handle, "RELEASE grouped", 0, 0, 0);
 }
 
 int Java_ir_mehdi_SQLite_SQLiteDatabase_opendb(JNIEnv *env, jobject object, jstring fileName, jstring tempDir) {
@@ -161,6 +198,20 @@ int Java_ir_mehdi_SQLite_SQLiteDatabase_opendb(JNIEnv *env, jobject object, jstr
     return (int)handle;
 }
 
+int Java_ir_mehdi_SQLite_SQLiteDatabase_opendbReadOnly(JNIEnv *env, jobject object, jstring fileName) {
+    char const *fileNameStr = env->GetStringUTFChars(fileName, 0);
+    
+    sqlite3 *handle = 0;
+    int err = sqlite3_open_v2(fileNameStr, &handle, SQLITE_OPEN_READONLY | SQLITE_OPEN_NOMUTEX, 0);
+    if (SQLITE_OK != err) {
+        throw_sqlite3_exception(env, handle, err);
+    }
+    if (fileNameStr != 0) {
+        env->ReleaseStringUTFChars(fileName, fileNameStr);
+    }
+    return (int)handle;
+}
+
 int Java_ir_mehdi_SQLite_SQLiteCursor_columnType(JNIEnv *env, jobject object, int statementHandle, int columnIndex) {
 	sqlite3_stmt *handle = (sqlite3_stmt *)statementHandle;
 	return sqlite3_column_type(handle, columnIndex);
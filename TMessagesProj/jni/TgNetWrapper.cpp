@@ -130,6 +130,11 @@ jint position(JNIEnv *env, jclass c, jint address) {
     return buffer->position();
 }
 
+void setLimit(JNIEnv *env, jclass c, jint address, jint limit) {
+    NativeByteBuffer *buffer = (NativeByteBuffer *) address;
+    buffer->limit((uint32_t) limit);
+}
+
 void reuse(JNIEnv *env, jclass c, jint address) {
     NativeByteBuffer *buffer = (NativeByteBuffer *) address;
     buffer->reuse();
@@ -145,6 +150,7 @@ static JNINativeMethod NativeByteBufferMethods[] = {
         {"native_getFreeBuffer", "(I)I", (void *) getFreeBuffer},
         {"native_limit", "(I)I", (void *) limit},
         {"native_position", "(I)I", (void *) position},
+        {"native_setLimit", "(II)V", (void *) setLimit},
         {"native_reuse", "(I)V", (void *) reuse},
         {"native_getJavaByteBuffer", "(I)Ljava/nio/ByteBuffer;", (void *) getJavaByteBuffer}
 };
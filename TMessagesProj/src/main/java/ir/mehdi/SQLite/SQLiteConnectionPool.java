@@ -0,0 +1,82 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.SQLite;
+
+import java.util.ArrayList;
+
+public class SQLiteConnectionPool {
+
+    private final String fileName;
+    private final int maxConnections;
+    private final ArrayList<SQLiteDatabase> idleConnections = new ArrayList<>();
+    private int openedConnections;
+    private boolean closed;
+
+    public SQLiteConnectionPool(String fileName, int maxConnections) {
+        this.fileName = fileName;
+        this.maxConnections = maxConnections;
+    }
+
+    public SQLiteDatabase acquire() throws SQLiteException {
+        synchronized (idleConnections) {
+            while (true) {
+                if (closed) {
+                    throw new SQLiteException("Connection pool closed");
+                }
+                if (!idleConnections.isEmpty()) {
+                    return idleConnections.remove(idleConnections.size() - 1);
+                }
+                if (openedConnections < maxConnections) {
+                    openedConnections++;
+                    break;
+                }
+                try {
+                    idleConnections.wait();
+                } catch (InterruptedException e) {
+                    throw new SQLiteException("Interrupted while waiting for connection");
+                }
+            }
+        }
+        try {
+            return new SQLiteDatabase(fileName, true);
+        } catch (SQLiteException e) {
+            synchronized (idleConnections) {
+                openedConnections--;
+                idleConnections.notify();
+            }
+            throw e;
+        }
+    }
+
+    public void release(SQLiteDatabase database) {
+        synchronized (idleConnections) {
+            if (!closed) {
+                idleConnections.add(database);
+                idleConnections.notify();
+                return;
+            }
+            openedConnections--;
+        }
+        database.close();
+    }
+
+    public void close() {
+        ArrayList<SQLiteDatabase> connections;
+        synchronized (idleConnections) {
+            closed = true;
+            connections = new ArrayList<>(idleConnections);
+            openedConnections -= idleConnections.size();
+            idleConnections.clear();
+            idleConnections.notifyAll();
+        }
+        for (int a = 0; a < connections.size(); a++) {
+            connections.get(a).close();
+        }
+    }
+}
@@ -11,21 +11,70 @@ package ir.mehdi.SQLite;
 import ir.mehdi.messenger.FileLog;
 import ir.mehdi.messenger.ApplicationLoader;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class SQLiteDatabase {
 	private final int sqliteHandle;
 
 	private boolean isOpen = false;
     private boolean inTransaction = false;
 
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final LinkedHashMap<String, SQLitePreparedStatement> statementCache = new LinkedHashMap<String, SQLitePreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLitePreparedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                eldest.getValue().finalizeQuery();
+                return true;
+            }
+            return false;
+        }
+    };
+    public static final int MAX_IN_LIST_SIZE = 512;
+    private static final int IN_LIST_BUCKETS = 10;
+
+    private final HashMap<String, String[]> inListQueries = new HashMap<>();
+    private GroupCommitDelegate groupCommitDelegate;
+    private boolean inGroupTransaction;
+    private int groupedTransactions;
+    private int maxGroupedTransactions = 200;
+    private long groupCommitsCount;
+    private long groupedTransactionsCount;
+    private int lastGroupSize;
+    private long lastGroupCommitTime;
+    private long groupCommitTime;
+    private long failedGroupCommitsCount;
+
+    public interface GroupCommitDelegate {
+        void onGroupTransactionStarted();
+        void onGroupTransactionFailed(int transactionsCount, int errorCode);
+    }
+
+    private long statementCacheHits;
+    private long statementCacheMisses;
+    private long statementPrepareTime;
+
 	public int getSQLiteHandle() {
 		return sqliteHandle;
 	}
 
 	public SQLiteDatabase(String fileName) throws SQLiteException {
-		sqliteHandle = opendb(fileName, ApplicationLoader.getFilesDirFixed().getPath());
-		isOpen = true;
+		this(fileName, false);
 	}
 
+    public SQLiteDatabase(String fileName, boolean readOnly) throws SQLiteException {
+        if (readOnly) {
+            sqliteHandle = opendbReadOnly(fileName);
+        } else {
+            sqliteHandle = opendb(fileName, ApplicationLoader.getFilesDirFixed().getPath());
+        }
+        isOpen = true;
+    }
+
 	public boolean tableExists(String tableName) throws SQLiteException {
 		checkOpened();
 		String s = "SELECT rowid FROM sqlite_master WHERE type='table' AND name=?;";
@@ -33,7 +82,7 @@ public class SQLiteDatabase {
 	}
 
     public SQLitePreparedStatement executeFast(String sql) throws SQLiteException {
-        return new SQLitePreparedStatement(this, sql, true);
+        return obtainStatement(sql);
     }
 
 	public Integer executeInt(String sql, Object... args) throws SQLiteException {
@@ -51,13 +100,119 @@ public class SQLiteDatabase {
 
 	public SQLiteCursor queryFinalized(String sql, Object... args) throws SQLiteException {
 		checkOpened();
-		return new SQLitePreparedStatement(this, sql, true).query(args);
+		return obtainStatement(sql).query(args);
 	}
 
+    /**
+     * Prepares sql whose single %s is replaced by an IN list of at least count placeholders.
+     * The list length is rounded up to a power of two, so only a few distinct statements
+     * exist for every query and they stay in the statement cache. count must not exceed
+     * {@link #MAX_IN_LIST_SIZE}, unbound placeholders are NULL and never match.
+     */
+    public SQLitePreparedStatement executeFastIn(String sql, int count) throws SQLiteException {
+        if (count <= 0 || count > MAX_IN_LIST_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        int bucket = 32 - Integer.numberOfLeadingZeros(count - 1);
+        String query;
+        synchronized (inListQueries) {
+            String[] queries = inListQueries.get(sql);
+            if (queries == null) {
+                queries = new String[IN_LIST_BUCKETS];
+                inListQueries.put(sql, queries);
+            }
+            query = queries[bucket];
+            if (query == null) {
+                int size = 1 << bucket;
+                StringBuilder builder = new StringBuilder(size * 2);
+                for (int a = 0; a < size; a++) {
+                    if (a != 0) {
+                        builder.append(',');
+                    }
+                    builder.append('?');
+                }
+                query = queries[bucket] = sql.replace("%s", builder);
+            }
+        }
+        checkOpened();
+        return obtainStatement(query);
+    }
+
+    SQLitePreparedStatement obtainStatement(String sql) throws SQLiteException {
+        synchronized (statementCache) {
+            SQLitePreparedStatement statement = statementCache.remove(sql);
+            if (statement != null) {
+                statement.setReleased(false);
+                statementCacheHits++;
+                return statement;
+            }
+            statementCacheMisses++;
+        }
+        long time = System.nanoTime();
+        SQLitePreparedStatement statement = new SQLitePreparedStatement(this, sql, true);
+        statement.setCacheKey(sql);
+        time = System.nanoTime() - time;
+        synchronized (statementCache) {
+            statementPrepareTime += time;
+        }
+        return statement;
+    }
+
+    void releaseStatement(SQLitePreparedStatement statement) {
+        try {
+            statement.clear();
+        } catch (SQLiteException e) {
+            FileLog.e(e.getMessage(), e);
+            statement.finalizeQuery();
+            return;
+        }
+        synchronized (statementCache) {
+            SQLitePreparedStatement cached = statementCache.get(statement.getCacheKey());
+            if (cached == statement) {
+                return;
+            }
+            if (!isOpen || cached != null) {
+                statement.finalizeQuery();
+            } else {
+                statementCache.put(statement.getCacheKey(), statement);
+            }
+        }
+    }
+
+    private void clearStatementCache() {
+        synchronized (statementCache) {
+            Iterator<SQLitePreparedStatement> iterator = statementCache.values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().finalizeQuery();
+                iterator.remove();
+            }
+        }
+    }
+
+    public long getStatementCacheHits() {
+        synchronized (statementCache) {
+            return statementCacheHits;
+        }
+    }
+
+    public long getStatementCacheMisses() {
+        synchronized (statementCache) {
+            return statementCacheMisses;
+        }
+    }
+
+    public long getStatementPrepareTime() {
+        synchronized (statementCache) {
+            return statementPrepareTime;
+        }
+    }
+
 	public void close() {
 		if (isOpen) {
 			try {
                 commitTransaction();
+                flushGroupTransaction();
+                clearStatementCache();
 				closedb(sqliteHandle);
 			} catch (SQLiteException e) {
                 FileLog.e(e.getMessage(), e);
@@ -82,6 +237,16 @@ public class SQLiteDatabase {
             throw new SQLiteException("database already in transaction");
         }
         inTransaction = true;
+        if (groupCommitDelegate != null) {
+            if (!inGroupTransaction) {
+                inGroupTransaction = true;
+                beginTransaction(sqliteHandle);
+                groupCommitDelegate.onGroupTransactionStarted();
+            }
+            // lets rollbackTransaction undo this transaction without the rest of the group
+            beginSavepoint(sqliteHandle);
+            return;
+        }
         beginTransaction(sqliteHandle);
     }
 
@@ -90,11 +255,119 @@ public class SQLiteDatabase {
             return;
         }
         inTransaction = false;
-        commitTransaction(sqliteHandle);
+        if (inGroupTransaction) {
+            releaseSavepoint(sqliteHandle, false);
+            groupedTransactions++;
+            if (groupedTransactions >= maxGroupedTransactions) {
+                flushGroupTransaction();
+            }
+            return;
+        }
+        int errorCode = commitTransaction(sqliteHandle);
+        if (errorCode != 0) {
+            FileLog.e("commit failed with error " + errorCode);
+        }
+    }
+
+    /**
+     * Undoes the open transaction. Inside a group only this transaction is undone, the ones
+     * committed into the group before it are kept.
+     */
+    public void rollbackTransaction() {
+        if (!inTransaction) {
+            return;
+        }
+        inTransaction = false;
+        if (inGroupTransaction) {
+            releaseSavepoint(sqliteHandle, true);
+            return;
+        }
+        rollbackTransaction(sqliteHandle);
+    }
+
+    /**
+     * While a delegate is set, transactions opened by beginTransaction are only committed
+     * logically and are merged into one native transaction, which stays open until
+     * flushGroupTransaction is called. The delegate is notified when such a group is opened
+     * and is responsible for scheduling the flush. Grouped transactions are committed
+     * together and in order, so a crash can only lose the latest ones, never a transaction
+     * committed before another one that was kept. If the native commit fails, the whole group
+     * is rolled back and reported to the delegate. Writes that must be durable once they
+     * return, like the update state, should call flushGroupTransaction first and only go on
+     * if it succeeded.
+     */
+    public void setGroupCommitDelegate(GroupCommitDelegate delegate, int maxTransactions) {
+        if (delegate == null) {
+            flushGroupTransaction();
+        }
+        groupCommitDelegate = delegate;
+        maxGroupedTransactions = Math.max(1, maxTransactions);
+    }
+
+    /**
+     * Commits the open group, if any. Returns false if the native commit failed and the
+     * grouped transactions were lost.
+     */
+    public boolean flushGroupTransaction() {
+        if (!inGroupTransaction) {
+            return true;
+        }
+        if (inTransaction) {
+            FileLog.e("flush group transaction while transaction is open");
+            inTransaction = false;
+        }
+        inGroupTransaction = false;
+        long time = System.nanoTime();
+        int errorCode = commitTransaction(sqliteHandle);
+        time = System.nanoTime() - time;
+        int count = groupedTransactions;
+        groupedTransactions = 0;
+        if (errorCode != 0) {
+            failedGroupCommitsCount++;
+            FileLog.e("group commit of " + count + " transactions failed with error " + errorCode);
+            if (groupCommitDelegate != null) {
+                groupCommitDelegate.onGroupTransactionFailed(count, errorCode);
+            }
+            return false;
+        }
+        lastGroupSize = count;
+        lastGroupCommitTime = time;
+        groupCommitTime += time;
+        groupedTransactionsCount += count;
+        groupCommitsCount++;
+        return true;
+    }
+
+    public long getFailedGroupCommitsCount() {
+        return failedGroupCommitsCount;
+    }
+
+    public long getGroupCommitsCount() {
+        return groupCommitsCount;
+    }
+
+    public long getGroupedTransactionsCount() {
+        return groupedTransactionsCount;
+    }
+
+    public int getLastGroupSize() {
+        return lastGroupSize;
+    }
+
+    public long getLastGroupCommitTime() {
+        return lastGroupCommitTime;
+    }
+
+    public long getGroupCommitTime() {
+        return groupCommitTime;
     }
 
 	native int opendb(String fileName, String tempDir) throws SQLiteException;
+    native int opendbReadOnly(String fileName) throws SQLiteException;
 	native void closedb(int sqliteHandle) throws SQLiteException;
     native void beginTransaction(int sqliteHandle);
-    native void commitTransaction(int sqliteHandle);
+    native int commitTransaction(int sqliteHandle);
+    native void rollbackTransaction(int sqliteHandle);
+    native void beginSavepoint(int sqliteHandle);
+    native void releaseSavepoint(int sqliteHandle, boolean rollback);
 }
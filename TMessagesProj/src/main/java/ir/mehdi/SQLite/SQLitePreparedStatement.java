@@ -12,12 +12,16 @@ import ir.mehdi.messenger.FileLog;
 import ir.mehdi.tgnet.NativeByteBuffer;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 
 public class SQLitePreparedStatement {
 
 	private boolean isFinalized = false;
 	private int sqliteStatementHandle;
 	private boolean finalizeAfterQuery = false;
+    private SQLiteDatabase database;
+    private String cacheKey;
+    private boolean released;
 
     //private static HashMap<SQLitePreparedStatement, String> hashMap;
 
@@ -27,6 +31,7 @@ public class SQLitePreparedStatement {
 
 	public SQLitePreparedStatement(SQLiteDatabase db, String sql, boolean finalize) throws SQLiteException {
 		finalizeAfterQuery = finalize;
+		database = db;
 		sqliteStatementHandle = prepare(db.getSQLiteHandle(), sql);
         /*if (BuildVars.DEBUG_VERSION) {
             if (hashMap == null) {
@@ -55,6 +60,8 @@ public class SQLitePreparedStatement {
                 bindNull(sqliteStatementHandle, i);
             } else if (obj instanceof Integer) {
                 bindInt(sqliteStatementHandle, i, (Integer)obj);
+            } else if (obj instanceof Long) {
+                bindLong(sqliteStatementHandle, i, (Long)obj);
             } else if (obj instanceof Double) {
                 bindDouble(sqliteStatementHandle, i, (Double)obj);
             } else if (obj instanceof String) {
@@ -68,6 +75,12 @@ public class SQLitePreparedStatement {
         return new SQLiteCursor(this);
     }
 
+    public SQLiteCursor query() throws SQLiteException {
+        checkFinalized();
+        reset(sqliteStatementHandle);
+        return new SQLiteCursor(this);
+    }
+
     public int step() throws SQLiteException {
         return step(sqliteStatementHandle);
     }
@@ -84,10 +97,37 @@ public class SQLitePreparedStatement {
 
 	public void dispose() {
 		if (finalizeAfterQuery) {
-			finalizeQuery();
+            if (cacheKey != null && !isFinalized) {
+                // a second dispose must not touch the statement, it may be in use again by now
+                if (released) {
+                    return;
+                }
+                released = true;
+                database.releaseStatement(this);
+            } else {
+                finalizeQuery();
+            }
 		}
 	}
 
+    void setCacheKey(String sql) {
+        cacheKey = sql;
+    }
+
+    String getCacheKey() {
+        return cacheKey;
+    }
+
+    void setReleased(boolean value) {
+        released = value;
+    }
+
+    void clear() throws SQLiteException {
+        checkFinalized();
+        reset(sqliteStatementHandle);
+        clearBindings(sqliteStatementHandle);
+    }
+
 	void checkFinalized() throws SQLiteException {
 		if (isFinalized) {
 			throw new SQLiteException("Prepared query finalized");
@@ -109,32 +149,61 @@ public class SQLitePreparedStatement {
 		}
 	}
 
-    public void bindInteger(int index, int value) throws SQLiteException {
+    public SQLitePreparedStatement bindInteger(int index, int value) throws SQLiteException {
         bindInt(sqliteStatementHandle, index, value);
+        return this;
     }
 
-    public void bindDouble(int index, double value) throws SQLiteException {
+    public SQLitePreparedStatement bindDouble(int index, double value) throws SQLiteException {
         bindDouble(sqliteStatementHandle, index, value);
+        return this;
     }
 
-    public void bindByteBuffer(int index, ByteBuffer value) throws SQLiteException {
+    public SQLitePreparedStatement bindByteBuffer(int index, ByteBuffer value) throws SQLiteException {
         bindByteBuffer(sqliteStatementHandle, index, value, value.limit());
+        return this;
     }
 
-    public void bindByteBuffer(int index, NativeByteBuffer value) throws SQLiteException {
+    public SQLitePreparedStatement bindByteBuffer(int index, NativeByteBuffer value) throws SQLiteException {
         bindByteBuffer(sqliteStatementHandle, index, value.buffer, value.limit());
+        return this;
     }
 
-    public void bindString(int index, String value) throws SQLiteException {
-        bindString(sqliteStatementHandle, index, value);
+    public SQLitePreparedStatement bindString(int index, String value) throws SQLiteException {
+        if (value == null) {
+            bindNull(sqliteStatementHandle, index);
+        } else {
+            bindString(sqliteStatementHandle, index, value);
+        }
+        return this;
     }
 
-    public void bindLong(int index, long value) throws SQLiteException {
+    public SQLitePreparedStatement bindLong(int index, long value) throws SQLiteException {
         bindLong(sqliteStatementHandle, index, value);
+        return this;
     }
 
-    public void bindNull(int index) throws SQLiteException {
+    public SQLitePreparedStatement bindNull(int index) throws SQLiteException {
         bindNull(sqliteStatementHandle, index);
+        return this;
+    }
+
+    /**
+     * Binds count values starting at offset to the placeholders of an IN list created by
+     * {@link SQLiteDatabase#executeFastIn(String, int)}, the rest of the list stays NULL.
+     */
+    public SQLitePreparedStatement bindIntegerArray(int index, ArrayList<Integer> values, int offset, int count) throws SQLiteException {
+        for (int a = 0; a < count; a++) {
+            bindInt(sqliteStatementHandle, index + a, values.get(offset + a));
+        }
+        return this;
+    }
+
+    public SQLitePreparedStatement bindLongArray(int index, long[] values, int offset, int count) throws SQLiteException {
+        for (int a = 0; a < count; a++) {
+            bindLong(sqliteStatementHandle, index + a, values[offset + a]);
+        }
+        return this;
     }
 
 	native void bindByteBuffer(int statementHandle, int index, ByteBuffer value, int length) throws SQLiteException;
@@ -144,6 +213,7 @@ public class SQLitePreparedStatement {
 	native void bindDouble(int statementHandle, int index, double value) throws SQLiteException;
 	native void bindNull(int statementHandle, int index) throws SQLiteException;
 	native void reset(int statementHandle) throws SQLiteException;
+    native void clearBindings(int statementHandle) throws SQLiteException;
 	native int prepare(int sqliteHandle, String sql) throws SQLiteException;
 	native void finalize(int statementHandle) throws SQLiteException;
     native int step(int statementHandle) throws SQLiteException;
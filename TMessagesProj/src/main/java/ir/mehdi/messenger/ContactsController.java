@@ -1179,7 +1179,9 @@ public class ContactsController {
                             @Override
                             public void run() {
                                 contacts = contactsArr;
+                                setContactsPinned(contactsDict, false);
                                 contactsDict = contactsDictionary;
+                                setContactsPinned(contactsDict, true);
                                 usersSectionsDict = sectionsDict;
                                 usersMutualSectionsDict = sectionsDictMutual;
                                 sortedUsersSectionsArray = sortedSectionsArray;
@@ -1245,6 +1247,13 @@ public class ContactsController {
         }
     }
 
+    // contacts are listed straight from the users cache, so they are kept in it
+    private void setContactsPinned(SparseArray<TLRPC.TL_contact> dict, boolean pinned) {
+        for (int a = 0; a < dict.size(); a++) {
+            MessagesController.getInstance().setUserPinned(dict.keyAt(a), pinned);
+        }
+    }
+
     private void saveContactsLoadTime() {
         try {
             SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
@@ -1546,6 +1555,7 @@ public class ContactsController {
                         if (contactsDict.get(contact.user_id) == null) {
                             contacts.add(contact);
                             contactsDict.put(contact.user_id, contact);
+                            MessagesController.getInstance().setUserPinned(contact.user_id, true);
                         }
                     }
                     for (int a = 0; a < contactsToDelete.size(); a++) {
@@ -1554,6 +1564,7 @@ public class ContactsController {
                         if (contact != null) {
                             contacts.remove(contact);
                             contactsDict.remove(uid);
+                            MessagesController.getInstance().setUserPinned(uid, false);
                         }
                     }
                     if (!newContacts.isEmpty()) {
@@ -1780,6 +1791,7 @@ public class ContactsController {
                                 newContact.user_id = u.id;
                                 contacts.add(newContact);
                                 contactsDict.put(newContact.user_id, newContact);
+                                MessagesController.getInstance().setUserPinned(newContact.user_id, true);
                             }
                         }
                         buildContactsSectionsArrays(true);
@@ -1846,6 +1858,7 @@ public class ContactsController {
                                 remove = true;
                                 contacts.remove(contact);
                                 contactsDict.remove(user.id);
+                                MessagesController.getInstance().setUserPinned(user.id, false);
                             }
                         }
                         if (remove) {
@@ -10,8 +10,11 @@ package ir.mehdi.messenger;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -33,6 +36,16 @@ import android.widget.TextView;
 
 public class Emoji {
     private static HashMap<CharSequence, DrawableInfo> rects = new HashMap<>();
+    private static DrawableInfo[] scannerInfos;
+    private static EmojiScanner scanner;
+    private static final int maxScannedTexts = 200;
+    private static final int[] noEmoji = new int[] {0};
+    private static LinkedHashMap<String, int[]> scannedTexts = new LinkedHashMap<String, int[]>(maxScannedTexts, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > maxScannedTexts;
+        }
+    };
     private static int drawImgSize;
     private static int bigImgSize;
     private static boolean inited = false;
@@ -65,6 +78,13 @@ public class Emoji {
         drawImgSize = AndroidUtilities.dp(20);
         bigImgSize = AndroidUtilities.dp(AndroidUtilities.isTablet() ? 40 : 32);
 
+        int emojiCount = 0;
+        for (int j = 0; j < EmojiData.data.length; j++) {
+            emojiCount += EmojiData.data[j].length;
+        }
+        String[] scannerCodes = new String[emojiCount];
+        scannerInfos = new DrawableInfo[emojiCount];
+        emojiCount = 0;
         for (int j = 0; j < EmojiData.data.length; j++) {
             int count2 = (int) Math.ceil(EmojiData.data[j].length / (float) splitCount);
             int position;
@@ -74,9 +94,14 @@ public class Emoji {
                 int row = position % cols[j][page];
                 int col = position / cols[j][page];
                 Rect rect = new Rect(row * emojiFullSize + row * add, col * emojiFullSize + col * add, (row + 1) * emojiFullSize + row * add, (col + 1) * emojiFullSize + col * add);
-                rects.put(EmojiData.data[j][i], new DrawableInfo(rect, (byte) j, (byte) page, i));
+                DrawableInfo info = new DrawableInfo(rect, (byte) j, (byte) page, i);
+                rects.put(EmojiData.data[j][i], info);
+                scannerCodes[emojiCount] = EmojiData.data[j][i];
+                scannerInfos[emojiCount] = info;
+                emojiCount++;
             }
         }
+        scanner = new EmojiScanner(scannerCodes);
         placeholderPaint = new Paint();
         placeholderPaint.setColor(0x00000000);
     }
@@ -334,132 +359,25 @@ public class Emoji {
         if (MessagesController.getInstance().useSystemEmoji || cs == null || cs.length() == 0) {
             return cs;
         }
-        //String str = "\"\uD83D\uDC68\uD83C\uDFFB\u200D\uD83C\uDFA4\""
-        //SpannableStringLight.isFieldsAvailable();
-        //SpannableStringLight s = new SpannableStringLight(cs.toString());
         Spannable s;
+        String text = cs.toString();
         if (!createNew && cs instanceof Spannable) {
             s = (Spannable) cs;
         } else {
-            s = Spannable.Factory.getInstance().newSpannable(cs.toString());
+            s = Spannable.Factory.getInstance().newSpannable(text);
+        }
+        int[] emoji = findEmoji(text);
+        if (emojiOnly != null) {
+            emojiOnly[0] = emoji[0];
         }
-        long buf = 0;
         int emojiCount = 0;
-        char c;
-        int startIndex = -1;
-        int startLength = 0;
-        int previousGoodIndex = 0;
-        StringBuilder emojiCode = new StringBuilder(16);
-        StringBuilder addionalCode = new StringBuilder(2);
-        boolean nextIsSkinTone;
-        EmojiDrawable drawable;
-        EmojiSpan span;
-        int length = cs.length();
-        boolean doneEmoji = false;
-        int nextValidLength;
-        boolean nextValid;
-        //s.setSpansCount(emojiCount);
-
         try {
-            for (int i = 0; i < length; i++) {
-                c = cs.charAt(i);
-                if (c >= 0xD83C && c <= 0xD83E || (buf != 0 && (buf & 0xFFFFFFFF00000000L) == 0 && (buf & 0xFFFF) == 0xD83C && (c >= 0xDDE6 && c <= 0xDDFF))) {
-                    if (startIndex == -1) {
-                        startIndex = i;
-                    }
-                    emojiCode.append(c);
-                    startLength++;
-                    buf <<= 16;
-                    buf |= c;
-                } else if (emojiCode.length() > 0 && (c == 0x2640 || c == 0x2642 || c == 0x2695)) {
-                    emojiCode.append(c);
-                    startLength++;
-                    buf = 0;
-                    doneEmoji = true;
-                } else if (buf > 0 && (c & 0xF000) == 0xD000) {
-                    emojiCode.append(c);
-                    startLength++;
-                    buf = 0;
-                    doneEmoji = true;
-                } else if (c == 0x20E3) {
-                    if (i > 0) {
-                        char c2 = cs.charAt(previousGoodIndex);
-                        if ((c2 >= '0' && c2 <= '9') || c2 == '#' || c2 == '*') {
-                            startIndex = previousGoodIndex;
-                            startLength = i - previousGoodIndex + 1;
-                            emojiCode.append(c2);
-                            emojiCode.append(c);
-                            doneEmoji = true;
-                        }
-                    }
-                } else if ((c == 0x00A9 || c == 0x00AE || c >= 0x203C && c <= 0x3299) && EmojiData.dataCharsMap.containsKey(c)) {
-                    if (startIndex == -1) {
-                        startIndex = i;
-                    }
-                    startLength++;
-                    emojiCode.append(c);
-                    doneEmoji = true;
-                } else if (startIndex != -1) {
-                    emojiCode.setLength(0);
-                    startIndex = -1;
-                    startLength = 0;
-                    doneEmoji = false;
-                } else if (c != 0xfe0f) {
-                    if (emojiOnly != null) {
-                        emojiOnly[0] = 0;
-                        emojiOnly = null;
-                    }
-                }
-                if (doneEmoji && i + 2 < length && cs.charAt(i + 1) == 0xD83C) {
-                    char next = cs.charAt(i + 2);
-                    if (next >= 0xDFFB && next <= 0xDFFF) {
-                        emojiCode.append(cs.subSequence(i + 1, i + 3));
-                        startLength += 2;
-                        i += 2;
-                    }
-                }
-                previousGoodIndex = i;
-                for (int a = 0; a < 3; a++) {
-                    if (i + 1 < length) {
-                        c = cs.charAt(i + 1);
-                        if (a == 1) {
-                            if (c == 0x200D && emojiCode.length() > 0) {
-                                emojiCode.append(c);
-                                i++;
-                                startLength++;
-                                doneEmoji = false;
-                            }
-                        } else {
-                            if (c >= 0xFE00 && c <= 0xFE0F) {
-                                i++;
-                                startLength++;
-                            }
-                        }
-                    }
-                }
-                if (doneEmoji && i + 2 < length && cs.charAt(i + 1) == 0xD83C) {
-                    char next = cs.charAt(i + 2);
-                    if (next >= 0xDFFB && next <= 0xDFFF) {
-                        emojiCode.append(cs.subSequence(i + 1, i + 3));
-                        startLength += 2;
-                        i += 2;
-                    }
-                }
-                if (doneEmoji) {
-                    if (emojiOnly != null) {
-                        emojiOnly[0]++;
-                    }
-                    drawable = Emoji.getEmojiDrawable(emojiCode.subSequence(0, emojiCode.length()));
-                    if (drawable != null) {
-                        span = new EmojiSpan(drawable, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
-                        s.setSpan(span, startIndex, startIndex + startLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        emojiCount++;
-                    }
-                    startLength = 0;
-                    startIndex = -1;
-                    emojiCode.setLength(0);
-                    doneEmoji = false;
-                }
+            for (int a = 1; a < emoji.length; a += 3) {
+                EmojiDrawable drawable = new EmojiDrawable(scannerInfos[emoji[a + 2]]);
+                drawable.setBounds(0, 0, drawImgSize, drawImgSize);
+                EmojiSpan span = new EmojiSpan(drawable, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
+                s.setSpan(span, emoji[a], emoji[a + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                emojiCount++;
                 if (Build.VERSION.SDK_INT < 23 && emojiCount >= 50) {
                     break;
                 }
@@ -471,6 +389,53 @@ public class Emoji {
         return s;
     }
 
+    /**
+     * Returns the emoji found in a text as start, end and scanner index triples, after the number
+     * of emoji the text consists of (0 if it has anything else). Results of recent texts are kept,
+     * because the same text is usually emojified several times while it is laid out.
+     */
+    private static int[] findEmoji(String text) {
+        synchronized (scannedTexts) {
+            int[] cached = scannedTexts.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int[] result = noEmoji;
+        int[] end = new int[1];
+        int count = 0;
+        boolean emojiOnly = true;
+        int length = text.length();
+        for (int i = 0; i < length; ) {
+            int index = scanner.match(text, i, end);
+            if (index == -1) {
+                if (text.charAt(i) != 0xfe0f) {
+                    emojiOnly = false;
+                }
+                i++;
+                continue;
+            }
+            if (result == noEmoji) {
+                result = new int[1 + 3 * 4];
+            } else if (result.length < 1 + 3 * (count + 1)) {
+                result = Arrays.copyOf(result, result.length * 2 - 1);
+            }
+            result[1 + 3 * count] = i;
+            result[2 + 3 * count] = end[0];
+            result[3 + 3 * count] = index;
+            count++;
+            i = end[0];
+        }
+        if (result != noEmoji) {
+            result = Arrays.copyOf(result, 1 + 3 * count);
+            result[0] = emojiOnly ? count : 0;
+        }
+        synchronized (scannedTexts) {
+            scannedTexts.put(text, result);
+        }
+        return result;
+    }
+
     public static class EmojiSpan extends ImageSpan {
         private Paint.FontMetricsInt fontMetrics = null;
         private int size = AndroidUtilities.dp(20);
@@ -491,6 +456,15 @@ public class Emoji {
             size = newSize;
         }
 
+        // getSize() moves the bounds of the drawable, so a text laid out on another thread needs its own span
+        public EmojiSpan copy() {
+            EmojiDrawable drawable = new EmojiDrawable(((EmojiDrawable) getDrawable()).info);
+            drawable.fullSize = ((EmojiDrawable) getDrawable()).fullSize;
+            EmojiSpan span = new EmojiSpan(drawable, getVerticalAlignment(), size, fontMetrics);
+            span.size = size;
+            return span;
+        }
+
         @Override
         public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
             if (fm == null) {
@@ -0,0 +1,83 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Char trie over a fixed set of emoji codes. It is built once, and matching walks the text
+ * without building candidate strings. Variation selectors are skipped while matching, because the
+ * emoji data is stored without them.
+ */
+class EmojiScanner {
+
+    private ArrayList<SparseIntArray> children = new ArrayList<>();
+    private int[] values;
+
+    EmojiScanner(String[] codes) {
+        children.add(new SparseIntArray());
+        SparseIntArray nodeValues = new SparseIntArray(codes.length);
+        for (int a = 0; a < codes.length; a++) {
+            String code = codes[a];
+            int node = 0;
+            for (int b = 0; b < code.length(); b++) {
+                SparseIntArray next = children.get(node);
+                int child = next.get(code.charAt(b), -1);
+                if (child == -1) {
+                    child = children.size();
+                    children.add(new SparseIntArray(0));
+                    next.put(code.charAt(b), child);
+                }
+                node = child;
+            }
+            nodeValues.put(node, a);
+        }
+        values = new int[children.size()];
+        Arrays.fill(values, -1);
+        for (int a = 0; a < nodeValues.size(); a++) {
+            values[nodeValues.keyAt(a)] = nodeValues.valueAt(a);
+        }
+    }
+
+    private static boolean isVariationSelector(char c) {
+        return c >= 0xFE00 && c <= 0xFE0F;
+    }
+
+    /**
+     * Looks for the longest emoji that starts at {@code start}. Returns the index of its code in
+     * the array the scanner was built from, or -1 if no emoji starts there. On a match the end of
+     * the emoji, trailing variation selectors included, is stored in {@code end[0]}.
+     */
+    int match(CharSequence cs, int start, int[] end) {
+        int length = cs.length();
+        int node = 0;
+        int result = -1;
+        for (int i = start; i < length; i++) {
+            char c = cs.charAt(i);
+            if (i != start && isVariationSelector(c)) {
+                if (result != -1 && end[0] == i) {
+                    end[0] = i + 1;
+                }
+                continue;
+            }
+            node = children.get(node).get(c, -1);
+            if (node == -1) {
+                break;
+            }
+            if (values[node] != -1) {
+                result = values[node];
+                end[0] = i + 1;
+            }
+        }
+        return result;
+    }
+}
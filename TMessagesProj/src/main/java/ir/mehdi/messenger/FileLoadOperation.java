@@ -8,6 +8,8 @@
 
 package ir.mehdi.messenger;
 
+import android.util.SparseArray;
+
 import ir.mehdi.tgnet.ConnectionsManager;
 import ir.mehdi.tgnet.NativeByteBuffer;
 import ir.mehdi.tgnet.RequestDelegate;
@@ -18,6 +20,7 @@ import java.io.RandomAccessFile;
 import java.io.File;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Scanner;
 
 public class FileLoadOperation {
@@ -25,6 +28,7 @@ public class FileLoadOperation {
     private static class RequestInfo {
         private int requestToken;
         private int offset;
+        private long sendTime;
         private TLRPC.TL_upload_file response;
         private TLRPC.TL_upload_webFile responseWeb;
     }
@@ -38,13 +42,16 @@ public class FileLoadOperation {
     private final static int downloadChunkSizeBig = 1024 * 128;
     private final static int maxDownloadRequests = 4;
     private final static int maxDownloadRequestsBig = 2;
+    private final static int minParallelDownloadRequests = 2;
+    private final static int maxParallelDownloadRequests = 8;
     private final static int bigFileSizeFrom = 1024 * 1024;
 
-    private boolean started;
+    private volatile boolean started;
     private int datacenter_id;
     private TLRPC.InputFileLocation location;
     private TLRPC.TL_inputWebFileLocation webLocation;
     private volatile int state = stateIdle;
+    private volatile boolean finalFileReady;
     private int downloadedBytes;
     private int totalBytesCount;
     private int bytesCountPadding;
@@ -58,18 +65,29 @@ public class FileLoadOperation {
 
     private int nextDownloadOffset;
     private ArrayList<RequestInfo> requestInfos;
-    private ArrayList<RequestInfo> delayedRequestInfos;
+    private SparseArray<RequestInfo> delayedRequestInfos;
+
+    private BitSet downloadedParts;
+    private BitSet requestedParts;
+    private final Object partsSync = new Object();
+    private int downloadedPrefix;
+    private volatile int fileEnd;
+    private long minRequestTime;
 
     private File cacheFileTemp;
     private File cacheFileFinal;
     private File cacheIvTemp;
+    private File cacheFileParts;
 
     private String ext;
     private RandomAccessFile fileOutputStream;
     private RandomAccessFile fiv;
+    private RandomAccessFile filePartsStream;
     private File storePath;
     private File tempPath;
     private boolean isForceRequest;
+    private int priority;
+    private long queueTime;
 
     private int currentType;
 
@@ -190,6 +208,26 @@ public class FileLoadOperation {
         return isForceRequest;
     }
 
+    public void setPriority(int value) {
+        priority = value;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setQueueTime(long time) {
+        queueTime = time;
+    }
+
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    public int getDatacenterId() {
+        return datacenter_id;
+    }
+
     public void setPaths(File store, File temp) {
         storePath = store;
         tempPath = temp;
@@ -203,6 +241,10 @@ public class FileLoadOperation {
         return currentType;
     }
 
+    public File getCurrentFile() {
+        return state == stateFinished && finalFileReady ? cacheFileFinal : cacheFileTemp;
+    }
+
     public String getFileName() {
         if (location != null) {
             return location.volume_id + "_" + location.local_id + "." + ext;
@@ -223,9 +265,11 @@ public class FileLoadOperation {
         String fileNameFinal;
         String fileNameTemp;
         String fileNameIv = null;
+        String fileNameParts;
         if (webLocation != null) {
             String md5 = Utilities.MD5(webLocation.url);
             fileNameTemp = md5 + ".temp";
+            fileNameParts = md5 + ".pt";
             fileNameFinal = md5 + "." + ext;
             if (key != null) {
                 fileNameIv = md5 + ".iv";
@@ -238,6 +282,7 @@ public class FileLoadOperation {
                 }
 
                 fileNameTemp = location.volume_id + "_" + location.local_id + ".temp";
+                fileNameParts = location.volume_id + "_" + location.local_id + ".pt";
                 fileNameFinal = location.volume_id + "_" + location.local_id + "." + ext;
                 if (key != null) {
                     fileNameIv = location.volume_id + "_" + location.local_id + ".iv";
@@ -249,6 +294,7 @@ public class FileLoadOperation {
                 }
 
                 fileNameTemp = datacenter_id + "_" + location.id + ".temp";
+                fileNameParts = datacenter_id + "_" + location.id + ".pt";
                 fileNameFinal = datacenter_id + "_" + location.id + ext;
                 if (key != null) {
                     fileNameIv = datacenter_id + "_" + location.id + ".iv";
@@ -258,7 +304,8 @@ public class FileLoadOperation {
         currentDownloadChunkSize = totalBytesCount >= bigFileSizeFrom ? downloadChunkSizeBig : downloadChunkSize;
         currentMaxDownloadRequests = totalBytesCount >= bigFileSizeFrom ? maxDownloadRequestsBig : maxDownloadRequests;
         requestInfos = new ArrayList<>(currentMaxDownloadRequests);
-        delayedRequestInfos = new ArrayList<>(currentMaxDownloadRequests - 1);
+        delayedRequestInfos = new SparseArray<>(currentMaxDownloadRequests - 1);
+        fileEnd = totalBytesCount > 0 ? totalBytesCount - bytesCountPadding : Integer.MAX_VALUE;
         state = stateDownloading;
 
         cacheFileFinal = new File(storePath, fileNameFinal);
@@ -293,9 +340,45 @@ public class FileLoadOperation {
                     downloadedBytes = 0;
                 }
             }
+            if (key == null) {
+                requestedParts = new BitSet();
+                downloadedParts = new BitSet();
+                cacheFileParts = new File(tempPath, fileNameParts);
+                try {
+                    boolean partsExist = cacheFileParts.exists() && cacheFileTemp.exists();
+                    filePartsStream = new RandomAccessFile(cacheFileParts, "rws");
+                    if (partsExist) {
+                        byte[] parts = new byte[(int) filePartsStream.length()];
+                        filePartsStream.readFully(parts);
+                        downloadedBytes = 0;
+                        for (int a = 0; a < parts.length * 8; a++) {
+                            if ((parts[a >> 3] & (1 << (a & 7))) != 0) {
+                                downloadedParts.set(a);
+                                downloadedBytes += currentDownloadChunkSize;
+                            }
+                        }
+                    } else {
+                        filePartsStream.setLength(0);
+                        int count = downloadedBytes / currentDownloadChunkSize;
+                        for (int a = 0; a < count; a++) {
+                            setPartDownloaded(a);
+                        }
+                    }
+                } catch (Exception e) {
+                    FileLog.e(e);
+                    filePartsStream = null;
+                    downloadedParts = null;
+                    requestedParts = null;
+                    downloadedBytes = 0;
+                }
+                if (downloadedParts != null) {
+                    downloadedPrefix = downloadedParts.nextClearBit(0) * currentDownloadChunkSize;
+                    nextDownloadOffset = 0;
+                }
+            }
             try {
                 fileOutputStream = new RandomAccessFile(cacheFileTemp, "rws");
-                if (downloadedBytes != 0) {
+                if (downloadedBytes != 0 && downloadedParts == null) {
                     fileOutputStream.seek(downloadedBytes);
                 }
             } catch (Exception e) {
@@ -309,7 +392,7 @@ public class FileLoadOperation {
             Utilities.stageQueue.postRunnable(new Runnable() {
                 @Override
                 public void run() {
-                    if (totalBytesCount != 0 && downloadedBytes == totalBytesCount) {
+                    if (downloadedParts != null ? downloadedPrefix >= fileEnd : totalBytesCount != 0 && downloadedBytes == totalBytesCount) {
                         try {
                             onFinishLoadingFile(false);
                         } catch (Exception e) {
@@ -351,6 +434,34 @@ public class FileLoadOperation {
         });
     }
 
+    /**
+     * Stops a running download without reporting it as failed, so that {@link #start()} can resume
+     * it later from the parts already on disk. The requests are dropped on the stage queue, which
+     * runs onPaused once the operation can be started again.
+     */
+    public void pause(final Runnable onPaused) {
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (state == stateDownloading) {
+                    if (requestInfos != null) {
+                        for (int a = 0; a < requestInfos.size(); a++) {
+                            RequestInfo requestInfo = requestInfos.get(a);
+                            if (requestInfo.requestToken != 0) {
+                                ConnectionsManager.getInstance().cancelRequest(requestInfo.requestToken, true);
+                            }
+                        }
+                        requestInfos.clear();
+                    }
+                    cleanup();
+                    state = stateIdle;
+                    started = false;
+                }
+                onPaused.run();
+            }
+        });
+    }
+
     private void cleanup() {
         try {
             if (fileOutputStream != null) {
@@ -374,9 +485,18 @@ public class FileLoadOperation {
         } catch (Exception e) {
             FileLog.e(e);
         }
+
+        try {
+            if (filePartsStream != null) {
+                filePartsStream.close();
+                filePartsStream = null;
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
         if (delayedRequestInfos != null) {
             for (int a = 0; a < delayedRequestInfos.size(); a++) {
-                RequestInfo requestInfo = delayedRequestInfos.get(a);
+                RequestInfo requestInfo = delayedRequestInfos.valueAt(a);
                 if (requestInfo.response != null) {
                     requestInfo.response.disableFree = false;
                     requestInfo.response.freeResources();
@@ -394,11 +514,18 @@ public class FileLoadOperation {
             return;
         }
         state = stateFinished;
+        if (downloadedParts != null && fileOutputStream != null && fileEnd != Integer.MAX_VALUE && fileOutputStream.length() > fileEnd) {
+            fileOutputStream.setLength(fileEnd);
+        }
         cleanup();
         if (cacheIvTemp != null) {
             cacheIvTemp.delete();
             cacheIvTemp = null;
         }
+        if (cacheFileParts != null) {
+            cacheFileParts.delete();
+            cacheFileParts = null;
+        }
         if (cacheFileTemp != null) {
             boolean renameResult = cacheFileTemp.renameTo(cacheFileFinal);
             if (!renameResult) {
@@ -423,6 +550,9 @@ public class FileLoadOperation {
                 cacheFileFinal = cacheFileTemp;
             }
         }
+        // stream readers switch to the final file, so they are only woken up once it is there
+        finalFileReady = true;
+        notifyStreamReaders();
         if (BuildVars.DEBUG_VERSION) {
             FileLog.e("finished downloading file to " + cacheFileFinal);
         }
@@ -440,13 +570,159 @@ public class FileLoadOperation {
         }
     }
 
+    private void setPartDownloaded(int part) throws Exception {
+        synchronized (partsSync) {
+            downloadedParts.set(part);
+            partsSync.notifyAll();
+        }
+        int index = part >> 3;
+        int value = 0;
+        for (int a = 0; a < 8; a++) {
+            if (downloadedParts.get((index << 3) + a)) {
+                value |= 1 << a;
+            }
+        }
+        filePartsStream.seek(index);
+        filePartsStream.write(value);
+    }
+
+    private void notifyStreamReaders() {
+        synchronized (partsSync) {
+            partsSync.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until the bytes at {@code offset} are on disk and returns how many of the next
+     * {@code length} bytes can be read from {@link #getCurrentFile()} without waiting. Returns 0 at
+     * the end of the file and -1 if the file can't be streamed (failed, cancelled, paused or encrypted).
+     */
+    public int waitForStreamData(int offset, int length) throws InterruptedException {
+        synchronized (partsSync) {
+            while (true) {
+                int end = fileEnd;
+                if (state == stateFailed || state == stateIdle) {
+                    // a paused operation would never wake the reader up
+                    return -1;
+                } else if (state == stateFinished && finalFileReady) {
+                    if (cacheFileFinal != null && end == Integer.MAX_VALUE) {
+                        end = (int) cacheFileFinal.length();
+                    }
+                    return Math.max(0, Math.min(length, end - offset));
+                } else if (state == stateDownloading && started) {
+                    if (downloadedParts == null) {
+                        return -1;
+                    }
+                    if (offset >= end) {
+                        return 0;
+                    }
+                    int part = offset / currentDownloadChunkSize;
+                    if (downloadedParts.get(part)) {
+                        long available = Math.min((long) downloadedParts.nextClearBit(part) * currentDownloadChunkSize, end) - offset;
+                        return (int) Math.min(length, available);
+                    }
+                }
+                partsSync.wait(1000);
+            }
+        }
+    }
+
+    /**
+     * Makes the parts from {@code offset} onwards the next ones to be requested, so a reader that
+     * seeks into the middle of the file doesn't have to wait for everything before it.
+     */
+    public void setStreamOffset(final int offset) {
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (state != stateDownloading || downloadedParts == null) {
+                    return;
+                }
+                nextDownloadOffset = offset / currentDownloadChunkSize * currentDownloadChunkSize;
+                startDownloadRequest();
+            }
+        });
+    }
+
+    private int findNextPart(int part) {
+        for (; (long) part * currentDownloadChunkSize < fileEnd; part++) {
+            if (!downloadedParts.get(part) && !requestedParts.get(part)) {
+                return part;
+            }
+        }
+        return -1;
+    }
+
+    private void updateRequestsCount(RequestInfo requestInfo) {
+        if (totalBytesCount <= 0) {
+            return;
+        }
+        long time = System.currentTimeMillis() - requestInfo.sendTime;
+        if (minRequestTime == 0 || time < minRequestTime) {
+            minRequestTime = time;
+        }
+        if (time <= minRequestTime * 3 / 2) {
+            if (currentMaxDownloadRequests < maxParallelDownloadRequests) {
+                currentMaxDownloadRequests++;
+            }
+        } else if (time > minRequestTime * 3) {
+            if (currentMaxDownloadRequests > minParallelDownloadRequests) {
+                currentMaxDownloadRequests--;
+            }
+        }
+    }
+
+    private void processPartResult(RequestInfo requestInfo) throws Exception {
+        NativeByteBuffer bytes;
+        if (requestInfo.response != null) {
+            bytes = requestInfo.response.bytes;
+        } else {
+            bytes = requestInfo.responseWeb.bytes;
+        }
+        int currentBytesSize = bytes != null ? bytes.limit() : 0;
+        if (currentBytesSize < currentDownloadChunkSize) {
+            fileEnd = Math.min(fileEnd, requestInfo.offset + currentBytesSize);
+        }
+        if (currentBytesSize != 0) {
+            int part = requestInfo.offset / currentDownloadChunkSize;
+            if (!downloadedParts.get(part)) {
+                FileChannel channel = fileOutputStream.getChannel();
+                long position = requestInfo.offset;
+                while (bytes.buffer.hasRemaining()) {
+                    position += channel.write(bytes.buffer, position);
+                }
+                setPartDownloaded(part);
+                downloadedBytes += currentBytesSize;
+                if (requestInfo.offset == downloadedPrefix) {
+                    downloadedPrefix = downloadedParts.nextClearBit(part) * currentDownloadChunkSize;
+                }
+            }
+        }
+        updateRequestsCount(requestInfo);
+        if (totalBytesCount > 0 && state == stateDownloading) {
+            delegate.didChangedLoadProgress(FileLoadOperation.this, Math.min(1.0f, (float) downloadedBytes / (float) totalBytesCount));
+        }
+        if (downloadedPrefix >= fileEnd) {
+            onFinishLoadingFile(true);
+        } else {
+            startDownloadRequest();
+        }
+    }
+
     private void processRequestResult(RequestInfo requestInfo, TLRPC.TL_error error) {
         requestInfos.remove(requestInfo);
+        if (requestedParts != null) {
+            requestedParts.clear(requestInfo.offset / currentDownloadChunkSize);
+        }
         if (error == null) {
             try {
+                if (downloadedParts != null) {
+                    processPartResult(requestInfo);
+                    return;
+                }
                 if (downloadedBytes != requestInfo.offset) {
                     if (state == stateDownloading) {
-                        delayedRequestInfos.add(requestInfo);
+                        delayedRequestInfos.put(requestInfo.offset, requestInfo);
                         if (requestInfo.response != null) {
                             requestInfo.response.disableFree = true;
                         } else {
@@ -488,19 +764,16 @@ public class FileLoadOperation {
                     delegate.didChangedLoadProgress(FileLoadOperation.this, Math.min(1.0f, (float) downloadedBytes / (float) totalBytesCount));
                 }
 
-                for (int a = 0; a < delayedRequestInfos.size(); a++) {
-                    RequestInfo delayedRequestInfo = delayedRequestInfos.get(a);
-                    if (downloadedBytes == delayedRequestInfo.offset) {
-                        delayedRequestInfos.remove(a);
-                        processRequestResult(delayedRequestInfo, null);
-                        if (delayedRequestInfo.response != null) {
-                            delayedRequestInfo.response.disableFree = false;
-                            delayedRequestInfo.response.freeResources();
-                        } else {
-                            delayedRequestInfo.responseWeb.disableFree = false;
-                            delayedRequestInfo.responseWeb.freeResources();
-                        }
-                        break;
+                RequestInfo delayedRequestInfo = delayedRequestInfos.get(downloadedBytes);
+                if (delayedRequestInfo != null) {
+                    delayedRequestInfos.remove(downloadedBytes);
+                    processRequestResult(delayedRequestInfo, null);
+                    if (delayedRequestInfo.response != null) {
+                        delayedRequestInfo.response.disableFree = false;
+                        delayedRequestInfo.response.freeResources();
+                    } else {
+                        delayedRequestInfo.responseWeb.disableFree = false;
+                        delayedRequestInfo.responseWeb.freeResources();
                     }
                 }
 
@@ -532,7 +805,19 @@ public class FileLoadOperation {
                     startDownloadRequest();
                 }
             } else if (error.text.contains("OFFSET_INVALID")) {
-                if (downloadedBytes % currentDownloadChunkSize == 0) {
+                if (downloadedParts != null) {
+                    fileEnd = Math.min(fileEnd, requestInfo.offset);
+                    try {
+                        if (downloadedPrefix >= fileEnd) {
+                            onFinishLoadingFile(true);
+                        } else {
+                            startDownloadRequest();
+                        }
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                        onFail(false, 0);
+                    }
+                } else if (downloadedBytes % currentDownloadChunkSize == 0) {
                     try {
                         onFinishLoadingFile(true);
                     } catch (Exception e) {
@@ -558,6 +843,7 @@ public class FileLoadOperation {
     private void onFail(boolean thread, final int reason) {
         cleanup();
         state = stateFailed;
+        notifyStreamReaders();
         if (thread) {
             Utilities.stageQueue.postRunnable(new Runnable() {
                 @Override
@@ -571,7 +857,7 @@ public class FileLoadOperation {
     }
 
     private void startDownloadRequest() {
-        if (state != stateDownloading || totalBytesCount > 0 && nextDownloadOffset >= totalBytesCount || requestInfos.size() + delayedRequestInfos.size() >= currentMaxDownloadRequests) {
+        if (state != stateDownloading || downloadedParts == null && totalBytesCount > 0 && nextDownloadOffset >= totalBytesCount || requestInfos.size() + delayedRequestInfos.size() >= currentMaxDownloadRequests) {
             return;
         }
         int count = 1;
@@ -580,6 +866,17 @@ public class FileLoadOperation {
         }
 
         for (int a = 0; a < count; a++) {
+            if (downloadedParts != null) {
+                int part = findNextPart(nextDownloadOffset / currentDownloadChunkSize);
+                if (part == -1) {
+                    part = findNextPart(downloadedPrefix / currentDownloadChunkSize);
+                    if (part == -1) {
+                        break;
+                    }
+                }
+                requestedParts.set(part);
+                nextDownloadOffset = part * currentDownloadChunkSize;
+            }
             if (totalBytesCount > 0 && nextDownloadOffset >= totalBytesCount) {
                 break;
             }
@@ -607,6 +904,7 @@ public class FileLoadOperation {
             final RequestInfo requestInfo = new RequestInfo();
             requestInfos.add(requestInfo);
             requestInfo.offset = offset;
+            requestInfo.sendTime = System.currentTimeMillis();
             requestInfo.requestToken = ConnectionsManager.getInstance().sendRequest(request, new RequestDelegate() {
                 @Override
                 public void run(TLObject response, TLRPC.TL_error error) {
@@ -0,0 +1,221 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides which downloads run. Pending operations are started by priority class, the ones from the
+ * datacenter with the fewest running downloads first, then in posting order. Each class may only
+ * use part of the slots, so background loads can't fill the link, and documents the user asked for
+ * leave the last slot to images on screen. Operations that wait longer than their class deadline
+ * move up one class (up to prefetch), and a visible download that finds no free slot pauses the
+ * lowest running one below the visible classes. Only used from the FileLoader queue.
+ */
+public class FileLoadScheduler {
+
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_AUTO = 1;
+    public static final int PRIORITY_PREFETCH = 2;
+    public static final int PRIORITY_VISIBLE = 3;
+    public static final int PRIORITY_VISIBLE_IMAGE = 4;
+    public static final int PRIORITIES_COUNT = 5;
+
+    private static final int maxRunningCount = 6;
+    private static final int[] classBudgets = new int[] {1, 2, 4, maxRunningCount - 1, maxRunningCount};
+    private static final long[] classDeadlines = new long[] {30000, 15000};
+
+    private DispatchQueue queue;
+    private ArrayList<FileLoadOperation> pendingOperations = new ArrayList<>();
+    private ArrayList<FileLoadOperation> runningOperations = new ArrayList<>();
+    private ArrayList<FileLoadOperation> pausingOperations = new ArrayList<>();
+    private SparseIntArray runningPerDatacenter = new SparseIntArray();
+
+    private final AtomicLongArray totalWaitTime = new AtomicLongArray(PRIORITIES_COUNT);
+    private final AtomicLongArray startedCount = new AtomicLongArray(PRIORITIES_COUNT);
+    private volatile int pendingCount;
+    private volatile int runningCount;
+    private volatile int preemptedCount;
+
+    public FileLoadScheduler(DispatchQueue queue) {
+        this.queue = queue;
+    }
+
+    public void add(FileLoadOperation operation, int priority) {
+        operation.setPriority(priority);
+        operation.setQueueTime(System.currentTimeMillis());
+        pendingOperations.add(operation);
+        schedule();
+    }
+
+    public void setPriority(FileLoadOperation operation, int priority) {
+        if (operation.getPriority() >= priority) {
+            return;
+        }
+        operation.setPriority(priority);
+        schedule();
+    }
+
+    /**
+     * Starts an operation right away, even if that goes over the budget of its class.
+     */
+    public void startNow(FileLoadOperation operation) {
+        operation.setPriority(PRIORITY_VISIBLE);
+        if (pendingOperations.remove(operation)) {
+            start(operation);
+            updateCounts();
+        }
+    }
+
+    public static boolean isVisible(int priority) {
+        return priority >= PRIORITY_VISIBLE;
+    }
+
+    public boolean isRunning(FileLoadOperation operation) {
+        return runningOperations.contains(operation);
+    }
+
+    /**
+     * Forgets a finished, failed or cancelled operation and starts the next ones.
+     */
+    public void remove(FileLoadOperation operation) {
+        if (operation != null) {
+            if (runningOperations.remove(operation)) {
+                changeDatacenterCount(operation.getDatacenterId(), -1);
+            } else if (!pendingOperations.remove(operation)) {
+                pausingOperations.remove(operation);
+            }
+        }
+        schedule();
+    }
+
+    public void schedule() {
+        long time = System.currentTimeMillis();
+        for (int a = 0; a < pendingOperations.size(); a++) {
+            FileLoadOperation operation = pendingOperations.get(a);
+            int priority = operation.getPriority();
+            if (priority < PRIORITY_PREFETCH && time - operation.getQueueTime() > classDeadlines[priority]) {
+                operation.setPriority(priority + 1);
+                operation.setQueueTime(time);
+            }
+        }
+        while (!pendingOperations.isEmpty()) {
+            FileLoadOperation operation = getNextOperation();
+            if (!canStart(operation.getPriority())) {
+                if (!isVisible(operation.getPriority()) || !preemptOperation()) {
+                    break;
+                }
+            }
+            pendingOperations.remove(operation);
+            start(operation);
+        }
+        updateCounts();
+    }
+
+    private FileLoadOperation getNextOperation() {
+        FileLoadOperation result = null;
+        int resultRunning = 0;
+        for (int a = 0; a < pendingOperations.size(); a++) {
+            FileLoadOperation operation = pendingOperations.get(a);
+            int running = runningPerDatacenter.get(operation.getDatacenterId());
+            if (result == null || operation.getPriority() > result.getPriority() || operation.getPriority() == result.getPriority() && running < resultRunning) {
+                result = operation;
+                resultRunning = running;
+            }
+        }
+        return result;
+    }
+
+    private boolean canStart(int priority) {
+        if (runningOperations.size() >= maxRunningCount) {
+            return false;
+        }
+        int count = 0;
+        for (int a = 0; a < runningOperations.size(); a++) {
+            if (runningOperations.get(a).getPriority() <= priority) {
+                count++;
+            }
+        }
+        return count < classBudgets[priority];
+    }
+
+    private boolean preemptOperation() {
+        FileLoadOperation victim = null;
+        for (int a = runningOperations.size() - 1; a >= 0; a--) {
+            FileLoadOperation operation = runningOperations.get(a);
+            if (operation.getPriority() < PRIORITY_VISIBLE && (victim == null || operation.getPriority() < victim.getPriority())) {
+                victim = operation;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        runningOperations.remove(victim);
+        changeDatacenterCount(victim.getDatacenterId(), -1);
+        pausingOperations.add(victim);
+        preemptedCount++;
+        final FileLoadOperation operation = victim;
+        // the stage queue drops its requests first, only then can it be started again
+        victim.pause(new Runnable() {
+            @Override
+            public void run() {
+                queue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pausingOperations.remove(operation)) {
+                            operation.setQueueTime(System.currentTimeMillis());
+                            pendingOperations.add(0, operation);
+                            schedule();
+                        }
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    private void start(FileLoadOperation operation) {
+        int priority = operation.getPriority();
+        totalWaitTime.addAndGet(priority, System.currentTimeMillis() - operation.getQueueTime());
+        startedCount.incrementAndGet(priority);
+        if (operation.start()) {
+            runningOperations.add(operation);
+            changeDatacenterCount(operation.getDatacenterId(), 1);
+        }
+    }
+
+    private void changeDatacenterCount(int datacenterId, int diff) {
+        runningPerDatacenter.put(datacenterId, runningPerDatacenter.get(datacenterId) + diff);
+    }
+
+    private void updateCounts() {
+        pendingCount = pendingOperations.size();
+        runningCount = runningOperations.size();
+    }
+
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    public int getPreemptedCount() {
+        return preemptedCount;
+    }
+
+    public long getAverageWaitTime(int priority) {
+        long count = startedCount.get(priority);
+        return count != 0 ? totalWaitTime.get(priority) / count : 0;
+    }
+}
@@ -40,9 +40,7 @@ public class FileLoader {
 
     private LinkedList<FileUploadOperation> uploadOperationQueue = new LinkedList<>();
     private LinkedList<FileUploadOperation> uploadSmallOperationQueue = new LinkedList<>();
-    private LinkedList<FileLoadOperation> loadOperationQueue = new LinkedList<>();
-    private LinkedList<FileLoadOperation> audioLoadOperationQueue = new LinkedList<>();
-    private LinkedList<FileLoadOperation> photoLoadOperationQueue = new LinkedList<>();
+    private FileLoadScheduler loadScheduler = new FileLoadScheduler(fileLoaderQueue);
     private ConcurrentHashMap<String, FileUploadOperation> uploadOperationPaths = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, FileUploadOperation> uploadOperationPathsEnc = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, FileLoadOperation> loadOperationPaths = new ConcurrentHashMap<>();
@@ -50,9 +48,6 @@ public class FileLoader {
 
     private FileLoaderDelegate delegate = null;
 
-    private int currentLoadOperationsCount = 0;
-    private int currentAudioLoadOperationsCount = 0;
-    private int currentPhotoLoadOperationsCount = 0;
     private int currentUploadOperationsCount = 0;
     private int currentUploadSmallOperationsCount = 0;
 
@@ -303,19 +298,7 @@ public class FileLoader {
                 }
                 FileLoadOperation operation = loadOperationPaths.remove(fileName);
                 if (operation != null) {
-                    if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
-                        if (!audioLoadOperationQueue.remove(operation)) {
-                            currentAudioLoadOperationsCount--;
-                        }
-                    } else if (location != null) {
-                        if (!photoLoadOperationQueue.remove(operation) || MessageObject.isImageWebDocument(webDocument)) {
-                            currentPhotoLoadOperationsCount--;
-                        }
-                    } else {
-                        if (!loadOperationQueue.remove(operation)) {
-                            currentLoadOperationsCount--;
-                        }
-                    }
+                    loadScheduler.remove(operation);
                     operation.cancel();
                 }
             }
@@ -341,264 +324,206 @@ public class FileLoader {
     }
 
     public void loadFile(TLRPC.PhotoSize photo, String ext, boolean cacheOnly) {
-        loadFile(null, null, photo.location, ext, photo.size, false, cacheOnly || (photo != null && photo.size == 0 || photo.location.key != null));
+        loadFile(null, null, photo.location, ext, photo.size, FileLoadScheduler.PRIORITY_AUTO, cacheOnly || (photo != null && photo.size == 0 || photo.location.key != null));
     }
 
     public void loadFile(TLRPC.Document document, boolean force, boolean cacheOnly) {
-        loadFile(document, null, null, null, 0, force, cacheOnly || document != null && document.key != null);
+        loadFile(document, force ? FileLoadScheduler.PRIORITY_VISIBLE : FileLoadScheduler.PRIORITY_AUTO, cacheOnly);
+    }
+
+    public void loadFile(TLRPC.Document document, int priority, boolean cacheOnly) {
+        loadFile(document, null, null, null, 0, priority, cacheOnly || document != null && document.key != null);
     }
 
     public void loadFile(TLRPC.TL_webDocument document, boolean force, boolean cacheOnly) {
-        loadFile(null, document, null, null, 0, force, cacheOnly);
+        loadFile(null, document, null, null, 0, force ? FileLoadScheduler.PRIORITY_VISIBLE : FileLoadScheduler.PRIORITY_AUTO, cacheOnly);
     }
 
     public void loadFile(TLRPC.FileLocation location, String ext, int size, boolean cacheOnly) {
-        loadFile(null, null, location, ext, size, true, cacheOnly || size == 0 || (location != null && location.key != null));
+        loadFile(null, null, location, ext, size, FileLoadScheduler.PRIORITY_VISIBLE_IMAGE, cacheOnly || size == 0 || (location != null && location.key != null));
     }
 
-    private void loadFile(final TLRPC.Document document, final TLRPC.TL_webDocument webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final boolean force, final boolean cacheOnly) {
+    private void loadFile(final TLRPC.Document document, final TLRPC.TL_webDocument webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final int priority, final boolean cacheOnly) {
         fileLoaderQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                String fileName = null;
-                if (location != null) {
-                    fileName = getAttachFileName(location, locationExt);
-                } else if (document != null) {
-                    fileName = getAttachFileName(document);
-                } else if (webDocument != null) {
-                    fileName = getAttachFileName(webDocument);
-                }
-                if (fileName == null || fileName.contains("" + Integer.MIN_VALUE)) {
-                    return;
-                }
-
-                FileLoadOperation operation;
-                operation = loadOperationPaths.get(fileName);
-                if (operation != null) {
-                    if (force) {
-                        operation.setForceRequest(true);
-                        LinkedList<FileLoadOperation> downloadQueue;
-                        if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
-                            downloadQueue = audioLoadOperationQueue;
-                        } else if (location != null || MessageObject.isImageWebDocument(webDocument)) {
-                            downloadQueue = photoLoadOperationQueue;
-                        } else {
-                            downloadQueue = loadOperationQueue;
-                        }
-                        if (downloadQueue != null) {
-                            int index = downloadQueue.indexOf(operation);
-                            if (index > 0) {
-                                downloadQueue.remove(index);
-                                downloadQueue.add(0, operation);
-                            }
-                        }
-                    }
-                    return;
-                }
+                loadFileInternal(document, webDocument, location, locationExt, locationSize, priority, cacheOnly);
+            }
+        });
+    }
 
-                File tempDir = getDirectory(MEDIA_DIR_CACHE);
-                File storeDir = tempDir;
-                int type = MEDIA_DIR_CACHE;
+    private FileLoadOperation loadFileInternal(final TLRPC.Document document, final TLRPC.TL_webDocument webDocument, final TLRPC.FileLocation location, final String locationExt, final int locationSize, final int priority, final boolean cacheOnly) {
+        String fileName = null;
+        if (location != null) {
+            fileName = getAttachFileName(location, locationExt);
+        } else if (document != null) {
+            fileName = getAttachFileName(document);
+        } else if (webDocument != null) {
+            fileName = getAttachFileName(webDocument);
+        }
+        if (fileName == null || fileName.contains("" + Integer.MIN_VALUE)) {
+            return null;
+        }
 
-                if (location != null) {
-                    operation = new FileLoadOperation(location, locationExt, locationSize);
-                    type = MEDIA_DIR_IMAGE;
-                } else if (document != null) {
-                    operation = new FileLoadOperation(document);
-                    if (MessageObject.isVoiceDocument(document)) {
-                        type = MEDIA_DIR_AUDIO;
-                    } else if (MessageObject.isVideoDocument(document)) {
-                        type = MEDIA_DIR_VIDEO;
-                    } else {
-                        type = MEDIA_DIR_DOCUMENT;
-                    }
-                } else if (webDocument != null) {
-                    operation = new FileLoadOperation(webDocument);
-                    if (MessageObject.isVoiceWebDocument(webDocument)) {
-                        type = MEDIA_DIR_AUDIO;
-                    } else if (MessageObject.isVideoWebDocument(webDocument)) {
-                        type = MEDIA_DIR_VIDEO;
-                    } else if (MessageObject.isImageWebDocument(webDocument)) {
-                        type = MEDIA_DIR_IMAGE;
-                    } else {
-                        type = MEDIA_DIR_DOCUMENT;
-                    }
-                }
-                if (!cacheOnly) {
-                    storeDir = getDirectory(type);
-                }
-                operation.setPaths(storeDir, tempDir);
+        FileLoadOperation operation;
+        operation = loadOperationPaths.get(fileName);
+        if (operation != null) {
+            if (FileLoadScheduler.isVisible(priority)) {
+                operation.setForceRequest(true);
+            }
+            loadScheduler.setPriority(operation, priority);
+            return operation;
+        }
 
-                final String finalFileName = fileName;
-                final int finalType = type;
-                FileLoadOperation.FileLoadOperationDelegate fileLoadOperationDelegate = new FileLoadOperation.FileLoadOperationDelegate() {
-                    @Override
-                    public void didFinishLoadingFile(FileLoadOperation operation, File finalFile) {
-                        if (delegate != null) {
-                            delegate.fileDidLoaded(finalFileName, finalFile, finalType);
-                        }
-                        checkDownloadQueue(document, webDocument, location, finalFileName);
-                    }
+        File tempDir = getDirectory(MEDIA_DIR_CACHE);
+        File storeDir = tempDir;
+        int type = MEDIA_DIR_CACHE;
+
+        if (location != null) {
+            operation = new FileLoadOperation(location, locationExt, locationSize);
+            type = MEDIA_DIR_IMAGE;
+        } else if (document != null) {
+            operation = new FileLoadOperation(document);
+            if (MessageObject.isVoiceDocument(document)) {
+                type = MEDIA_DIR_AUDIO;
+            } else if (MessageObject.isVideoDocument(document)) {
+                type = MEDIA_DIR_VIDEO;
+            } else {
+                type = MEDIA_DIR_DOCUMENT;
+            }
+        } else if (webDocument != null) {
+            operation = new FileLoadOperation(webDocument);
+            if (MessageObject.isVoiceWebDocument(webDocument)) {
+                type = MEDIA_DIR_AUDIO;
+            } else if (MessageObject.isVideoWebDocument(webDocument)) {
+                type = MEDIA_DIR_VIDEO;
+            } else if (MessageObject.isImageWebDocument(webDocument)) {
+                type = MEDIA_DIR_IMAGE;
+            } else {
+                type = MEDIA_DIR_DOCUMENT;
+            }
+        }
+        if (!cacheOnly) {
+            storeDir = getDirectory(type);
+        }
+        operation.setPaths(storeDir, tempDir);
 
-                    @Override
-                    public void didFailedLoadingFile(FileLoadOperation operation, int reason) {
-                        checkDownloadQueue(document, webDocument, location, finalFileName);
-                        if (delegate != null) {
-                            delegate.fileDidFailedLoad(finalFileName, reason);
-                        }
-                    }
+        final String finalFileName = fileName;
+        final int finalType = type;
+        FileLoadOperation.FileLoadOperationDelegate fileLoadOperationDelegate = new FileLoadOperation.FileLoadOperationDelegate() {
+            @Override
+            public void didFinishLoadingFile(FileLoadOperation operation, File finalFile) {
+                if (delegate != null) {
+                    delegate.fileDidLoaded(finalFileName, finalFile, finalType);
+                }
+                checkDownloadQueue(finalFileName);
+            }
 
-                    @Override
-                    public void didChangedLoadProgress(FileLoadOperation operation, float progress) {
-                        if (delegate != null) {
-                            delegate.fileLoadProgressChanged(finalFileName, progress);
-                        }
-                    }
-                };
-                operation.setDelegate(fileLoadOperationDelegate);
+            @Override
+            public void didFailedLoadingFile(FileLoadOperation operation, int reason) {
+                checkDownloadQueue(finalFileName);
+                if (delegate != null) {
+                    delegate.fileDidFailedLoad(finalFileName, reason);
+                }
+            }
 
-                /*if (location != null) {
-                    operation = new FileLoadOperation(location.dc_id, location.volume_id, location.volume_id, location.secret, location.local_id, location.key, location.iv, locationExt != null ? locationExt : "jpg", 0, locationSize, !cacheOnly ? getDirectory(type) : tempDir, tempDir, fileLoadOperationDelegate);
-                } else if (document != null) {
-                    String ext = FileLoader.getDocumentFileName(document);
-                    int idx;
-                    if (ext == null || (idx = ext.lastIndexOf('.')) == -1) {
-                        ext = "";
-                    } else {
-                        ext = ext.substring(idx + 1);
-                    }
-                    if (ext.length() <= 0) {
-                        if (document.mime_type != null) {
-                            switch (document.mime_type) {
-                                case "video/mp4":
-                                    ext = "mp4";
-                                    break;
-                                case "audio/ogg":
-                                    ext = "ogg";
-                                    break;
-                                default:
-                                    ext = "";
-                                    break;
-                            }
-                        } else {
+            @Override
+            public void didChangedLoadProgress(FileLoadOperation operation, float progress) {
+                if (delegate != null) {
+                    delegate.fileLoadProgressChanged(finalFileName, progress);
+                }
+            }
+        };
+        operation.setDelegate(fileLoadOperationDelegate);
+
+        /*if (location != null) {
+            operation = new FileLoadOperation(location.dc_id, location.volume_id, location.volume_id, location.secret, location.local_id, location.key, location.iv, locationExt != null ? locationExt : "jpg", 0, locationSize, !cacheOnly ? getDirectory(type) : tempDir, tempDir, fileLoadOperationDelegate);
+        } else if (document != null) {
+            String ext = FileLoader.getDocumentFileName(document);
+            int idx;
+            if (ext == null || (idx = ext.lastIndexOf('.')) == -1) {
+                ext = "";
+            } else {
+                ext = ext.substring(idx + 1);
+            }
+            if (ext.length() <= 0) {
+                if (document.mime_type != null) {
+                    switch (document.mime_type) {
+                        case "video/mp4":
+                            ext = "mp4";
+                            break;
+                        case "audio/ogg":
+                            ext = "ogg";
+                            break;
+                        default:
                             ext = "";
-                        }
-                    }
-                    operation = new FileLoadOperation(document.dc_id, document.id, 0, document.access_hash, 0, document.key, document.iv, ext, document.version, document.size, !cacheOnly ? getDirectory(type) : tempDir, tempDir, fileLoadOperationDelegate);
-                }*/
-                loadOperationPaths.put(fileName, operation);
-                int maxCount = force ? 3 : 1;
-                if (type == MEDIA_DIR_AUDIO) {
-                    if (currentAudioLoadOperationsCount < maxCount) {
-                        if (operation.start()) {
-                            currentAudioLoadOperationsCount++;
-                        }
-                    } else {
-                        if (force) {
-                            audioLoadOperationQueue.add(0, operation);
-                        } else {
-                            audioLoadOperationQueue.add(operation);
-                        }
-                    }
-                } else if (location != null) {
-                    if (currentPhotoLoadOperationsCount < maxCount) {
-                        if (operation.start()) {
-                            currentPhotoLoadOperationsCount++;
-                        }
-                    } else {
-                        if (force) {
-                            photoLoadOperationQueue.add(0, operation);
-                        } else {
-                            photoLoadOperationQueue.add(operation);
-                        }
+                            break;
                     }
                 } else {
-                    if (currentLoadOperationsCount < maxCount) {
-                        if (operation.start()) {
-                            currentLoadOperationsCount++;
-                        }
-                    } else {
-                        if (force) {
-                            loadOperationQueue.add(0, operation);
-                        } else {
-                            loadOperationQueue.add(operation);
-                        }
-                    }
+                    ext = "";
+                }
+            }
+            operation = new FileLoadOperation(document.dc_id, document.id, 0, document.access_hash, 0, document.key, document.iv, ext, document.version, document.size, !cacheOnly ? getDirectory(type) : tempDir, tempDir, fileLoadOperationDelegate);
+        }*/
+        loadOperationPaths.put(fileName, operation);
+        operation.setForceRequest(FileLoadScheduler.isVisible(priority));
+        loadScheduler.add(operation, priority);
+        return operation;
+    }
+
+    /**
+     * Starts loading a document right away, bypassing the download queue, and returns its operation
+     * so the caller can read the file while it is being downloaded. Must not be called on the
+     * fileLoaderQueue itself.
+     */
+    public FileLoadOperation loadStreamFile(final TLRPC.Document document, final int offset) {
+        final Semaphore semaphore = new Semaphore(0);
+        final FileLoadOperation[] result = new FileLoadOperation[1];
+        fileLoaderQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                FileLoadOperation operation = loadFileInternal(document, null, null, null, 0, FileLoadScheduler.PRIORITY_VISIBLE, false);
+                if (operation != null) {
+                    loadScheduler.startNow(operation);
+                    operation.setStreamOffset(offset);
                 }
+                result[0] = operation;
+                semaphore.release();
             }
         });
+        try {
+            semaphore.acquire();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        return result[0];
     }
 
-    private void checkDownloadQueue(final TLRPC.Document document, final TLRPC.TL_webDocument webDocument, final TLRPC.FileLocation location, final String arg1) {
+    private void checkDownloadQueue(final String arg1) {
         fileLoaderQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                FileLoadOperation operation = loadOperationPaths.remove(arg1);
-                if (MessageObject.isVoiceDocument(document) || MessageObject.isVoiceWebDocument(webDocument)) {
-                    if (operation != null) {
-                        if (operation.wasStarted()) {
-                            currentAudioLoadOperationsCount--;
-                        } else {
-                            audioLoadOperationQueue.remove(operation);
-                        }
-                    }
-                    while (!audioLoadOperationQueue.isEmpty()) {
-                        operation = audioLoadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (currentAudioLoadOperationsCount < maxCount) {
-                            operation = audioLoadOperationQueue.poll();
-                            if (operation != null && operation.start()) {
-                                currentAudioLoadOperationsCount++;
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                } else if (location != null || MessageObject.isImageWebDocument(webDocument)) {
-                    if (operation != null) {
-                        if (operation.wasStarted()) {
-                            currentPhotoLoadOperationsCount--;
-                        } else {
-                            photoLoadOperationQueue.remove(operation);
-                        }
-                    }
-                    while (!photoLoadOperationQueue.isEmpty()) {
-                        operation = photoLoadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (currentPhotoLoadOperationsCount < maxCount) {
-                            operation = photoLoadOperationQueue.poll();
-                            if (operation != null && operation.start()) {
-                                currentPhotoLoadOperationsCount++;
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                } else {
-                    if (operation != null) {
-                        if (operation.wasStarted()) {
-                            currentLoadOperationsCount--;
-                        } else {
-                            loadOperationQueue.remove(operation);
-                        }
-                    }
-                    while (!loadOperationQueue.isEmpty()) {
-                        operation = loadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (currentLoadOperationsCount < maxCount) {
-                            operation = loadOperationQueue.poll();
-                            if (operation != null && operation.start()) {
-                                currentLoadOperationsCount++;
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                }
+                loadScheduler.remove(loadOperationPaths.remove(arg1));
             }
         });
     }
 
+    public int getDownloadQueueSize() {
+        return loadScheduler.getPendingCount();
+    }
+
+    public int getRunningDownloadsCount() {
+        return loadScheduler.getRunningCount();
+    }
+
+    public int getPreemptedDownloadsCount() {
+        return loadScheduler.getPreemptedCount();
+    }
+
+    public long getAverageDownloadWaitTime(int priority) {
+        return loadScheduler.getAverageWaitTime(priority);
+    }
+
     public void setDelegate(FileLoaderDelegate delegate) {
         this.delegate = delegate;
     }
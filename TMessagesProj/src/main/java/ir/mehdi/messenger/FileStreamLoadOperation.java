@@ -0,0 +1,172 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import android.net.Uri;
+
+import ir.mehdi.messenger.exoplayer2.C;
+import ir.mehdi.messenger.exoplayer2.upstream.DataSource;
+import ir.mehdi.messenger.exoplayer2.upstream.DataSpec;
+import ir.mehdi.messenger.exoplayer2.upstream.TransferListener;
+import ir.mehdi.tgnet.TLRPC;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link DataSource} that plays a document while it is being downloaded. Reads block until the
+ * requested bytes are on disk and a seek moves the download to the new position. The document of
+ * a stream uri is kept until the player using it calls {@link #releaseStreamUri(Uri)}, so the same
+ * uri can be prepared again.
+ */
+public class FileStreamLoadOperation implements DataSource {
+
+    private static ConcurrentHashMap<Long, TLRPC.Document> streamDocuments = new ConcurrentHashMap<>();
+
+    private final TransferListener<? super FileStreamLoadOperation> listener;
+
+    private TLRPC.Document document;
+    private FileLoadOperation loadOperation;
+    private RandomAccessFile file;
+    private Uri uri;
+    private int currentOffset;
+    private long bytesRemaining;
+    private boolean opened;
+
+    public FileStreamLoadOperation(TLRPC.Document document) {
+        this(document, null);
+    }
+
+    public FileStreamLoadOperation(TLRPC.Document document, TransferListener<? super FileStreamLoadOperation> listener) {
+        this.document = document;
+        this.listener = listener;
+    }
+
+    public static boolean canStream(TLRPC.Document document) {
+        return document instanceof TLRPC.TL_document && document.key == null && document.size > 0;
+    }
+
+    public static Uri getStreamUri(TLRPC.Document document) {
+        streamDocuments.put(document.id, document);
+        return Uri.parse("tg://stream?id=" + document.id);
+    }
+
+    public static boolean isStreamUri(Uri uri) {
+        return uri != null && "tg".equals(uri.getScheme());
+    }
+
+    public static TLRPC.Document getStreamDocument(Uri uri) {
+        try {
+            return streamDocuments.get(Long.parseLong(uri.getQueryParameter("id")));
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        return null;
+    }
+
+    public static void releaseStreamUri(Uri uri) {
+        try {
+            streamDocuments.remove(Long.parseLong(uri.getQueryParameter("id")));
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri;
+        if (document == null) {
+            throw new IOException("unknown stream " + uri);
+        }
+        currentOffset = (int) dataSpec.position;
+        File finalFile = FileLoader.getPathToAttach(document);
+        if (finalFile.exists()) {
+            file = new RandomAccessFile(finalFile, "r");
+            file.seek(currentOffset);
+        } else {
+            loadOperation = FileLoader.getInstance().loadStreamFile(document, currentOffset);
+            if (loadOperation == null) {
+                throw new IOException("can't load " + uri);
+            }
+        }
+        bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? document.size - dataSpec.position : dataSpec.length;
+        if (bytesRemaining < 0) {
+            throw new EOFException();
+        }
+
+        opened = true;
+        if (listener != null) {
+            listener.onTransferStart(this, dataSpec);
+        }
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        } else if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int available = (int) Math.min(bytesRemaining, readLength);
+        if (loadOperation != null) {
+            try {
+                available = loadOperation.waitForStreamData(currentOffset, available);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (available < 0) {
+                throw new IOException("failed to load " + uri);
+            } else if (available == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            if (file == null) {
+                file = new RandomAccessFile(loadOperation.getCurrentFile(), "r");
+                file.seek(currentOffset);
+            }
+        }
+        int bytesRead = file.read(buffer, offset, available);
+        if (bytesRead > 0) {
+            currentOffset += bytesRead;
+            bytesRemaining -= bytesRead;
+            if (listener != null) {
+                listener.onBytesTransferred(this, bytesRead);
+            }
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        uri = null;
+        loadOperation = null;
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } finally {
+            file = null;
+            if (opened) {
+                opened = false;
+                if (listener != null) {
+                    listener.onTransferEnd(this);
+                }
+            }
+        }
+    }
+}
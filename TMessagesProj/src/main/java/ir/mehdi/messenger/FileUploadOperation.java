@@ -20,6 +20,8 @@ import ir.mehdi.tgnet.TLRPC;
 import java.io.File;
 import java.io.FileInputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -33,19 +35,38 @@ public class FileUploadOperation {
         private byte[] iv;
     }
 
+    private static class UploadPart {
+        private TLObject request;
+        private int requestSize;
+        private int partNum;
+        private int bytesCount;
+        private long bytesOffset;
+        private byte[] iv;
+        private boolean isLast;
+    }
+
+    private static DispatchQueue fileReadQueue = new DispatchQueue("fileUploadReadQueue");
+
+    private final static int minRequestsCount = 4;
+    private final static int maxRequestsCount = 16;
+    private final static int readAheadPartsCount = 2;
+
     private boolean isLastPart = false;
-    private final int maxRequestsCount = 8;
+    private int currentMaxRequestsCount = 8;
+    private long minRequestTime;
     private int uploadChunkSize = 1024 * 128;
-    private ArrayList<byte[]> freeRequestIvs;
     private int requestNum;
     private String uploadingFilePath;
     private int state;
-    private byte[] readBuffer;
     private FileUploadOperationDelegate delegate;
     private HashMap<Integer, Integer> requestTokens = new HashMap<>();
+    private ArrayList<UploadPart> preparedParts = new ArrayList<>();
+    private boolean readingPart;
+    private boolean readFinished;
     private int currentPartNum;
+    private int readPartNum;
     private long currentFileId;
-    private long totalFileSize;
+    private volatile long totalFileSize;
     private int totalPartsCount;
     private long readBytesCount;
     private long uploadedBytesCount;
@@ -57,7 +78,7 @@ public class FileUploadOperation {
     private int fingerprint;
     private boolean isBigFile;
     private String fileKey;
-    private int estimatedSize;
+    private volatile int estimatedSize;
     private int uploadStartTime;
     private FileInputStream stream;
     private MessageDigest mdEnc;
@@ -98,9 +119,7 @@ public class FileUploadOperation {
             @Override
             public void run() {
                 preferences = ApplicationLoader.applicationContext.getSharedPreferences("uploadinfo", Activity.MODE_PRIVATE);
-                for (int a = 0; a < maxRequestsCount; a++) {
-                    startUploadRequest();
-                }
+                startUploadRequest();
             }
         });
     }
@@ -128,18 +147,32 @@ public class FileUploadOperation {
                 remove(fileKey + "_iv").
                 remove(fileKey + "_key").
                 remove(fileKey + "_ivc").commit();
-        try {
-            if (stream != null) {
-                stream.close();
-                stream = null;
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                for (int a = 0; a < preparedParts.size(); a++) {
+                    preparedParts.get(a).request.freeResources();
+                }
+                preparedParts.clear();
             }
-        } catch (Exception e) {
-            FileLog.e(e);
-        }
+        });
+        fileReadQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (stream != null) {
+                        stream.close();
+                        stream = null;
+                    }
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+            }
+        });
     }
 
     protected void checkNewDataAvailable(final long finalSize) {
-        Utilities.stageQueue.postRunnable(new Runnable() {
+        fileReadQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
                 if (estimatedSize != 0 && finalSize != 0) {
@@ -150,9 +183,12 @@ public class FileUploadOperation {
                         storeFileUploadInfo();
                     }
                 }
-                if (currentUploadRequetsCount < maxRequestsCount) {
-                    startUploadRequest();
-                }
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        startUploadRequest();
+                    }
+                });
             }
         });
     }
@@ -171,257 +207,325 @@ public class FileUploadOperation {
         editor.commit();
     }
 
-    private void startUploadRequest() {
-        if (state != 1) {
-            return;
+    private int readPart(FileChannel channel, ByteBuffer buffer) throws Exception {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                break;
+            }
         }
+        return buffer.position();
+    }
 
-        TLObject finalRequest;
+    private void openFile() throws Exception {
+        File cacheFile = new File(uploadingFilePath);
+        stream = new FileInputStream(cacheFile);
+        FileChannel channel = stream.getChannel();
+        if (estimatedSize != 0) {
+            totalFileSize = estimatedSize;
+        } else {
+            totalFileSize = cacheFile.length();
+        }
+        if (totalFileSize > 10 * 1024 * 1024) {
+            isBigFile = true;
+        } else {
+            try {
+                mdEnc = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                FileLog.e(e);
+            }
+        }
 
-        final int currentRequestBytes;
-        final byte[] currentRequestIv;
-        try {
-            started = true;
-            if (stream == null) {
-                if (isEncrypted) {
-                    freeRequestIvs = new ArrayList<>(maxRequestsCount);
-                    for (int a = 0; a < maxRequestsCount; a++) {
-                        freeRequestIvs.add(new byte[32]);
+        uploadChunkSize = (int) Math.max(128, (totalFileSize + 1024 * 3000 - 1) / (1024 * 3000));
+        if (1024 % uploadChunkSize != 0) {
+            int chunkSize = 64;
+            while (uploadChunkSize > chunkSize) {
+                chunkSize *= 2;
+            }
+            uploadChunkSize = chunkSize;
+        }
+
+        uploadChunkSize *= 1024;
+        totalPartsCount = (int) (totalFileSize + uploadChunkSize - 1) / uploadChunkSize;
+
+        fileKey = Utilities.MD5(uploadingFilePath + (isEncrypted ? "enc" : ""));
+        long fileSize = preferences.getLong(fileKey + "_size", 0);
+        uploadStartTime = (int)(System.currentTimeMillis() / 1000);
+        boolean rewrite = false;
+        if (estimatedSize == 0 && fileSize == totalFileSize) {
+            currentFileId = preferences.getLong(fileKey + "_id", 0);
+            int date = preferences.getInt(fileKey + "_time", 0);
+            long uploadedSize = preferences.getLong(fileKey + "_uploaded", 0);
+            if (isEncrypted) {
+                String ivString = preferences.getString(fileKey + "_iv", null);
+                String keyString = preferences.getString(fileKey + "_key", null);
+                if (ivString != null && keyString != null) {
+                    key = Utilities.hexToBytes(keyString);
+                    iv = Utilities.hexToBytes(ivString);
+                    if (key != null && iv != null && key.length == 32 && iv.length == 32) {
+                        ivChange = new byte[32];
+                        System.arraycopy(iv, 0, ivChange, 0, 32);
+                    } else {
+                        rewrite = true;
                     }
-                }
-                File cacheFile = new File(uploadingFilePath);
-                stream = new FileInputStream(cacheFile);
-                if (estimatedSize != 0) {
-                    totalFileSize = estimatedSize;
                 } else {
-                    totalFileSize = cacheFile.length();
-                }
-                if (totalFileSize > 10 * 1024 * 1024) {
-                    isBigFile = true;
-                } else {
-                    try {
-                        mdEnc = MessageDigest.getInstance("MD5");
-                    } catch (NoSuchAlgorithmException e) {
-                        FileLog.e(e);
-                    }
+                    rewrite = true;
                 }
-
-                uploadChunkSize = (int) Math.max(128, (totalFileSize + 1024 * 3000 - 1) / (1024 * 3000));
-                if (1024 % uploadChunkSize != 0) {
-                    int chunkSize = 64;
-                    while (uploadChunkSize > chunkSize) {
-                        chunkSize *= 2;
-                    }
-                    uploadChunkSize = chunkSize;
+            }
+            if (!rewrite && date != 0) {
+                if (isBigFile && date < uploadStartTime - 60 * 60 * 24) {
+                    date = 0;
+                } else if (!isBigFile && date < uploadStartTime - 60 * 60 * 1.5f) {
+                    date = 0;
                 }
-
-                uploadChunkSize *= 1024;
-                totalPartsCount = (int) (totalFileSize + uploadChunkSize - 1) / uploadChunkSize;
-                readBuffer = new byte[uploadChunkSize];
-
-                fileKey = Utilities.MD5(uploadingFilePath + (isEncrypted ? "enc" : ""));
-                long fileSize = preferences.getLong(fileKey + "_size", 0);
-                uploadStartTime = (int)(System.currentTimeMillis() / 1000);
-                boolean rewrite = false;
-                if (estimatedSize == 0 && fileSize == totalFileSize) {
-                    currentFileId = preferences.getLong(fileKey + "_id", 0);
-                    int date = preferences.getInt(fileKey + "_time", 0);
-                    long uploadedSize = preferences.getLong(fileKey + "_uploaded", 0);
-                    if (isEncrypted) {
-                        String ivString = preferences.getString(fileKey + "_iv", null);
-                        String keyString = preferences.getString(fileKey + "_key", null);
-                        if (ivString != null && keyString != null) {
-                            key = Utilities.hexToBytes(keyString);
-                            iv = Utilities.hexToBytes(ivString);
-                            if (key != null && iv != null && key.length == 32 && iv.length == 32) {
-                                ivChange = new byte[32];
-                                System.arraycopy(iv, 0, ivChange, 0, 32);
-                            } else {
-                                rewrite = true;
+                if (date != 0) {
+                    if (uploadedSize > 0) {
+                        readBytesCount = uploadedSize;
+                        readPartNum = (int) (uploadedSize / uploadChunkSize);
+                        if (!isBigFile) {
+                            ByteBuffer buffer = ByteBuffer.allocateDirect(uploadChunkSize);
+                            for (int b = 0; b < readBytesCount / uploadChunkSize; b++) {
+                                buffer.clear();
+                                int bytesRead = readPart(channel, buffer);
+                                int toAdd = 0;
+                                if (isEncrypted && bytesRead % 16 != 0) {
+                                    toAdd += 16 - bytesRead % 16;
+                                }
+                                if (bytesRead != uploadChunkSize || totalPartsCount == readPartNum + 1) {
+                                    isLastPart = true;
+                                }
+                                if (isEncrypted) {
+                                    for (int a = 0; a < toAdd; a++) {
+                                        buffer.put((byte) 0);
+                                    }
+                                    Utilities.aesIgeEncryption(buffer, key, ivChange, true, true, 0, bytesRead + toAdd);
+                                }
+                                buffer.flip();
+                                mdEnc.update(buffer);
                             }
                         } else {
-                            rewrite = true;
-                        }
-                    }
-                    if (!rewrite && date != 0) {
-                        if (isBigFile && date < uploadStartTime - 60 * 60 * 24) {
-                            date = 0;
-                        } else if (!isBigFile && date < uploadStartTime - 60 * 60 * 1.5f) {
-                            date = 0;
-                        }
-                        if (date != 0) {
-                            if (uploadedSize > 0) {
-                                readBytesCount = uploadedSize;
-                                currentPartNum = (int) (uploadedSize / uploadChunkSize);
-                                if (!isBigFile) {
-                                    for (int b = 0; b < readBytesCount / uploadChunkSize; b++) {
-                                        int bytesRead = stream.read(readBuffer);
-                                        int toAdd = 0;
-                                        if (isEncrypted && bytesRead % 16 != 0) {
-                                            toAdd += 16 - bytesRead % 16;
-                                        }
-                                        NativeByteBuffer sendBuffer = new NativeByteBuffer(bytesRead + toAdd);
-                                        if (bytesRead != uploadChunkSize || totalPartsCount == currentPartNum + 1) {
-                                            isLastPart = true;
-                                        }
-                                        sendBuffer.writeBytes(readBuffer, 0, bytesRead);
-                                        if (isEncrypted) {
-                                            for (int a = 0; a < toAdd; a++) {
-                                                sendBuffer.writeByte(0);
-                                            }
-                                            Utilities.aesIgeEncryption(sendBuffer.buffer, key, ivChange, true, true, 0, bytesRead + toAdd);
-                                        }
-                                        sendBuffer.rewind();
-                                        mdEnc.update(sendBuffer.buffer);
-                                        sendBuffer.reuse();
+                            channel.position(uploadedSize);
+                            if (isEncrypted) {
+                                String ivcString = preferences.getString(fileKey + "_ivc", null);
+                                if (ivcString != null) {
+                                    ivChange = Utilities.hexToBytes(ivcString);
+                                    if (ivChange == null || ivChange.length != 32) {
+                                        rewrite = true;
+                                        readBytesCount = 0;
+                                        readPartNum = 0;
                                     }
                                 } else {
-                                    stream.skip(uploadedSize);
-                                    if (isEncrypted) {
-                                        String ivcString = preferences.getString(fileKey + "_ivc", null);
-                                        if (ivcString != null) {
-                                            ivChange = Utilities.hexToBytes(ivcString);
-                                            if (ivChange == null || ivChange.length != 32) {
-                                                rewrite = true;
-                                                readBytesCount = 0;
-                                                currentPartNum = 0;
-                                            }
-                                        } else {
-                                            rewrite = true;
-                                            readBytesCount = 0;
-                                            currentPartNum = 0;
-                                        }
-                                    }
+                                    rewrite = true;
+                                    readBytesCount = 0;
+                                    readPartNum = 0;
                                 }
-                            } else {
-                                rewrite = true;
                             }
                         }
                     } else {
                         rewrite = true;
                     }
-                } else {
-                    rewrite = true;
                 }
-                if (rewrite) {
-                    if (isEncrypted) {
-                        iv = new byte[32];
-                        key = new byte[32];
-                        ivChange = new byte[32];
-                        Utilities.random.nextBytes(iv);
-                        Utilities.random.nextBytes(key);
-                        System.arraycopy(iv, 0, ivChange, 0, 32);
-                    }
-                    currentFileId = Utilities.random.nextLong();
-                    if (estimatedSize == 0) {
-                        storeFileUploadInfo();
-                    }
-                }
-
-                if (isEncrypted) {
-                    try {
-                        java.security.MessageDigest md = java.security.MessageDigest.getInstance("MD5");
-                        byte[] arr = new byte[64];
-                        System.arraycopy(key, 0, arr, 0, 32);
-                        System.arraycopy(iv, 0, arr, 32, 32);
-                        byte[] digest = md.digest(arr);
-                        for (int a = 0; a < 4; a++) {
-                            fingerprint |= ((digest[a] ^ digest[a + 4]) & 0xFF) << (a * 8);
-                        }
-                    } catch (Exception e) {
-                        FileLog.e(e);
-                    }
-                }
-                uploadedBytesCount = readBytesCount;
-                lastSavedPartNum = currentPartNum;
+            } else {
+                rewrite = true;
+            }
+        } else {
+            rewrite = true;
+        }
+        if (rewrite) {
+            if (isEncrypted) {
+                iv = new byte[32];
+                key = new byte[32];
+                ivChange = new byte[32];
+                Utilities.random.nextBytes(iv);
+                Utilities.random.nextBytes(key);
+                System.arraycopy(iv, 0, ivChange, 0, 32);
             }
+            currentFileId = Utilities.random.nextLong();
+            if (estimatedSize == 0) {
+                storeFileUploadInfo();
+            }
+        }
 
-            if (estimatedSize != 0) {
-                long size = stream.getChannel().size();
-                if (readBytesCount + uploadChunkSize > size) {
-                    return;
+        if (isEncrypted) {
+            try {
+                java.security.MessageDigest md = java.security.MessageDigest.getInstance("MD5");
+                byte[] arr = new byte[64];
+                System.arraycopy(key, 0, arr, 0, 32);
+                System.arraycopy(iv, 0, arr, 32, 32);
+                byte[] digest = md.digest(arr);
+                for (int a = 0; a < 4; a++) {
+                    fingerprint |= ((digest[a] ^ digest[a + 4]) & 0xFF) << (a * 8);
                 }
+            } catch (Exception e) {
+                FileLog.e(e);
             }
+        }
+        uploadedBytesCount = readBytesCount;
+        currentPartNum = lastSavedPartNum = readPartNum;
+    }
 
-            currentRequestBytes = stream.read(readBuffer);
-            if (currentRequestBytes == -1) {
-                return;
+    /**
+     * Reads, encrypts and hashes the next part on the read queue. Returns null if the part isn't
+     * written yet (the file is still being generated) or the whole file has been read.
+     */
+    private UploadPart prepareNextPart() throws Exception {
+        started = true;
+        if (stream == null) {
+            openFile();
+        }
+        FileChannel channel = stream.getChannel();
+        if (estimatedSize != 0) {
+            long size = channel.size();
+            if (readBytesCount + uploadChunkSize > size) {
+                return null;
             }
-            int toAdd = 0;
-            if (isEncrypted && currentRequestBytes % 16 != 0) {
-                toAdd += 16 - currentRequestBytes % 16;
+        }
+
+        NativeByteBuffer sendBuffer = new NativeByteBuffer(uploadChunkSize);
+        int currentRequestBytes = readPart(channel, sendBuffer.buffer);
+        if (currentRequestBytes == 0) {
+            sendBuffer.reuse();
+            return null;
+        }
+        UploadPart part = new UploadPart();
+        int toAdd = 0;
+        if (isEncrypted && currentRequestBytes % 16 != 0) {
+            toAdd += 16 - currentRequestBytes % 16;
+        }
+        sendBuffer.limit(currentRequestBytes + toAdd);
+        if (currentRequestBytes != uploadChunkSize || estimatedSize == 0 && totalPartsCount == readPartNum + 1) {
+            part.isLast = true;
+        }
+        if (isEncrypted) {
+            for (int a = 0; a < toAdd; a++) {
+                sendBuffer.writeByte(0);
             }
-            NativeByteBuffer sendBuffer = new NativeByteBuffer(currentRequestBytes + toAdd);
-            if (currentRequestBytes != uploadChunkSize || estimatedSize == 0 && totalPartsCount == currentPartNum + 1) {
-                isLastPart = true;
+            Utilities.aesIgeEncryption(sendBuffer.buffer, key, ivChange, true, true, 0, currentRequestBytes + toAdd);
+            part.iv = new byte[32];
+            System.arraycopy(ivChange, 0, part.iv, 0, 32);
+        }
+        sendBuffer.rewind();
+        if (!isBigFile) {
+            mdEnc.update(sendBuffer.buffer);
+        }
+        if (isBigFile) {
+            TLRPC.TL_upload_saveBigFilePart req = new TLRPC.TL_upload_saveBigFilePart();
+            req.file_part = readPartNum;
+            req.file_id = currentFileId;
+            if (estimatedSize != 0) {
+                req.file_total_parts = -1;
+            } else {
+                req.file_total_parts = totalPartsCount;
             }
-            sendBuffer.writeBytes(readBuffer, 0, currentRequestBytes);
-            if (isEncrypted) {
-                for (int a = 0; a < toAdd; a++) {
-                    sendBuffer.writeByte(0);
+            req.bytes = sendBuffer;
+            part.request = req;
+        } else {
+            TLRPC.TL_upload_saveFilePart req = new TLRPC.TL_upload_saveFilePart();
+            req.file_part = readPartNum;
+            req.file_id = currentFileId;
+            req.bytes = sendBuffer;
+            part.request = req;
+        }
+        readBytesCount += currentRequestBytes;
+        part.partNum = readPartNum++;
+        part.bytesCount = currentRequestBytes;
+        part.bytesOffset = readBytesCount;
+        part.requestSize = part.request.getObjectSize() + 4;
+        return part;
+    }
+
+    private void startUploadRequest() {
+        if (state != 1) {
+            return;
+        }
+        while (currentUploadRequetsCount < currentMaxRequestsCount && !preparedParts.isEmpty()) {
+            sendPart(preparedParts.remove(0));
+        }
+        if (readingPart || readFinished || preparedParts.size() >= readAheadPartsCount) {
+            return;
+        }
+        readingPart = true;
+        fileReadQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                UploadPart part = null;
+                boolean failed = false;
+                try {
+                    part = prepareNextPart();
+                } catch (Exception e) {
+                    FileLog.e(e);
+                    failed = true;
                 }
-                Utilities.aesIgeEncryption(sendBuffer.buffer, key, ivChange, true, true, 0, currentRequestBytes + toAdd);
-                currentRequestIv = freeRequestIvs.get(0);
-                System.arraycopy(ivChange, 0, currentRequestIv, 0, 32);
-                freeRequestIvs.remove(0);
-            } else {
-                currentRequestIv = null;
+                final UploadPart finalPart = part;
+                final boolean finalFailed = failed;
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        readingPart = false;
+                        if (state != 1) {
+                            if (finalPart != null) {
+                                finalPart.request.freeResources();
+                            }
+                            return;
+                        }
+                        if (finalFailed) {
+                            state = 2;
+                            delegate.didFailedUploadingFile(FileUploadOperation.this);
+                            cleanup();
+                        } else if (finalPart != null) {
+                            if (finalPart.isLast) {
+                                readFinished = true;
+                            }
+                            preparedParts.add(finalPart);
+                            startUploadRequest();
+                        }
+                    }
+                });
             }
-            sendBuffer.rewind();
-            if (!isBigFile) {
-                mdEnc.update(sendBuffer.buffer);
+        });
+    }
+
+    private void updateRequestsCount(long time) {
+        if (minRequestTime == 0 || time < minRequestTime) {
+            minRequestTime = time;
+        }
+        if (time <= minRequestTime * 3 / 2) {
+            if (currentMaxRequestsCount < maxRequestsCount) {
+                currentMaxRequestsCount++;
             }
-            if (isBigFile) {
-                TLRPC.TL_upload_saveBigFilePart req = new TLRPC.TL_upload_saveBigFilePart();
-                req.file_part = currentPartNum;
-                req.file_id = currentFileId;
-                if (estimatedSize != 0) {
-                    req.file_total_parts = -1;
-                } else {
-                    req.file_total_parts = totalPartsCount;
-                }
-                req.bytes = sendBuffer;
-                finalRequest = req;
-            } else {
-                TLRPC.TL_upload_saveFilePart req = new TLRPC.TL_upload_saveFilePart();
-                req.file_part = currentPartNum;
-                req.file_id = currentFileId;
-                req.bytes = sendBuffer;
-                finalRequest = req;
+        } else if (time > minRequestTime * 3) {
+            if (currentMaxRequestsCount > minRequestsCount) {
+                currentMaxRequestsCount--;
             }
-            readBytesCount += currentRequestBytes;
-        } catch (Exception e) {
-            FileLog.e(e);
-            delegate.didFailedUploadingFile(this);
-            cleanup();
-            return;
         }
+    }
+
+    private void sendPart(final UploadPart part) {
+        if (part.isLast) {
+            isLastPart = true;
+        }
+        currentPartNum = part.partNum + 1;
         currentUploadRequetsCount++;
         final int requestNumFinal = requestNum++;
-        final long currentRequestBytesOffset = readBytesCount;
-        final int currentRequestPartNum = currentPartNum++;
-        final int requestSize = finalRequest.getObjectSize() + 4;
-        int requestToken = ConnectionsManager.getInstance().sendRequest(finalRequest, new RequestDelegate() {
+        final long sendTime = System.currentTimeMillis();
+        int requestToken = ConnectionsManager.getInstance().sendRequest(part.request, new RequestDelegate() {
             @Override
             public void run(TLObject response, TLRPC.TL_error error) {
                 int networkType = response != null ? response.networkType : ConnectionsManager.getCurrentNetworkType();
                 if (currentType == ConnectionsManager.FileTypeAudio) {
-                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_AUDIOS, requestSize);
+                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_AUDIOS, part.requestSize);
                 } else if (currentType == ConnectionsManager.FileTypeVideo) {
-                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_VIDEOS, requestSize);
+                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_VIDEOS, part.requestSize);
                 } else if (currentType == ConnectionsManager.FileTypePhoto) {
-                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_PHOTOS, requestSize);
+                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_PHOTOS, part.requestSize);
                 } else if (currentType == ConnectionsManager.FileTypeFile) {
-                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_FILES, requestSize);
-                }
-                if (currentRequestIv != null) {
-                    freeRequestIvs.add(currentRequestIv);
+                    StatsController.getInstance().incrementSentBytesCount(networkType, StatsController.TYPE_FILES, part.requestSize);
                 }
                 requestTokens.remove(requestNumFinal);
                 if (response instanceof TLRPC.TL_boolTrue) {
-                    uploadedBytesCount += currentRequestBytes;
+                    uploadedBytesCount += part.bytesCount;
                     delegate.didChangedUploadProgress(FileUploadOperation.this, uploadedBytesCount / (float) totalFileSize);
                     currentUploadRequetsCount--;
+                    updateRequestsCount(System.currentTimeMillis() - sendTime);
                     if (isLastPart && currentUploadRequetsCount == 0 && state == 1) {
                         state = 3;
                         if (key == null) {
@@ -451,15 +555,15 @@ public class FileUploadOperation {
                             delegate.didFinishUploadingFile(FileUploadOperation.this, null, result, key, iv);
                             cleanup();
                         }
-                    } else if (currentUploadRequetsCount < maxRequestsCount) {
+                    } else {
                         if (estimatedSize == 0) {
                             if (saveInfoTimes >= 4) {
                                 saveInfoTimes = 0;
                             }
-                            if (currentRequestPartNum == lastSavedPartNum) {
+                            if (part.partNum == lastSavedPartNum) {
                                 lastSavedPartNum++;
-                                long offsetToSave = currentRequestBytesOffset;
-                                byte[] ivToSave = currentRequestIv;
+                                long offsetToSave = part.bytesOffset;
+                                byte[] ivToSave = part.iv;
                                 UploadCachedResult result;
                                 while ((result = cachedResults.get(lastSavedPartNum)) != null) {
                                     offsetToSave = result.bytesOffset;
@@ -477,17 +581,13 @@ public class FileUploadOperation {
                                 }
                             } else {
                                 UploadCachedResult result = new UploadCachedResult();
-                                result.bytesOffset = currentRequestBytesOffset;
-                                if (currentRequestIv != null) {
-                                    result.iv = new byte[32];
-                                    System.arraycopy(currentRequestIv, 0, result.iv, 0, 32);
-                                }
-                                cachedResults.put(currentRequestPartNum, result);
+                                result.bytesOffset = part.bytesOffset;
+                                result.iv = part.iv;
+                                cachedResults.put(part.partNum, result);
                             }
                             saveInfoTimes++;
                         }
 
-
                         startUploadRequest();
                     }
                     if (currentType == ConnectionsManager.FileTypeAudio) {
@@ -62,16 +62,12 @@ public class ImageLoader {
     private HashMap<String, ThumbGenerateInfo> waitingForQualityThumb = new HashMap<>();
     private HashMap<Integer, String> waitingForQualityThumbByTag = new HashMap<>();
     private LinkedList<HttpImageTask> httpTasks = new LinkedList<>();
-    private DispatchQueue cacheOutQueue = new DispatchQueue("cacheOutQueue");
-    private DispatchQueue cacheThumbOutQueue = new DispatchQueue("cacheThumbOutQueue");
+    private PriorityDispatchQueue cacheOutQueue = new PriorityDispatchQueue("cacheOutQueue", getDefaultDecodeThreadsCount(), Thread.MIN_PRIORITY);
     private DispatchQueue thumbGeneratingQueue = new DispatchQueue("thumbGeneratingQueue");
     private DispatchQueue imageLoadQueue = new DispatchQueue("imageLoadQueue");
     private ConcurrentHashMap<String, Float> fileProgresses = new ConcurrentHashMap<>();
     private HashMap<String, ThumbGenerateTask> thumbGenerateTasks = new HashMap<>();
-    private static byte[] bytes;
-    private static byte[] bytesThumb;
-    private static byte[] header = new byte[12];
-    private static byte[] headerThumb = new byte[12];
+    private static final ThreadLocal<byte[]> decodeBuffer = new ThreadLocal<>();
     private int currentHttpTasksCount = 0;
 
     private LinkedList<HttpFileTask> httpFileLoadTasks = new LinkedList<>();
@@ -81,7 +77,6 @@ public class ImageLoader {
 
     private String ignoreRemoval = null;
 
-    private volatile long lastCacheOutTime = 0;
     private int lastImageNum = 0;
     private long lastProgressUpdateTime = 0;
 
@@ -609,6 +604,17 @@ public class ImageLoader {
 
         @Override
         public void run() {
+            try {
+                decode();
+            } finally {
+                synchronized (sync) {
+                    runningThread = null;
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        private void decode() {
             synchronized (sync) {
                 runningThread = Thread.currentThread();
                 Thread.interrupted();
@@ -638,12 +644,7 @@ public class ImageLoader {
                     RandomAccessFile randomAccessFile = null;
                     try {
                         randomAccessFile = new RandomAccessFile(cacheFileFinal, "r");
-                        byte[] bytes;
-                        if (cacheImage.thumb) {
-                            bytes = headerThumb;
-                        } else {
-                            bytes = header;
-                        }
+                        byte[] bytes = new byte[12];
                         randomAccessFile.readFully(bytes, 0, bytes.length);
                         String str = new String(bytes).toLowerCase();
                         str = str.toLowerCase();
@@ -677,7 +678,6 @@ public class ImageLoader {
                     }
 
                     try {
-                        lastCacheOutTime = System.currentTimeMillis();
                         synchronized (sync) {
                             if (isCancelled) {
                                 return;
@@ -706,10 +706,7 @@ public class ImageLoader {
                             if (opts.inPurgeable) {
                                 RandomAccessFile f = new RandomAccessFile(cacheFileFinal, "r");
                                 int len = (int) f.length();
-                                byte[] data = bytesThumb != null && bytesThumb.length >= len ? bytesThumb : null;
-                                if (data == null) {
-                                    bytesThumb = data = new byte[len];
-                                }
+                                byte[] data = getDecodeBuffer(len);
                                 f.readFully(data, 0, len);
                                 image = BitmapFactory.decodeByteArray(data, 0, len, opts);
                             } else {
@@ -769,14 +766,6 @@ public class ImageLoader {
                             }
                         }
 
-                        int delay = 20;
-                        if (mediaId != null) {
-                            delay = 0;
-                        }
-                        if (delay != 0 && lastCacheOutTime != 0 && lastCacheOutTime > System.currentTimeMillis() - delay && Build.VERSION.SDK_INT < 21) {
-                            Thread.sleep(delay);
-                        }
-                        lastCacheOutTime = System.currentTimeMillis();
                         synchronized (sync) {
                             if (isCancelled) {
                                 return;
@@ -875,10 +864,7 @@ public class ImageLoader {
                                 if (opts.inPurgeable) {
                                     RandomAccessFile f = new RandomAccessFile(cacheFileFinal, "r");
                                     int len = (int) f.length();
-                                    byte[] data = bytes != null && bytes.length >= len ? bytes : null;
-                                    if (data == null) {
-                                        bytes = data = new byte[len];
-                                    }
+                                    byte[] data = getDecodeBuffer(len);
                                     f.readFully(data, 0, len);
                                     image = BitmapFactory.decodeByteArray(data, 0, len, opts);
                                 } else {
@@ -1025,11 +1011,7 @@ public class ImageLoader {
                     }
                 }
                 if (cacheTask != null) {
-                    if (thumb) {
-                        cacheThumbOutQueue.cancelRunnable(cacheTask);
-                    } else {
-                        cacheOutQueue.cancelRunnable(cacheTask);
-                    }
+                    cacheOutQueue.cancelRunnable(cacheTask);
                     cacheTask.cancel();
                     cacheTask = null;
                 }
@@ -1047,6 +1029,17 @@ public class ImageLoader {
             }
         }
 
+        public int getDecodePriority() {
+            int priority = thumb ? DECODE_PRIORITY_THUMB : DECODE_PRIORITY_IMAGE;
+            for (int a = 0; a < imageReceiverArray.size(); a++) {
+                ImageReceiver imageReceiver = imageReceiverArray.get(a);
+                if (imageReceiver != null && imageReceiver.isOnScreen()) {
+                    return priority + DECODE_PRIORITY_VISIBLE;
+                }
+            }
+            return priority;
+        }
+
         public void setImageAndClear(final BitmapDrawable image) {
             if (image != null) {
                 final ArrayList<ImageReceiver> finalImageReceiverArray = new ArrayList<>(imageReceiverArray);
@@ -1088,6 +1081,10 @@ public class ImageLoader {
         }
     }
 
+    private static final int DECODE_PRIORITY_IMAGE = 0;
+    private static final int DECODE_PRIORITY_THUMB = 1;
+    private static final int DECODE_PRIORITY_VISIBLE = 2;
+
     private static volatile ImageLoader Instance = null;
 
     public static ImageLoader getInstance() {
@@ -1103,10 +1100,61 @@ public class ImageLoader {
         return localInstance;
     }
 
+    private static int getDefaultDecodeThreadsCount() {
+        return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    private static byte[] getDecodeBuffer(int len) {
+        byte[] data = decodeBuffer.get();
+        if (data == null || data.length < len) {
+            data = new byte[len];
+            decodeBuffer.set(data);
+        }
+        return data;
+    }
+
+    public void setDecodeThreadsCount(int count) {
+        cacheOutQueue.setThreadsCount(count);
+    }
+
+    public int getDecodeThreadsCount() {
+        return cacheOutQueue.getThreadsCount();
+    }
+
+    public int getDecodeQueueSize() {
+        return cacheOutQueue.getQueueSize();
+    }
+
+    public int getMaxDecodeQueueSize() {
+        return cacheOutQueue.getMaxQueueSize();
+    }
+
+    public long getAverageDecodeWaitTime() {
+        return cacheOutQueue.getAverageWaitTime();
+    }
+
+    public long getAverageDecodeTime() {
+        return cacheOutQueue.getAverageRunTime();
+    }
+
+    public int getMemCacheSize() {
+        return memCache.size();
+    }
+
+    public int getMemCacheMaxSize() {
+        return memCache.maxSize();
+    }
+
+    public float getMemCacheHitRate() {
+        return memCache.hitRate();
+    }
+
+    public long getMemCacheEvictionCount() {
+        return memCache.evictionCount();
+    }
+
     public ImageLoader() {
 
-        cacheOutQueue.setPriority(Thread.MIN_PRIORITY);
-        cacheThumbOutQueue.setPriority(Thread.MIN_PRIORITY);
         thumbGeneratingQueue.setPriority(Thread.MIN_PRIORITY);
         imageLoadQueue.setPriority(Thread.MIN_PRIORITY);
 
@@ -1533,6 +1581,28 @@ public class ImageLoader {
         });
     }
 
+    /**
+     * Re-queues the pending decodes of the receiver after it was attached, detached, shown or hidden,
+     * so images that left the screen stop holding the decode threads for the ones that came in.
+     */
+    public void updateDecodePriority(final ImageReceiver imageReceiver) {
+        imageLoadQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                for (int a = 0; a < 2; a++) {
+                    Integer TAG = imageReceiver.getTag(a == 0);
+                    if (TAG == null) {
+                        continue;
+                    }
+                    CacheImage img = imageLoadingByTag.get(TAG);
+                    if (img != null && img.cacheTask != null) {
+                        cacheOutQueue.setPriority(img.cacheTask, img.getDecodePriority());
+                    }
+                }
+            }
+        });
+    }
+
     public BitmapDrawable getImageFromMemory(String key) {
         return memCache.get(key);
     }
@@ -1747,11 +1817,7 @@ public class ImageLoader {
                             img.finalFilePath = cacheFile;
                             img.cacheTask = new CacheOutTask(img);
                             imageLoadingByKeys.put(key, img);
-                            if (thumb != 0) {
-                                cacheThumbOutQueue.postRunnable(img.cacheTask);
-                            } else {
-                                cacheOutQueue.postRunnable(img.cacheTask);
-                            }
+                            cacheOutQueue.postRunnable(img.cacheTask, img.getDecodePriority());
                         } else {
                             img.url = url;
                             img.location = imageLocation;
@@ -1929,7 +1995,7 @@ public class ImageLoader {
                     return;
                 }
                 imageLoadingByUrl.remove(location);
-                ArrayList<CacheOutTask> tasks = new ArrayList<>();
+                ArrayList<CacheImage> tasks = new ArrayList<>();
                 for (int a = 0; a < img.imageReceiverArray.size(); a++) {
                     String key = img.keys.get(a);
                     String filter = img.filters.get(a);
@@ -1946,16 +2012,13 @@ public class ImageLoader {
                         cacheImage.filter = filter;
                         cacheImage.animatedFile = img.animatedFile;
                         imageLoadingByKeys.put(key, cacheImage);
-                        tasks.add(cacheImage.cacheTask);
+                        tasks.add(cacheImage);
                     }
                     cacheImage.addImageReceiver(imageReceiver, key, filter);
                 }
                 for (int a = 0; a < tasks.size(); a++) {
-                    if (img.thumb) {
-                        cacheThumbOutQueue.postRunnable(tasks.get(a));
-                    } else {
-                        cacheOutQueue.postRunnable(tasks.get(a));
-                    }
+                    CacheImage cacheImage = tasks.get(a);
+                    cacheOutQueue.postRunnable(cacheImage.cacheTask, cacheImage.getDecodePriority());
                 }
             }
         });
@@ -76,6 +76,7 @@ public class ImageReceiver implements NotificationCenter.NotificationCenterDeleg
     private int imageX, imageY, imageW, imageH;
     private Rect drawRegion = new Rect();
     private boolean isVisible = true;
+    private volatile boolean detachedFromWindow;
     private boolean isAspectFit;
     private boolean forcePreview;
     private int roundRadius;
@@ -374,10 +375,16 @@ public class ImageReceiver implements NotificationCenter.NotificationCenterDeleg
         }
         NotificationCenter.getInstance().removeObserver(this, NotificationCenter.didReplacedPhotoInMemCache);
         clearImage();
+        detachedFromWindow = true;
+        ImageLoader.getInstance().updateDecodePriority(this);
     }
 
     public boolean onAttachedToWindow() {
         NotificationCenter.getInstance().addObserver(this, NotificationCenter.didReplacedPhotoInMemCache);
+        if (detachedFromWindow) {
+            detachedFromWindow = false;
+            ImageLoader.getInstance().updateDecodePriority(this);
+        }
         if (setImageBackup != null && (setImageBackup.fileLocation != null || setImageBackup.httpUrl != null || setImageBackup.thumbLocation != null || setImageBackup.thumb != null)) {
             setImage(setImageBackup.fileLocation, setImageBackup.httpUrl, setImageBackup.filter, setImageBackup.thumb, setImageBackup.thumbLocation, setImageBackup.thumbFilter, setImageBackup.size, setImageBackup.ext, setImageBackup.cacheOnly);
             return true;
@@ -716,6 +723,7 @@ public class ImageReceiver implements NotificationCenter.NotificationCenterDeleg
             return;
         }
         isVisible = value;
+        ImageLoader.getInstance().updateDecodePriority(this);
         if (invalidate && parentView != null) {
             if (invalidateAll) {
                 parentView.invalidate();
@@ -729,6 +737,11 @@ public class ImageReceiver implements NotificationCenter.NotificationCenterDeleg
         return isVisible;
     }
 
+    // receivers whose views never report attaching count as on screen until they are detached
+    public boolean isOnScreen() {
+        return isVisible && !detachedFromWindow;
+    }
+
     public void setAlpha(float value) {
         overrideAlpha = value;
     }
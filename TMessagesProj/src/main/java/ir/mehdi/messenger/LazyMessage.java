@@ -0,0 +1,105 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import ir.mehdi.tgnet.NativeByteBuffer;
+import ir.mehdi.tgnet.SerializedData;
+import ir.mehdi.tgnet.TLRPC;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stored message whose header (id, flags, sender, peer) is read straight from the database blob. The
+ * rest of the message (media, entities, markup) is only deserialized when {@link #getMessage()}
+ * is called, so callers that filter by header don't build object graphs for rows they skip.
+ */
+public class LazyMessage {
+
+    public int flags;
+    public int id;
+    public int from_id;
+    // the dialog side of to_id: a user id, or minus the chat or channel id
+    public int peerId;
+
+    private byte[] bytes;
+    private TLRPC.Message message;
+
+    public static LazyMessage read(NativeByteBuffer data) {
+        LazyMessage result = readHeaderOnly(data);
+        if (result != null && result.message == null) {
+            result.bytes = new byte[data.limit() - data.position()];
+            data.readBytes(result.bytes, false);
+        }
+        return result;
+    }
+
+    /**
+     * Reads only the header and keeps nothing of the blob, for callers that need no more than the
+     * id, flags or sender. {@link #getMessage()} returns null for the result unless the header could
+     * not be read in place and the message had to be deserialized.
+     */
+    public static LazyMessage readHeaderOnly(NativeByteBuffer data) {
+        LazyMessage result = new LazyMessage();
+        if (result.readHeader(data.buffer)) {
+            return result;
+        }
+        result.message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+        if (result.message == null) {
+            return null;
+        }
+        result.flags = result.message.flags;
+        result.id = result.message.id;
+        result.from_id = result.message.from_id;
+        TLRPC.Peer peer = result.message.to_id;
+        if (peer != null) {
+            result.peerId = peer.user_id != 0 ? peer.user_id : peer.chat_id != 0 ? -peer.chat_id : -peer.channel_id;
+        }
+        return result;
+    }
+
+    private boolean readHeader(ByteBuffer buffer) {
+        int position = buffer.position();
+        if (buffer.limit() - position < 20) {
+            return false;
+        }
+        int constructor = buffer.getInt(position);
+        if (constructor != TLRPC.TL_message.constructor && constructor != TLRPC.TL_messageService.constructor) {
+            return false;
+        }
+        flags = buffer.getInt(position + 4);
+        id = buffer.getInt(position + 8);
+        position += 12;
+        if ((flags & 256) != 0) {
+            from_id = buffer.getInt(position);
+            position += 4;
+        }
+        if (buffer.limit() - position < 8) {
+            return false;
+        }
+        int peer = buffer.getInt(position);
+        if (peer == TLRPC.TL_peerUser.constructor) {
+            peerId = buffer.getInt(position + 4);
+        } else if (peer == TLRPC.TL_peerChat.constructor || peer == TLRPC.TL_peerChannel.constructor) {
+            peerId = -buffer.getInt(position + 4);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    public TLRPC.Message getMessage() {
+        if (message == null && bytes != null) {
+            SerializedData data = new SerializedData(bytes);
+            message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+            data.cleanup();
+            bytes = null;
+        }
+        return message;
+    }
+}
@@ -71,7 +71,7 @@ public class LocaleController {
     private boolean changingConfiguration = false;
 
     private HashMap<String, String> currencyValues;
-    private HashMap<String, String> translitChars;
+    private volatile String[][] translitChars;
 
     private class TimeZoneChangedReceiver extends BroadcastReceiver {
         @Override
@@ -1115,541 +1115,560 @@ public class LocaleController {
         }
     }
 
+    private static void addTranslitChar(String[][] chars, char ch, String value) {
+        String[] page = chars[ch >> 8];
+        if (page == null) {
+            page = new String[256];
+            chars[ch >> 8] = page;
+        }
+        page[ch & 0xff] = value;
+    }
+
     public String getTranslitString(String src) {
         if (translitChars == null) {
-            translitChars = new HashMap<>(520);
-            translitChars.put("ȼ", "c");
-            translitChars.put("ᶇ", "n");
-            translitChars.put("ɖ", "d");
-            translitChars.put("ỿ", "y");
-            translitChars.put("ᴓ", "o");
-            translitChars.put("ø", "o");
-            translitChars.put("ḁ", "a");
-            translitChars.put("ʯ", "h");
-            translitChars.put("ŷ", "y");
-            translitChars.put("ʞ", "k");
-            translitChars.put("ừ", "u");
-            translitChars.put("ꜳ", "aa");
-            translitChars.put("ĳ", "ij");
-            translitChars.put("ḽ", "l");
-            translitChars.put("ɪ", "i");
-            translitChars.put("ḇ", "b");
-            translitChars.put("ʀ", "r");
-            translitChars.put("ě", "e");
-            translitChars.put("ﬃ", "ffi");
-            translitChars.put("ơ", "o");
-            translitChars.put("ⱹ", "r");
-            translitChars.put("ồ", "o");
-            translitChars.put("ǐ", "i");
-            translitChars.put("ꝕ", "p");
-            translitChars.put("ý", "y");
-            translitChars.put("ḝ", "e");
-            translitChars.put("ₒ", "o");
-            translitChars.put("ⱥ", "a");
-            translitChars.put("ʙ", "b");
-            translitChars.put("ḛ", "e");
-            translitChars.put("ƈ", "c");
-            translitChars.put("ɦ", "h");
-            translitChars.put("ᵬ", "b");
-            translitChars.put("ṣ", "s");
-            translitChars.put("đ", "d");
-            translitChars.put("ỗ", "o");
-            translitChars.put("ɟ", "j");
-            translitChars.put("ẚ", "a");
-            translitChars.put("ɏ", "y");
-            translitChars.put("л", "l");
-            translitChars.put("ʌ", "v");
-            translitChars.put("ꝓ", "p");
-            translitChars.put("ﬁ", "fi");
-            translitChars.put("ᶄ", "k");
-            translitChars.put("ḏ", "d");
-            translitChars.put("ᴌ", "l");
-            translitChars.put("ė", "e");
-            translitChars.put("ё", "yo");
-            translitChars.put("ᴋ", "k");
-            translitChars.put("ċ", "c");
-            translitChars.put("ʁ", "r");
-            translitChars.put("ƕ", "hv");
-            translitChars.put("ƀ", "b");
-            translitChars.put("ṍ", "o");
-            translitChars.put("ȣ", "ou");
-            translitChars.put("ǰ", "j");
-            translitChars.put("ᶃ", "g");
-            translitChars.put("ṋ", "n");
-            translitChars.put("ɉ", "j");
-            translitChars.put("ǧ", "g");
-            translitChars.put("ǳ", "dz");
-            translitChars.put("ź", "z");
-            translitChars.put("ꜷ", "au");
-            translitChars.put("ǖ", "u");
-            translitChars.put("ᵹ", "g");
-            translitChars.put("ȯ", "o");
-            translitChars.put("ɐ", "a");
-            translitChars.put("ą", "a");
-            translitChars.put("õ", "o");
-            translitChars.put("ɻ", "r");
-            translitChars.put("ꝍ", "o");
-            translitChars.put("ǟ", "a");
-            translitChars.put("ȴ", "l");
-            translitChars.put("ʂ", "s");
-            translitChars.put("ﬂ", "fl");
-            translitChars.put("ȉ", "i");
-            translitChars.put("ⱻ", "e");
-            translitChars.put("ṉ", "n");
-            translitChars.put("ï", "i");
-            translitChars.put("ñ", "n");
-            translitChars.put("ᴉ", "i");
-            translitChars.put("ʇ", "t");
-            translitChars.put("ẓ", "z");
-            translitChars.put("ỷ", "y");
-            translitChars.put("ȳ", "y");
-            translitChars.put("ṩ", "s");
-            translitChars.put("ɽ", "r");
-            translitChars.put("ĝ", "g");
-            translitChars.put("в", "v");
-            translitChars.put("ᴝ", "u");
-            translitChars.put("ḳ", "k");
-            translitChars.put("ꝫ", "et");
-            translitChars.put("ī", "i");
-            translitChars.put("ť", "t");
-            translitChars.put("ꜿ", "c");
-            translitChars.put("ʟ", "l");
-            translitChars.put("ꜹ", "av");
-            translitChars.put("û", "u");
-            translitChars.put("æ", "ae");
-            translitChars.put("и", "i");
-            translitChars.put("ă", "a");
-            translitChars.put("ǘ", "u");
-            translitChars.put("ꞅ", "s");
-            translitChars.put("ᵣ", "r");
-            translitChars.put("ᴀ", "a");
-            translitChars.put("ƃ", "b");
-            translitChars.put("ḩ", "h");
-            translitChars.put("ṧ", "s");
-            translitChars.put("ₑ", "e");
-            translitChars.put("ʜ", "h");
-            translitChars.put("ẋ", "x");
-            translitChars.put("ꝅ", "k");
-            translitChars.put("ḋ", "d");
-            translitChars.put("ƣ", "oi");
-            translitChars.put("ꝑ", "p");
-            translitChars.put("ħ", "h");
-            translitChars.put("ⱴ", "v");
-            translitChars.put("ẇ", "w");
-            translitChars.put("ǹ", "n");
-            translitChars.put("ɯ", "m");
-            translitChars.put("ɡ", "g");
-            translitChars.put("ɴ", "n");
-            translitChars.put("ᴘ", "p");
-            translitChars.put("ᵥ", "v");
-            translitChars.put("ū", "u");
-            translitChars.put("ḃ", "b");
-            translitChars.put("ṗ", "p");
-            translitChars.put("ь", "");
-            translitChars.put("å", "a");
-            translitChars.put("ɕ", "c");
-            translitChars.put("ọ", "o");
-            translitChars.put("ắ", "a");
-            translitChars.put("ƒ", "f");
-            translitChars.put("ǣ", "ae");
-            translitChars.put("ꝡ", "vy");
-            translitChars.put("ﬀ", "ff");
-            translitChars.put("ᶉ", "r");
-            translitChars.put("ô", "o");
-            translitChars.put("ǿ", "o");
-            translitChars.put("ṳ", "u");
-            translitChars.put("ȥ", "z");
-            translitChars.put("ḟ", "f");
-            translitChars.put("ḓ", "d");
-            translitChars.put("ȇ", "e");
-            translitChars.put("ȕ", "u");
-            translitChars.put("п", "p");
-            translitChars.put("ȵ", "n");
-            translitChars.put("ʠ", "q");
-            translitChars.put("ấ", "a");
-            translitChars.put("ǩ", "k");
-            translitChars.put("ĩ", "i");
-            translitChars.put("ṵ", "u");
-            translitChars.put("ŧ", "t");
-            translitChars.put("ɾ", "r");
-            translitChars.put("ƙ", "k");
-            translitChars.put("ṫ", "t");
-            translitChars.put("ꝗ", "q");
-            translitChars.put("ậ", "a");
-            translitChars.put("н", "n");
-            translitChars.put("ʄ", "j");
-            translitChars.put("ƚ", "l");
-            translitChars.put("ᶂ", "f");
-            translitChars.put("д", "d");
-            translitChars.put("ᵴ", "s");
-            translitChars.put("ꞃ", "r");
-            translitChars.put("ᶌ", "v");
-            translitChars.put("ɵ", "o");
-            translitChars.put("ḉ", "c");
-            translitChars.put("ᵤ", "u");
-            translitChars.put("ẑ", "z");
-            translitChars.put("ṹ", "u");
-            translitChars.put("ň", "n");
-            translitChars.put("ʍ", "w");
-            translitChars.put("ầ", "a");
-            translitChars.put("ǉ", "lj");
-            translitChars.put("ɓ", "b");
-            translitChars.put("ɼ", "r");
-            translitChars.put("ò", "o");
-            translitChars.put("ẘ", "w");
-            translitChars.put("ɗ", "d");
-            translitChars.put("ꜽ", "ay");
-            translitChars.put("ư", "u");
-            translitChars.put("ᶀ", "b");
-            translitChars.put("ǜ", "u");
-            translitChars.put("ẹ", "e");
-            translitChars.put("ǡ", "a");
-            translitChars.put("ɥ", "h");
-            translitChars.put("ṏ", "o");
-            translitChars.put("ǔ", "u");
-            translitChars.put("ʎ", "y");
-            translitChars.put("ȱ", "o");
-            translitChars.put("ệ", "e");
-            translitChars.put("ế", "e");
-            translitChars.put("ĭ", "i");
-            translitChars.put("ⱸ", "e");
-            translitChars.put("ṯ", "t");
-            translitChars.put("ᶑ", "d");
-            translitChars.put("ḧ", "h");
-            translitChars.put("ṥ", "s");
-            translitChars.put("ë", "e");
-            translitChars.put("ᴍ", "m");
-            translitChars.put("ö", "o");
-            translitChars.put("é", "e");
-            translitChars.put("ı", "i");
-            translitChars.put("ď", "d");
-            translitChars.put("ᵯ", "m");
-            translitChars.put("ỵ", "y");
-            translitChars.put("я", "ya");
-            translitChars.put("ŵ", "w");
-            translitChars.put("ề", "e");
-            translitChars.put("ứ", "u");
-            translitChars.put("ƶ", "z");
-            translitChars.put("ĵ", "j");
-            translitChars.put("ḍ", "d");
-            translitChars.put("ŭ", "u");
-            translitChars.put("ʝ", "j");
-            translitChars.put("ж", "zh");
-            translitChars.put("ê", "e");
-            translitChars.put("ǚ", "u");
-            translitChars.put("ġ", "g");
-            translitChars.put("ṙ", "r");
-            translitChars.put("ƞ", "n");
-            translitChars.put("ъ", "");
-            translitChars.put("ḗ", "e");
-            translitChars.put("ẝ", "s");
-            translitChars.put("ᶁ", "d");
-            translitChars.put("ķ", "k");
-            translitChars.put("ᴂ", "ae");
-            translitChars.put("ɘ", "e");
-            translitChars.put("ợ", "o");
-            translitChars.put("ḿ", "m");
-            translitChars.put("ꜰ", "f");
-            translitChars.put("а", "a");
-            translitChars.put("ẵ", "a");
-            translitChars.put("ꝏ", "oo");
-            translitChars.put("ᶆ", "m");
-            translitChars.put("ᵽ", "p");
-            translitChars.put("ц", "ts");
-            translitChars.put("ữ", "u");
-            translitChars.put("ⱪ", "k");
-            translitChars.put("ḥ", "h");
-            translitChars.put("ţ", "t");
-            translitChars.put("ᵱ", "p");
-            translitChars.put("ṁ", "m");
-            translitChars.put("á", "a");
-            translitChars.put("ᴎ", "n");
-            translitChars.put("ꝟ", "v");
-            translitChars.put("è", "e");
-            translitChars.put("ᶎ", "z");
-            translitChars.put("ꝺ", "d");
-            translitChars.put("ᶈ", "p");
-            translitChars.put("м", "m");
-            translitChars.put("ɫ", "l");
-            translitChars.put("ᴢ", "z");
-            translitChars.put("ɱ", "m");
-            translitChars.put("ṝ", "r");
-            translitChars.put("ṽ", "v");
-            translitChars.put("ũ", "u");
-            translitChars.put("ß", "ss");
-            translitChars.put("т", "t");
-            translitChars.put("ĥ", "h");
-            translitChars.put("ᵵ", "t");
-            translitChars.put("ʐ", "z");
-            translitChars.put("ṟ", "r");
-            translitChars.put("ɲ", "n");
-            translitChars.put("à", "a");
-            translitChars.put("ẙ", "y");
-            translitChars.put("ỳ", "y");
-            translitChars.put("ᴔ", "oe");
-            translitChars.put("ы", "i");
-            translitChars.put("ₓ", "x");
-            translitChars.put("ȗ", "u");
-            translitChars.put("ⱼ", "j");
-            translitChars.put("ẫ", "a");
-            translitChars.put("ʑ", "z");
-            translitChars.put("ẛ", "s");
-            translitChars.put("ḭ", "i");
-            translitChars.put("ꜵ", "ao");
-            translitChars.put("ɀ", "z");
-            translitChars.put("ÿ", "y");
-            translitChars.put("ǝ", "e");
-            translitChars.put("ǭ", "o");
-            translitChars.put("ᴅ", "d");
-            translitChars.put("ᶅ", "l");
-            translitChars.put("ù", "u");
-            translitChars.put("ạ", "a");
-            translitChars.put("ḅ", "b");
-            translitChars.put("ụ", "u");
-            translitChars.put("к", "k");
-            translitChars.put("ằ", "a");
-            translitChars.put("ᴛ", "t");
-            translitChars.put("ƴ", "y");
-            translitChars.put("ⱦ", "t");
-            translitChars.put("з", "z");
-            translitChars.put("ⱡ", "l");
-            translitChars.put("ȷ", "j");
-            translitChars.put("ᵶ", "z");
-            translitChars.put("ḫ", "h");
-            translitChars.put("ⱳ", "w");
-            translitChars.put("ḵ", "k");
-            translitChars.put("ờ", "o");
-            translitChars.put("î", "i");
-            translitChars.put("ģ", "g");
-            translitChars.put("ȅ", "e");
-            translitChars.put("ȧ", "a");
-            translitChars.put("ẳ", "a");
-            translitChars.put("щ", "sch");
-            translitChars.put("ɋ", "q");
-            translitChars.put("ṭ", "t");
-            translitChars.put("ꝸ", "um");
-            translitChars.put("ᴄ", "c");
-            translitChars.put("ẍ", "x");
-            translitChars.put("ủ", "u");
-            translitChars.put("ỉ", "i");
-            translitChars.put("ᴚ", "r");
-            translitChars.put("ś", "s");
-            translitChars.put("ꝋ", "o");
-            translitChars.put("ỹ", "y");
-            translitChars.put("ṡ", "s");
-            translitChars.put("ǌ", "nj");
-            translitChars.put("ȁ", "a");
-            translitChars.put("ẗ", "t");
-            translitChars.put("ĺ", "l");
-            translitChars.put("ž", "z");
-            translitChars.put("ᵺ", "th");
-            translitChars.put("ƌ", "d");
-            translitChars.put("ș", "s");
-            translitChars.put("š", "s");
-            translitChars.put("ᶙ", "u");
-            translitChars.put("ẽ", "e");
-            translitChars.put("ẜ", "s");
-            translitChars.put("ɇ", "e");
-            translitChars.put("ṷ", "u");
-            translitChars.put("ố", "o");
-            translitChars.put("ȿ", "s");
-            translitChars.put("ᴠ", "v");
-            translitChars.put("ꝭ", "is");
-            translitChars.put("ᴏ", "o");
-            translitChars.put("ɛ", "e");
-            translitChars.put("ǻ", "a");
-            translitChars.put("ﬄ", "ffl");
-            translitChars.put("ⱺ", "o");
-            translitChars.put("ȋ", "i");
-            translitChars.put("ᵫ", "ue");
-            translitChars.put("ȡ", "d");
-            translitChars.put("ⱬ", "z");
-            translitChars.put("ẁ", "w");
-            translitChars.put("ᶏ", "a");
-            translitChars.put("ꞇ", "t");
-            translitChars.put("ğ", "g");
-            translitChars.put("ɳ", "n");
-            translitChars.put("ʛ", "g");
-            translitChars.put("ᴜ", "u");
-            translitChars.put("ф", "f");
-            translitChars.put("ẩ", "a");
-            translitChars.put("ṅ", "n");
-            translitChars.put("ɨ", "i");
-            translitChars.put("ᴙ", "r");
-            translitChars.put("ǎ", "a");
-            translitChars.put("ſ", "s");
-            translitChars.put("у", "u");
-            translitChars.put("ȫ", "o");
-            translitChars.put("ɿ", "r");
-            translitChars.put("ƭ", "t");
-            translitChars.put("ḯ", "i");
-            translitChars.put("ǽ", "ae");
-            translitChars.put("ⱱ", "v");
-            translitChars.put("ɶ", "oe");
-            translitChars.put("ṃ", "m");
-            translitChars.put("ż", "z");
-            translitChars.put("ĕ", "e");
-            translitChars.put("ꜻ", "av");
-            translitChars.put("ở", "o");
-            translitChars.put("ễ", "e");
-            translitChars.put("ɬ", "l");
-            translitChars.put("ị", "i");
-            translitChars.put("ᵭ", "d");
-            translitChars.put("ﬆ", "st");
-            translitChars.put("ḷ", "l");
-            translitChars.put("ŕ", "r");
-            translitChars.put("ᴕ", "ou");
-            translitChars.put("ʈ", "t");
-            translitChars.put("ā", "a");
-            translitChars.put("э", "e");
-            translitChars.put("ḙ", "e");
-            translitChars.put("ᴑ", "o");
-            translitChars.put("ç", "c");
-            translitChars.put("ᶊ", "s");
-            translitChars.put("ặ", "a");
-            translitChars.put("ų", "u");
-            translitChars.put("ả", "a");
-            translitChars.put("ǥ", "g");
-            translitChars.put("р", "r");
-            translitChars.put("ꝁ", "k");
-            translitChars.put("ẕ", "z");
-            translitChars.put("ŝ", "s");
-            translitChars.put("ḕ", "e");
-            translitChars.put("ɠ", "g");
-            translitChars.put("ꝉ", "l");
-            translitChars.put("ꝼ", "f");
-            translitChars.put("ᶍ", "x");
-            translitChars.put("х", "h");
-            translitChars.put("ǒ", "o");
-            translitChars.put("ę", "e");
-            translitChars.put("ổ", "o");
-            translitChars.put("ƫ", "t");
-            translitChars.put("ǫ", "o");
-            translitChars.put("i̇", "i");
-            translitChars.put("ṇ", "n");
-            translitChars.put("ć", "c");
-            translitChars.put("ᵷ", "g");
-            translitChars.put("ẅ", "w");
-            translitChars.put("ḑ", "d");
-            translitChars.put("ḹ", "l");
-            translitChars.put("ч", "ch");
-            translitChars.put("œ", "oe");
-            translitChars.put("ᵳ", "r");
-            translitChars.put("ļ", "l");
-            translitChars.put("ȑ", "r");
-            translitChars.put("ȭ", "o");
-            translitChars.put("ᵰ", "n");
-            translitChars.put("ᴁ", "ae");
-            translitChars.put("ŀ", "l");
-            translitChars.put("ä", "a");
-            translitChars.put("ƥ", "p");
-            translitChars.put("ỏ", "o");
-            translitChars.put("į", "i");
-            translitChars.put("ȓ", "r");
-            translitChars.put("ǆ", "dz");
-            translitChars.put("ḡ", "g");
-            translitChars.put("ṻ", "u");
-            translitChars.put("ō", "o");
-            translitChars.put("ľ", "l");
-            translitChars.put("ẃ", "w");
-            translitChars.put("ț", "t");
-            translitChars.put("ń", "n");
-            translitChars.put("ɍ", "r");
-            translitChars.put("ȃ", "a");
-            translitChars.put("ü", "u");
-            translitChars.put("ꞁ", "l");
-            translitChars.put("ᴐ", "o");
-            translitChars.put("ớ", "o");
-            translitChars.put("ᴃ", "b");
-            translitChars.put("ɹ", "r");
-            translitChars.put("ᵲ", "r");
-            translitChars.put("ʏ", "y");
-            translitChars.put("ᵮ", "f");
-            translitChars.put("ⱨ", "h");
-            translitChars.put("ŏ", "o");
-            translitChars.put("ú", "u");
-            translitChars.put("ṛ", "r");
-            translitChars.put("ʮ", "h");
-            translitChars.put("ó", "o");
-            translitChars.put("ů", "u");
-            translitChars.put("ỡ", "o");
-            translitChars.put("ṕ", "p");
-            translitChars.put("ᶖ", "i");
-            translitChars.put("ự", "u");
-            translitChars.put("ã", "a");
-            translitChars.put("ᵢ", "i");
-            translitChars.put("ṱ", "t");
-            translitChars.put("ể", "e");
-            translitChars.put("ử", "u");
-            translitChars.put("í", "i");
-            translitChars.put("ɔ", "o");
-            translitChars.put("с", "s");
-            translitChars.put("й", "i");
-            translitChars.put("ɺ", "r");
-            translitChars.put("ɢ", "g");
-            translitChars.put("ř", "r");
-            translitChars.put("ẖ", "h");
-            translitChars.put("ű", "u");
-            translitChars.put("ȍ", "o");
-            translitChars.put("ш", "sh");
-            translitChars.put("ḻ", "l");
-            translitChars.put("ḣ", "h");
-            translitChars.put("ȶ", "t");
-            translitChars.put("ņ", "n");
-            translitChars.put("ᶒ", "e");
-            translitChars.put("ì", "i");
-            translitChars.put("ẉ", "w");
-            translitChars.put("б", "b");
-            translitChars.put("ē", "e");
-            translitChars.put("ᴇ", "e");
-            translitChars.put("ł", "l");
-            translitChars.put("ộ", "o");
-            translitChars.put("ɭ", "l");
-            translitChars.put("ẏ", "y");
-            translitChars.put("ᴊ", "j");
-            translitChars.put("ḱ", "k");
-            translitChars.put("ṿ", "v");
-            translitChars.put("ȩ", "e");
-            translitChars.put("â", "a");
-            translitChars.put("ş", "s");
-            translitChars.put("ŗ", "r");
-            translitChars.put("ʋ", "v");
-            translitChars.put("ₐ", "a");
-            translitChars.put("ↄ", "c");
-            translitChars.put("ᶓ", "e");
-            translitChars.put("ɰ", "m");
-            translitChars.put("е", "e");
-            translitChars.put("ᴡ", "w");
-            translitChars.put("ȏ", "o");
-            translitChars.put("č", "c");
-            translitChars.put("ǵ", "g");
-            translitChars.put("ĉ", "c");
-            translitChars.put("ю", "yu");
-            translitChars.put("ᶗ", "o");
-            translitChars.put("ꝃ", "k");
-            translitChars.put("ꝙ", "q");
-            translitChars.put("г", "g");
-            translitChars.put("ṑ", "o");
-            translitChars.put("ꜱ", "s");
-            translitChars.put("ṓ", "o");
-            translitChars.put("ȟ", "h");
-            translitChars.put("ő", "o");
-            translitChars.put("ꜩ", "tz");
-            translitChars.put("ẻ", "e");
-            translitChars.put("о", "o");
-        }
-        StringBuilder dst = new StringBuilder(src.length());
+            synchronized (this) {
+                if (translitChars == null) {
+                    String[][] chars = new String[256][];
+                    addTranslitChar(chars, 'ȼ', "c");
+                    addTranslitChar(chars, 'ᶇ', "n");
+                    addTranslitChar(chars, 'ɖ', "d");
+                    addTranslitChar(chars, 'ỿ', "y");
+                    addTranslitChar(chars, 'ᴓ', "o");
+                    addTranslitChar(chars, 'ø', "o");
+                    addTranslitChar(chars, 'ḁ', "a");
+                    addTranslitChar(chars, 'ʯ', "h");
+                    addTranslitChar(chars, 'ŷ', "y");
+                    addTranslitChar(chars, 'ʞ', "k");
+                    addTranslitChar(chars, 'ừ', "u");
+                    addTranslitChar(chars, 'ꜳ', "aa");
+                    addTranslitChar(chars, 'ĳ', "ij");
+                    addTranslitChar(chars, 'ḽ', "l");
+                    addTranslitChar(chars, 'ɪ', "i");
+                    addTranslitChar(chars, 'ḇ', "b");
+                    addTranslitChar(chars, 'ʀ', "r");
+                    addTranslitChar(chars, 'ě', "e");
+                    addTranslitChar(chars, 'ﬃ', "ffi");
+                    addTranslitChar(chars, 'ơ', "o");
+                    addTranslitChar(chars, 'ⱹ', "r");
+                    addTranslitChar(chars, 'ồ', "o");
+                    addTranslitChar(chars, 'ǐ', "i");
+                    addTranslitChar(chars, 'ꝕ', "p");
+                    addTranslitChar(chars, 'ý', "y");
+                    addTranslitChar(chars, 'ḝ', "e");
+                    addTranslitChar(chars, 'ₒ', "o");
+                    addTranslitChar(chars, 'ⱥ', "a");
+                    addTranslitChar(chars, 'ʙ', "b");
+                    addTranslitChar(chars, 'ḛ', "e");
+                    addTranslitChar(chars, 'ƈ', "c");
+                    addTranslitChar(chars, 'ɦ', "h");
+                    addTranslitChar(chars, 'ᵬ', "b");
+                    addTranslitChar(chars, 'ṣ', "s");
+                    addTranslitChar(chars, 'đ', "d");
+                    addTranslitChar(chars, 'ỗ', "o");
+                    addTranslitChar(chars, 'ɟ', "j");
+                    addTranslitChar(chars, 'ẚ', "a");
+                    addTranslitChar(chars, 'ɏ', "y");
+                    addTranslitChar(chars, 'л', "l");
+                    addTranslitChar(chars, 'ʌ', "v");
+                    addTranslitChar(chars, 'ꝓ', "p");
+                    addTranslitChar(chars, 'ﬁ', "fi");
+                    addTranslitChar(chars, 'ᶄ', "k");
+                    addTranslitChar(chars, 'ḏ', "d");
+                    addTranslitChar(chars, 'ᴌ', "l");
+                    addTranslitChar(chars, 'ė', "e");
+                    addTranslitChar(chars, 'ё', "yo");
+                    addTranslitChar(chars, 'ᴋ', "k");
+                    addTranslitChar(chars, 'ċ', "c");
+                    addTranslitChar(chars, 'ʁ', "r");
+                    addTranslitChar(chars, 'ƕ', "hv");
+                    addTranslitChar(chars, 'ƀ', "b");
+                    addTranslitChar(chars, 'ṍ', "o");
+                    addTranslitChar(chars, 'ȣ', "ou");
+                    addTranslitChar(chars, 'ǰ', "j");
+                    addTranslitChar(chars, 'ᶃ', "g");
+                    addTranslitChar(chars, 'ṋ', "n");
+                    addTranslitChar(chars, 'ɉ', "j");
+                    addTranslitChar(chars, 'ǧ', "g");
+                    addTranslitChar(chars, 'ǳ', "dz");
+                    addTranslitChar(chars, 'ź', "z");
+                    addTranslitChar(chars, 'ꜷ', "au");
+                    addTranslitChar(chars, 'ǖ', "u");
+                    addTranslitChar(chars, 'ᵹ', "g");
+                    addTranslitChar(chars, 'ȯ', "o");
+                    addTranslitChar(chars, 'ɐ', "a");
+                    addTranslitChar(chars, 'ą', "a");
+                    addTranslitChar(chars, 'õ', "o");
+                    addTranslitChar(chars, 'ɻ', "r");
+                    addTranslitChar(chars, 'ꝍ', "o");
+                    addTranslitChar(chars, 'ǟ', "a");
+                    addTranslitChar(chars, 'ȴ', "l");
+                    addTranslitChar(chars, 'ʂ', "s");
+                    addTranslitChar(chars, 'ﬂ', "fl");
+                    addTranslitChar(chars, 'ȉ', "i");
+                    addTranslitChar(chars, 'ⱻ', "e");
+                    addTranslitChar(chars, 'ṉ', "n");
+                    addTranslitChar(chars, 'ï', "i");
+                    addTranslitChar(chars, 'ñ', "n");
+                    addTranslitChar(chars, 'ᴉ', "i");
+                    addTranslitChar(chars, 'ʇ', "t");
+                    addTranslitChar(chars, 'ẓ', "z");
+                    addTranslitChar(chars, 'ỷ', "y");
+                    addTranslitChar(chars, 'ȳ', "y");
+                    addTranslitChar(chars, 'ṩ', "s");
+                    addTranslitChar(chars, 'ɽ', "r");
+                    addTranslitChar(chars, 'ĝ', "g");
+                    addTranslitChar(chars, 'в', "v");
+                    addTranslitChar(chars, 'ᴝ', "u");
+                    addTranslitChar(chars, 'ḳ', "k");
+                    addTranslitChar(chars, 'ꝫ', "et");
+                    addTranslitChar(chars, 'ī', "i");
+                    addTranslitChar(chars, 'ť', "t");
+                    addTranslitChar(chars, 'ꜿ', "c");
+                    addTranslitChar(chars, 'ʟ', "l");
+                    addTranslitChar(chars, 'ꜹ', "av");
+                    addTranslitChar(chars, 'û', "u");
+                    addTranslitChar(chars, 'æ', "ae");
+                    addTranslitChar(chars, 'и', "i");
+                    addTranslitChar(chars, 'ă', "a");
+                    addTranslitChar(chars, 'ǘ', "u");
+                    addTranslitChar(chars, 'ꞅ', "s");
+                    addTranslitChar(chars, 'ᵣ', "r");
+                    addTranslitChar(chars, 'ᴀ', "a");
+                    addTranslitChar(chars, 'ƃ', "b");
+                    addTranslitChar(chars, 'ḩ', "h");
+                    addTranslitChar(chars, 'ṧ', "s");
+                    addTranslitChar(chars, 'ₑ', "e");
+                    addTranslitChar(chars, 'ʜ', "h");
+                    addTranslitChar(chars, 'ẋ', "x");
+                    addTranslitChar(chars, 'ꝅ', "k");
+                    addTranslitChar(chars, 'ḋ', "d");
+                    addTranslitChar(chars, 'ƣ', "oi");
+                    addTranslitChar(chars, 'ꝑ', "p");
+                    addTranslitChar(chars, 'ħ', "h");
+                    addTranslitChar(chars, 'ⱴ', "v");
+                    addTranslitChar(chars, 'ẇ', "w");
+                    addTranslitChar(chars, 'ǹ', "n");
+                    addTranslitChar(chars, 'ɯ', "m");
+                    addTranslitChar(chars, 'ɡ', "g");
+                    addTranslitChar(chars, 'ɴ', "n");
+                    addTranslitChar(chars, 'ᴘ', "p");
+                    addTranslitChar(chars, 'ᵥ', "v");
+                    addTranslitChar(chars, 'ū', "u");
+                    addTranslitChar(chars, 'ḃ', "b");
+                    addTranslitChar(chars, 'ṗ', "p");
+                    addTranslitChar(chars, 'ь', "");
+                    addTranslitChar(chars, 'å', "a");
+                    addTranslitChar(chars, 'ɕ', "c");
+                    addTranslitChar(chars, 'ọ', "o");
+                    addTranslitChar(chars, 'ắ', "a");
+                    addTranslitChar(chars, 'ƒ', "f");
+                    addTranslitChar(chars, 'ǣ', "ae");
+                    addTranslitChar(chars, 'ꝡ', "vy");
+                    addTranslitChar(chars, 'ﬀ', "ff");
+                    addTranslitChar(chars, 'ᶉ', "r");
+                    addTranslitChar(chars, 'ô', "o");
+                    addTranslitChar(chars, 'ǿ', "o");
+                    addTranslitChar(chars, 'ṳ', "u");
+                    addTranslitChar(chars, 'ȥ', "z");
+                    addTranslitChar(chars, 'ḟ', "f");
+                    addTranslitChar(chars, 'ḓ', "d");
+                    addTranslitChar(chars, 'ȇ', "e");
+                    addTranslitChar(chars, 'ȕ', "u");
+                    addTranslitChar(chars, 'п', "p");
+                    addTranslitChar(chars, 'ȵ', "n");
+                    addTranslitChar(chars, 'ʠ', "q");
+                    addTranslitChar(chars, 'ấ', "a");
+                    addTranslitChar(chars, 'ǩ', "k");
+                    addTranslitChar(chars, 'ĩ', "i");
+                    addTranslitChar(chars, 'ṵ', "u");
+                    addTranslitChar(chars, 'ŧ', "t");
+                    addTranslitChar(chars, 'ɾ', "r");
+                    addTranslitChar(chars, 'ƙ', "k");
+                    addTranslitChar(chars, 'ṫ', "t");
+                    addTranslitChar(chars, 'ꝗ', "q");
+                    addTranslitChar(chars, 'ậ', "a");
+                    addTranslitChar(chars, 'н', "n");
+                    addTranslitChar(chars, 'ʄ', "j");
+                    addTranslitChar(chars, 'ƚ', "l");
+                    addTranslitChar(chars, 'ᶂ', "f");
+                    addTranslitChar(chars, 'д', "d");
+                    addTranslitChar(chars, 'ᵴ', "s");
+                    addTranslitChar(chars, 'ꞃ', "r");
+                    addTranslitChar(chars, 'ᶌ', "v");
+                    addTranslitChar(chars, 'ɵ', "o");
+                    addTranslitChar(chars, 'ḉ', "c");
+                    addTranslitChar(chars, 'ᵤ', "u");
+                    addTranslitChar(chars, 'ẑ', "z");
+                    addTranslitChar(chars, 'ṹ', "u");
+                    addTranslitChar(chars, 'ň', "n");
+                    addTranslitChar(chars, 'ʍ', "w");
+                    addTranslitChar(chars, 'ầ', "a");
+                    addTranslitChar(chars, 'ǉ', "lj");
+                    addTranslitChar(chars, 'ɓ', "b");
+                    addTranslitChar(chars, 'ɼ', "r");
+                    addTranslitChar(chars, 'ò', "o");
+                    addTranslitChar(chars, 'ẘ', "w");
+                    addTranslitChar(chars, 'ɗ', "d");
+                    addTranslitChar(chars, 'ꜽ', "ay");
+                    addTranslitChar(chars, 'ư', "u");
+                    addTranslitChar(chars, 'ᶀ', "b");
+                    addTranslitChar(chars, 'ǜ', "u");
+                    addTranslitChar(chars, 'ẹ', "e");
+                    addTranslitChar(chars, 'ǡ', "a");
+                    addTranslitChar(chars, 'ɥ', "h");
+                    addTranslitChar(chars, 'ṏ', "o");
+                    addTranslitChar(chars, 'ǔ', "u");
+                    addTranslitChar(chars, 'ʎ', "y");
+                    addTranslitChar(chars, 'ȱ', "o");
+                    addTranslitChar(chars, 'ệ', "e");
+                    addTranslitChar(chars, 'ế', "e");
+                    addTranslitChar(chars, 'ĭ', "i");
+                    addTranslitChar(chars, 'ⱸ', "e");
+                    addTranslitChar(chars, 'ṯ', "t");
+                    addTranslitChar(chars, 'ᶑ', "d");
+                    addTranslitChar(chars, 'ḧ', "h");
+                    addTranslitChar(chars, 'ṥ', "s");
+                    addTranslitChar(chars, 'ë', "e");
+                    addTranslitChar(chars, 'ᴍ', "m");
+                    addTranslitChar(chars, 'ö', "o");
+                    addTranslitChar(chars, 'é', "e");
+                    addTranslitChar(chars, 'ı', "i");
+                    addTranslitChar(chars, 'ď', "d");
+                    addTranslitChar(chars, 'ᵯ', "m");
+                    addTranslitChar(chars, 'ỵ', "y");
+                    addTranslitChar(chars, 'я', "ya");
+                    addTranslitChar(chars, 'ŵ', "w");
+                    addTranslitChar(chars, 'ề', "e");
+                    addTranslitChar(chars, 'ứ', "u");
+                    addTranslitChar(chars, 'ƶ', "z");
+                    addTranslitChar(chars, 'ĵ', "j");
+                    addTranslitChar(chars, 'ḍ', "d");
+                    addTranslitChar(chars, 'ŭ', "u");
+                    addTranslitChar(chars, 'ʝ', "j");
+                    addTranslitChar(chars, 'ж', "zh");
+                    addTranslitChar(chars, 'ê', "e");
+                    addTranslitChar(chars, 'ǚ', "u");
+                    addTranslitChar(chars, 'ġ', "g");
+                    addTranslitChar(chars, 'ṙ', "r");
+                    addTranslitChar(chars, 'ƞ', "n");
+                    addTranslitChar(chars, 'ъ', "");
+                    addTranslitChar(chars, 'ḗ', "e");
+                    addTranslitChar(chars, 'ẝ', "s");
+                    addTranslitChar(chars, 'ᶁ', "d");
+                    addTranslitChar(chars, 'ķ', "k");
+                    addTranslitChar(chars, 'ᴂ', "ae");
+                    addTranslitChar(chars, 'ɘ', "e");
+                    addTranslitChar(chars, 'ợ', "o");
+                    addTranslitChar(chars, 'ḿ', "m");
+                    addTranslitChar(chars, 'ꜰ', "f");
+                    addTranslitChar(chars, 'а', "a");
+                    addTranslitChar(chars, 'ẵ', "a");
+                    addTranslitChar(chars, 'ꝏ', "oo");
+                    addTranslitChar(chars, 'ᶆ', "m");
+                    addTranslitChar(chars, 'ᵽ', "p");
+                    addTranslitChar(chars, 'ц', "ts");
+                    addTranslitChar(chars, 'ữ', "u");
+                    addTranslitChar(chars, 'ⱪ', "k");
+                    addTranslitChar(chars, 'ḥ', "h");
+                    addTranslitChar(chars, 'ţ', "t");
+                    addTranslitChar(chars, 'ᵱ', "p");
+                    addTranslitChar(chars, 'ṁ', "m");
+                    addTranslitChar(chars, 'á', "a");
+                    addTranslitChar(chars, 'ᴎ', "n");
+                    addTranslitChar(chars, 'ꝟ', "v");
+                    addTranslitChar(chars, 'è', "e");
+                    addTranslitChar(chars, 'ᶎ', "z");
+                    addTranslitChar(chars, 'ꝺ', "d");
+                    addTranslitChar(chars, 'ᶈ', "p");
+                    addTranslitChar(chars, 'м', "m");
+                    addTranslitChar(chars, 'ɫ', "l");
+                    addTranslitChar(chars, 'ᴢ', "z");
+                    addTranslitChar(chars, 'ɱ', "m");
+                    addTranslitChar(chars, 'ṝ', "r");
+                    addTranslitChar(chars, 'ṽ', "v");
+                    addTranslitChar(chars, 'ũ', "u");
+                    addTranslitChar(chars, 'ß', "ss");
+                    addTranslitChar(chars, 'т', "t");
+                    addTranslitChar(chars, 'ĥ', "h");
+                    addTranslitChar(chars, 'ᵵ', "t");
+                    addTranslitChar(chars, 'ʐ', "z");
+                    addTranslitChar(chars, 'ṟ', "r");
+                    addTranslitChar(chars, 'ɲ', "n");
+                    addTranslitChar(chars, 'à', "a");
+                    addTranslitChar(chars, 'ẙ', "y");
+                    addTranslitChar(chars, 'ỳ', "y");
+                    addTranslitChar(chars, 'ᴔ', "oe");
+                    addTranslitChar(chars, 'ы', "i");
+                    addTranslitChar(chars, 'ₓ', "x");
+                    addTranslitChar(chars, 'ȗ', "u");
+                    addTranslitChar(chars, 'ⱼ', "j");
+                    addTranslitChar(chars, 'ẫ', "a");
+                    addTranslitChar(chars, 'ʑ', "z");
+                    addTranslitChar(chars, 'ẛ', "s");
+                    addTranslitChar(chars, 'ḭ', "i");
+                    addTranslitChar(chars, 'ꜵ', "ao");
+                    addTranslitChar(chars, 'ɀ', "z");
+                    addTranslitChar(chars, 'ÿ', "y");
+                    addTranslitChar(chars, 'ǝ', "e");
+                    addTranslitChar(chars, 'ǭ', "o");
+                    addTranslitChar(chars, 'ᴅ', "d");
+                    addTranslitChar(chars, 'ᶅ', "l");
+                    addTranslitChar(chars, 'ù', "u");
+                    addTranslitChar(chars, 'ạ', "a");
+                    addTranslitChar(chars, 'ḅ', "b");
+                    addTranslitChar(chars, 'ụ', "u");
+                    addTranslitChar(chars, 'к', "k");
+                    addTranslitChar(chars, 'ằ', "a");
+                    addTranslitChar(chars, 'ᴛ', "t");
+                    addTranslitChar(chars, 'ƴ', "y");
+                    addTranslitChar(chars, 'ⱦ', "t");
+                    addTranslitChar(chars, 'з', "z");
+                    addTranslitChar(chars, 'ⱡ', "l");
+                    addTranslitChar(chars, 'ȷ', "j");
+                    addTranslitChar(chars, 'ᵶ', "z");
+                    addTranslitChar(chars, 'ḫ', "h");
+                    addTranslitChar(chars, 'ⱳ', "w");
+                    addTranslitChar(chars, 'ḵ', "k");
+                    addTranslitChar(chars, 'ờ', "o");
+                    addTranslitChar(chars, 'î', "i");
+                    addTranslitChar(chars, 'ģ', "g");
+                    addTranslitChar(chars, 'ȅ', "e");
+                    addTranslitChar(chars, 'ȧ', "a");
+                    addTranslitChar(chars, 'ẳ', "a");
+                    addTranslitChar(chars, 'щ', "sch");
+                    addTranslitChar(chars, 'ɋ', "q");
+                    addTranslitChar(chars, 'ṭ', "t");
+                    addTranslitChar(chars, 'ꝸ', "um");
+                    addTranslitChar(chars, 'ᴄ', "c");
+                    addTranslitChar(chars, 'ẍ', "x");
+                    addTranslitChar(chars, 'ủ', "u");
+                    addTranslitChar(chars, 'ỉ', "i");
+                    addTranslitChar(chars, 'ᴚ', "r");
+                    addTranslitChar(chars, 'ś', "s");
+                    addTranslitChar(chars, 'ꝋ', "o");
+                    addTranslitChar(chars, 'ỹ', "y");
+                    addTranslitChar(chars, 'ṡ', "s");
+                    addTranslitChar(chars, 'ǌ', "nj");
+                    addTranslitChar(chars, 'ȁ', "a");
+                    addTranslitChar(chars, 'ẗ', "t");
+                    addTranslitChar(chars, 'ĺ', "l");
+                    addTranslitChar(chars, 'ž', "z");
+                    addTranslitChar(chars, 'ᵺ', "th");
+                    addTranslitChar(chars, 'ƌ', "d");
+                    addTranslitChar(chars, 'ș', "s");
+                    addTranslitChar(chars, 'š', "s");
+                    addTranslitChar(chars, 'ᶙ', "u");
+                    addTranslitChar(chars, 'ẽ', "e");
+                    addTranslitChar(chars, 'ẜ', "s");
+                    addTranslitChar(chars, 'ɇ', "e");
+                    addTranslitChar(chars, 'ṷ', "u");
+                    addTranslitChar(chars, 'ố', "o");
+                    addTranslitChar(chars, 'ȿ', "s");
+                    addTranslitChar(chars, 'ᴠ', "v");
+                    addTranslitChar(chars, 'ꝭ', "is");
+                    addTranslitChar(chars, 'ᴏ', "o");
+                    addTranslitChar(chars, 'ɛ', "e");
+                    addTranslitChar(chars, 'ǻ', "a");
+                    addTranslitChar(chars, 'ﬄ', "ffl");
+                    addTranslitChar(chars, 'ⱺ', "o");
+                    addTranslitChar(chars, 'ȋ', "i");
+                    addTranslitChar(chars, 'ᵫ', "ue");
+                    addTranslitChar(chars, 'ȡ', "d");
+                    addTranslitChar(chars, 'ⱬ', "z");
+                    addTranslitChar(chars, 'ẁ', "w");
+                    addTranslitChar(chars, 'ᶏ', "a");
+                    addTranslitChar(chars, 'ꞇ', "t");
+                    addTranslitChar(chars, 'ğ', "g");
+                    addTranslitChar(chars, 'ɳ', "n");
+                    addTranslitChar(chars, 'ʛ', "g");
+                    addTranslitChar(chars, 'ᴜ', "u");
+                    addTranslitChar(chars, 'ф', "f");
+                    addTranslitChar(chars, 'ẩ', "a");
+                    addTranslitChar(chars, 'ṅ', "n");
+                    addTranslitChar(chars, 'ɨ', "i");
+                    addTranslitChar(chars, 'ᴙ', "r");
+                    addTranslitChar(chars, 'ǎ', "a");
+                    addTranslitChar(chars, 'ſ', "s");
+                    addTranslitChar(chars, 'у', "u");
+                    addTranslitChar(chars, 'ȫ', "o");
+                    addTranslitChar(chars, 'ɿ', "r");
+                    addTranslitChar(chars, 'ƭ', "t");
+                    addTranslitChar(chars, 'ḯ', "i");
+                    addTranslitChar(chars, 'ǽ', "ae");
+                    addTranslitChar(chars, 'ⱱ', "v");
+                    addTranslitChar(chars, 'ɶ', "oe");
+                    addTranslitChar(chars, 'ṃ', "m");
+                    addTranslitChar(chars, 'ż', "z");
+                    addTranslitChar(chars, 'ĕ', "e");
+                    addTranslitChar(chars, 'ꜻ', "av");
+                    addTranslitChar(chars, 'ở', "o");
+                    addTranslitChar(chars, 'ễ', "e");
+                    addTranslitChar(chars, 'ɬ', "l");
+                    addTranslitChar(chars, 'ị', "i");
+                    addTranslitChar(chars, 'ᵭ', "d");
+                    addTranslitChar(chars, 'ﬆ', "st");
+                    addTranslitChar(chars, 'ḷ', "l");
+                    addTranslitChar(chars, 'ŕ', "r");
+                    addTranslitChar(chars, 'ᴕ', "ou");
+                    addTranslitChar(chars, 'ʈ', "t");
+                    addTranslitChar(chars, 'ā', "a");
+                    addTranslitChar(chars, 'э', "e");
+                    addTranslitChar(chars, 'ḙ', "e");
+                    addTranslitChar(chars, 'ᴑ', "o");
+                    addTranslitChar(chars, 'ç', "c");
+                    addTranslitChar(chars, 'ᶊ', "s");
+                    addTranslitChar(chars, 'ặ', "a");
+                    addTranslitChar(chars, 'ų', "u");
+                    addTranslitChar(chars, 'ả', "a");
+                    addTranslitChar(chars, 'ǥ', "g");
+                    addTranslitChar(chars, 'р', "r");
+                    addTranslitChar(chars, 'ꝁ', "k");
+                    addTranslitChar(chars, 'ẕ', "z");
+                    addTranslitChar(chars, 'ŝ', "s");
+                    addTranslitChar(chars, 'ḕ', "e");
+                    addTranslitChar(chars, 'ɠ', "g");
+                    addTranslitChar(chars, 'ꝉ', "l");
+                    addTranslitChar(chars, 'ꝼ', "f");
+                    addTranslitChar(chars, 'ᶍ', "x");
+                    addTranslitChar(chars, 'х', "h");
+                    addTranslitChar(chars, 'ǒ', "o");
+                    addTranslitChar(chars, 'ę', "e");
+                    addTranslitChar(chars, 'ổ', "o");
+                    addTranslitChar(chars, 'ƫ', "t");
+                    addTranslitChar(chars, 'ǫ', "o");
+                    addTranslitChar(chars, 'ṇ', "n");
+                    addTranslitChar(chars, 'ć', "c");
+                    addTranslitChar(chars, 'ᵷ', "g");
+                    addTranslitChar(chars, 'ẅ', "w");
+                    addTranslitChar(chars, 'ḑ', "d");
+                    addTranslitChar(chars, 'ḹ', "l");
+                    addTranslitChar(chars, 'ч', "ch");
+                    addTranslitChar(chars, 'œ', "oe");
+                    addTranslitChar(chars, 'ᵳ', "r");
+                    addTranslitChar(chars, 'ļ', "l");
+                    addTranslitChar(chars, 'ȑ', "r");
+                    addTranslitChar(chars, 'ȭ', "o");
+                    addTranslitChar(chars, 'ᵰ', "n");
+                    addTranslitChar(chars, 'ᴁ', "ae");
+                    addTranslitChar(chars, 'ŀ', "l");
+                    addTranslitChar(chars, 'ä', "a");
+                    addTranslitChar(chars, 'ƥ', "p");
+                    addTranslitChar(chars, 'ỏ', "o");
+                    addTranslitChar(chars, 'į', "i");
+                    addTranslitChar(chars, 'ȓ', "r");
+                    addTranslitChar(chars, 'ǆ', "dz");
+                    addTranslitChar(chars, 'ḡ', "g");
+                    addTranslitChar(chars, 'ṻ', "u");
+                    addTranslitChar(chars, 'ō', "o");
+                    addTranslitChar(chars, 'ľ', "l");
+                    addTranslitChar(chars, 'ẃ', "w");
+                    addTranslitChar(chars, 'ț', "t");
+                    addTranslitChar(chars, 'ń', "n");
+                    addTranslitChar(chars, 'ɍ', "r");
+                    addTranslitChar(chars, 'ȃ', "a");
+                    addTranslitChar(chars, 'ü', "u");
+                    addTranslitChar(chars, 'ꞁ', "l");
+                    addTranslitChar(chars, 'ᴐ', "o");
+                    addTranslitChar(chars, 'ớ', "o");
+                    addTranslitChar(chars, 'ᴃ', "b");
+                    addTranslitChar(chars, 'ɹ', "r");
+                    addTranslitChar(chars, 'ᵲ', "r");
+                    addTranslitChar(chars, 'ʏ', "y");
+                    addTranslitChar(chars, 'ᵮ', "f");
+                    addTranslitChar(chars, 'ⱨ', "h");
+                    addTranslitChar(chars, 'ŏ', "o");
+                    addTranslitChar(chars, 'ú', "u");
+                    addTranslitChar(chars, 'ṛ', "r");
+                    addTranslitChar(chars, 'ʮ', "h");
+                    addTranslitChar(chars, 'ó', "o");
+                    addTranslitChar(chars, 'ů', "u");
+                    addTranslitChar(chars, 'ỡ', "o");
+                    addTranslitChar(chars, 'ṕ', "p");
+                    addTranslitChar(chars, 'ᶖ', "i");
+                    addTranslitChar(chars, 'ự', "u");
+                    addTranslitChar(chars, 'ã', "a");
+                    addTranslitChar(chars, 'ᵢ', "i");
+                    addTranslitChar(chars, 'ṱ', "t");
+                    addTranslitChar(chars, 'ể', "e");
+                    addTranslitChar(chars, 'ử', "u");
+                    addTranslitChar(chars, 'í', "i");
+                    addTranslitChar(chars, 'ɔ', "o");
+                    addTranslitChar(chars, 'с', "s");
+                    addTranslitChar(chars, 'й', "i");
+                    addTranslitChar(chars, 'ɺ', "r");
+                    addTranslitChar(chars, 'ɢ', "g");
+                    addTranslitChar(chars, 'ř', "r");
+                    addTranslitChar(chars, 'ẖ', "h");
+                    addTranslitChar(chars, 'ű', "u");
+                    addTranslitChar(chars, 'ȍ', "o");
+                    addTranslitChar(chars, 'ш', "sh");
+                    addTranslitChar(chars, 'ḻ', "l");
+                    addTranslitChar(chars, 'ḣ', "h");
+                    addTranslitChar(chars, 'ȶ', "t");
+                    addTranslitChar(chars, 'ņ', "n");
+                    addTranslitChar(chars, 'ᶒ', "e");
+                    addTranslitChar(chars, 'ì', "i");
+                    addTranslitChar(chars, 'ẉ', "w");
+                    addTranslitChar(chars, 'б', "b");
+                    addTranslitChar(chars, 'ē', "e");
+                    addTranslitChar(chars, 'ᴇ', "e");
+                    addTranslitChar(chars, 'ł', "l");
+                    addTranslitChar(chars, 'ộ', "o");
+                    addTranslitChar(chars, 'ɭ', "l");
+                    addTranslitChar(chars, 'ẏ', "y");
+                    addTranslitChar(chars, 'ᴊ', "j");
+                    addTranslitChar(chars, 'ḱ', "k");
+                    addTranslitChar(chars, 'ṿ', "v");
+                    addTranslitChar(chars, 'ȩ', "e");
+                    addTranslitChar(chars, 'â', "a");
+                    addTranslitChar(chars, 'ş', "s");
+                    addTranslitChar(chars, 'ŗ', "r");
+                    addTranslitChar(chars, 'ʋ', "v");
+                    addTranslitChar(chars, 'ₐ', "a");
+                    addTranslitChar(chars, 'ↄ', "c");
+                    addTranslitChar(chars, 'ᶓ', "e");
+                    addTranslitChar(chars, 'ɰ', "m");
+                    addTranslitChar(chars, 'е', "e");
+                    addTranslitChar(chars, 'ᴡ', "w");
+                    addTranslitChar(chars, 'ȏ', "o");
+                    addTranslitChar(chars, 'č', "c");
+                    addTranslitChar(chars, 'ǵ', "g");
+                    addTranslitChar(chars, 'ĉ', "c");
+                    addTranslitChar(chars, 'ю', "yu");
+                    addTranslitChar(chars, 'ᶗ', "o");
+                    addTranslitChar(chars, 'ꝃ', "k");
+                    addTranslitChar(chars, 'ꝙ', "q");
+                    addTranslitChar(chars, 'г', "g");
+                    addTranslitChar(chars, 'ṑ', "o");
+                    addTranslitChar(chars, 'ꜱ', "s");
+                    addTranslitChar(chars, 'ṓ', "o");
+                    addTranslitChar(chars, 'ȟ', "h");
+                    addTranslitChar(chars, 'ő', "o");
+                    addTranslitChar(chars, 'ꜩ', "tz");
+                    addTranslitChar(chars, 'ẻ', "e");
+                    addTranslitChar(chars, 'о', "o");
+                    translitChars = chars;
+                }
+            }
+        }
+        String[][] chars = translitChars;
+        StringBuilder dst = null;
         int len = src.length();
         for (int a = 0; a < len; a++) {
-            String ch = src.substring(a, a + 1);
-            String tch = translitChars.get(ch);
+            char ch = src.charAt(a);
+            String[] page = chars[ch >> 8];
+            String tch = page != null ? page[ch & 0xff] : null;
             if (tch != null) {
+                if (dst == null) {
+                    dst = new StringBuilder(len + 8);
+                    dst.append(src, 0, a);
+                }
                 dst.append(tch);
-            } else {
+            } else if (dst != null) {
                 dst.append(ch);
             }
         }
-        return dst.toString();
+        return dst != null ? dst.toString() : src;
     }
 
     abstract public static class PluralRules {
@@ -12,23 +12,61 @@ import android.graphics.drawable.BitmapDrawable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Static library version of {@link android.util.LruCache}. Used to write apps
- * that run on API levels prior to 12. When running on API level 12 or above,
- * this implementation is still used; it does not try to switch to the
- * framework's implementation. See the framework SDK documentation for a class
- * overview.
+ * Memory cache for decoded bitmaps, sized by {@link #sizeOf}. Lookups go through a
+ * {@link ConcurrentHashMap} and only mark the entry as referenced, so readers never wait
+ * for writers. Insertions and evictions take the cache lock and maintain a segmented LRU:
+ * new entries land in a probation segment, entries that were read again are promoted to
+ * a protected segment on their way out, so one pass over a long list of images can't flush
+ * the images that are actually shown over and over.
  */
 public class LruCache {
-    private final LinkedHashMap<String, BitmapDrawable> map;
-    private final LinkedHashMap<String, ArrayList<String>> mapFilters;
+
+    private static class Entry {
+        final String key;
+        final String baseKey;
+        final String filter;
+        final BitmapDrawable value;
+        final int size;
+        volatile boolean referenced;
+        boolean inProtected;
+        Entry prev;
+        Entry next;
+
+        Entry(String key, BitmapDrawable value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+            int index = key != null ? key.indexOf('@') : -1;
+            if (index != -1) {
+                int end = key.indexOf('@', index + 1);
+                baseKey = key.substring(0, index);
+                filter = end == -1 ? key.substring(index + 1) : key.substring(index + 1, end);
+            } else {
+                baseKey = null;
+                filter = null;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> map;
+    private final HashMap<String, LinkedHashSet<String>> mapFilters;
+    private final Entry probation = new Entry(null, null, 0);
+    private final Entry protectedEntries = new Entry(null, null, 0);
 
     /** Size of this cache in units. Not necessarily the number of elements. */
     private int size;
+    private int protectedSize;
     private int maxSize;
+    private int maxProtectedSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private long evictionCount;
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
@@ -40,42 +78,45 @@ public class LruCache {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<>(0, 0.75f, true);
-        this.mapFilters = new LinkedHashMap<>();
+        this.maxProtectedSize = (int) (maxSize * 0.8f);
+        this.map = new ConcurrentHashMap<>(64, 0.75f, 4);
+        this.mapFilters = new HashMap<>();
+        probation.prev = probation.next = probation;
+        protectedEntries.prev = protectedEntries.next = protectedEntries;
     }
 
     /**
-     * Returns the value for {@code key} if it exists in the cache or can be
-     * created by {@code #create}. If a value was returned, it is moved to the
-     * head of the queue. This returns null if a value is not cached and cannot
-     * be created.
+     * Returns the value for {@code key} if it exists in the cache, or null. Does not take the
+     * cache lock: the entry is only marked as used and gets reordered on the next eviction.
      */
     public final BitmapDrawable get(String key) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
 
-        BitmapDrawable mapValue;
-        synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                return mapValue;
-            }
+        Entry entry = map.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
         }
-        return null;
+        entry.referenced = true;
+        hitCount.incrementAndGet();
+        return entry.value;
     }
 
     public ArrayList<String> getFilterKeys(String key) {
-        ArrayList<String> arr = mapFilters.get(key);
-        if (arr != null) {
-            return new ArrayList<>(arr);
+        synchronized (this) {
+            LinkedHashSet<String> arr = mapFilters.get(key);
+            if (arr != null) {
+                return new ArrayList<>(arr);
+            }
         }
         return null;
     }
 
     /**
-     * Caches {@code value} for {@code key}. The value is moved to the head of
-     * the queue.
+     * Caches {@code value} for {@code key}. The value is placed at the head of the probation
+     * segment.
      *
      * @return the previous value mapped by {@code key}.
      */
@@ -84,33 +125,31 @@ public class LruCache {
             throw new NullPointerException("key == null || value == null");
         }
 
-        BitmapDrawable previous;
+        Entry previous;
         synchronized (this) {
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
+            Entry entry = new Entry(key, value, safeSizeOf(key, value));
+            previous = map.put(key, entry);
             if (previous != null) {
-                size -= safeSizeOf(key, previous);
-            }
-        }
-
-        String[] args = key.split("@");
-        if (args.length > 1) {
-            ArrayList<String> arr = mapFilters.get(args[0]);
-            if (arr == null) {
-                arr = new ArrayList<>();
-                mapFilters.put(args[0], arr);
+                removeEntry(previous);
             }
-            if (!arr.contains(args[1])) {
-                arr.add(args[1]);
+            linkLast(probation, entry);
+            size += entry.size;
+            if (entry.baseKey != null) {
+                LinkedHashSet<String> arr = mapFilters.get(entry.baseKey);
+                if (arr == null) {
+                    arr = new LinkedHashSet<>();
+                    mapFilters.put(entry.baseKey, arr);
+                }
+                arr.add(entry.filter);
             }
         }
 
         if (previous != null) {
-            entryRemoved(false, key, previous, value);
+            entryRemoved(false, key, previous.value, value);
         }
 
         trimToSize(maxSize, key);
-        return previous;
+        return previous != null ? previous.value : null;
     }
 
     /**
@@ -118,36 +157,103 @@ public class LruCache {
      *     to evict even 0-sized elements.
      */
     private void trimToSize(int maxSize, String justAdded) {
+        ArrayList<Entry> evicted = null;
         synchronized (this) {
-            Iterator<HashMap.Entry<String, BitmapDrawable>> iterator = map.entrySet().iterator();
-            while (iterator.hasNext()) {
-                if (size <= maxSize || map.isEmpty()) {
-                    break;
+            while (size > maxSize && !map.isEmpty()) {
+                Entry victim = findVictim(probation, justAdded, true);
+                if (victim == null) {
+                    victim = findVictim(protectedEntries, justAdded, false);
                 }
-                HashMap.Entry<String, BitmapDrawable> entry = iterator.next();
-
-                String key = entry.getKey();
-                if (justAdded != null && justAdded.equals(key)) {
-                    continue;
+                if (victim == null) {
+                    break;
                 }
-                BitmapDrawable value = entry.getValue();
-                size -= safeSizeOf(key, value);
-                iterator.remove();
-
-                String[] args = key.split("@");
-                if (args.length > 1) {
-                    ArrayList<String> arr = mapFilters.get(args[0]);
-                    if (arr != null) {
-                        arr.remove(args[1]);
-                        if (arr.isEmpty()) {
-                            mapFilters.remove(args[0]);
-                        }
-                    }
+                map.remove(victim.key);
+                removeEntry(victim);
+                evictionCount++;
+                if (evicted == null) {
+                    evicted = new ArrayList<>();
                 }
+                evicted.add(victim);
+            }
+        }
+        if (evicted != null) {
+            for (int a = 0; a < evicted.size(); a++) {
+                Entry entry = evicted.get(a);
+                entryRemoved(true, entry.key, entry.value, null);
+            }
+        }
+    }
 
-                entryRemoved(true, key, value, null);
+    private Entry findVictim(Entry segment, String justAdded, boolean promote) {
+        Entry entry = segment.next;
+        while (entry != segment) {
+            Entry next = entry.next;
+            if (justAdded != null && justAdded.equals(entry.key)) {
+                entry = next;
+                continue;
             }
+            if (promote && entry.referenced) {
+                entry.referenced = false;
+                promote(entry);
+                entry = next;
+                continue;
+            }
+            return entry;
         }
+        return null;
+    }
+
+    private void promote(Entry entry) {
+        unlink(entry);
+        linkLast(protectedEntries, entry);
+        entry.inProtected = true;
+        protectedSize += entry.size;
+        while (protectedSize > maxProtectedSize) {
+            Entry eldest = protectedEntries.next;
+            if (eldest == entry) {
+                break;
+            }
+            unlink(eldest);
+            if (eldest.referenced) {
+                eldest.referenced = false;
+                linkLast(protectedEntries, eldest);
+                continue;
+            }
+            eldest.inProtected = false;
+            protectedSize -= eldest.size;
+            linkLast(probation, eldest);
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        unlink(entry);
+        if (entry.inProtected) {
+            entry.inProtected = false;
+            protectedSize -= entry.size;
+        }
+        size -= entry.size;
+        if (entry.baseKey != null) {
+            LinkedHashSet<String> arr = mapFilters.get(entry.baseKey);
+            if (arr != null) {
+                arr.remove(entry.filter);
+                if (arr.isEmpty()) {
+                    mapFilters.remove(entry.baseKey);
+                }
+            }
+        }
+    }
+
+    private static void linkLast(Entry segment, Entry entry) {
+        entry.prev = segment.prev;
+        entry.next = segment;
+        segment.prev.next = entry;
+        segment.prev = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = entry.next = null;
     }
 
     /**
@@ -160,34 +266,23 @@ public class LruCache {
             throw new NullPointerException("key == null");
         }
 
-        BitmapDrawable previous;
+        Entry previous;
         synchronized (this) {
             previous = map.remove(key);
             if (previous != null) {
-                size -= safeSizeOf(key, previous);
+                removeEntry(previous);
             }
         }
 
         if (previous != null) {
-            String[] args = key.split("@");
-            if (args.length > 1) {
-                ArrayList<String> arr = mapFilters.get(args[0]);
-                if (arr != null) {
-                    arr.remove(args[1]);
-                    if (arr.isEmpty()) {
-                        mapFilters.remove(args[0]);
-                    }
-                }
-            }
-
-            entryRemoved(false, key, previous, null);
+            entryRemoved(false, key, previous.value, null);
+            return previous.value;
         }
-
-        return previous;
+        return null;
     }
-    
-    public boolean contains(String key){
-    	return map.containsKey(key);
+
+    public boolean contains(String key) {
+        return map.containsKey(key);
     }
 
     /**
@@ -250,4 +345,25 @@ public class LruCache {
     public synchronized final int maxSize() {
         return maxSize;
     }
+
+    public final long hitCount() {
+        return hitCount.get();
+    }
+
+    public final long missCount() {
+        return missCount.get();
+    }
+
+    public synchronized final long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the share of {@link #get} calls that found a value, from 0 to 1.
+     */
+    public final float hitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total != 0 ? (float) hits / total : 0;
+    }
 }
@@ -1038,7 +1038,7 @@ public class MediaController implements AudioManager.OnAudioFocusChangeListener,
                 FileLoader.getInstance().loadFile((TLRPC.PhotoSize) downloadObject.object, null, false);
             } else if (downloadObject.object instanceof TLRPC.Document) {
                 TLRPC.Document document = (TLRPC.Document) downloadObject.object;
-                FileLoader.getInstance().loadFile(document, false, false);
+                FileLoader.getInstance().loadFile(document, MessageObject.isVoiceDocument(document) || MessageObject.isStickerDocument(document) ? FileLoadScheduler.PRIORITY_AUTO : FileLoadScheduler.PRIORITY_BACKGROUND, false);
             } else {
                 added = false;
             }
@@ -2186,7 +2186,7 @@ public class MediaController implements AudioManager.OnAudioFocusChangeListener,
         final File cacheFile = file != null ? file : FileLoader.getPathToMessage(nextAudio.messageOwner);
         boolean exist = cacheFile != null && cacheFile.exists();
         if (cacheFile != null && cacheFile != file && !cacheFile.exists() && nextAudio.isMusic()) {
-            FileLoader.getInstance().loadFile(nextAudio.getDocument(), false, false);
+            FileLoader.getInstance().loadFile(nextAudio.getDocument(), FileLoadScheduler.PRIORITY_PREFETCH, false);
         }
     }
 
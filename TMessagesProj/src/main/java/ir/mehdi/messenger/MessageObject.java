@@ -81,6 +81,9 @@ public class MessageObject {
 
     private boolean layoutCreated;
     private int generatedWithMinSize;
+    private float generatedWithTextSize;
+    private int layoutGeneration;
+    private TextLayoutResult[] cachedTextLayouts;
 
     public static Pattern urlPattern;
 
@@ -97,6 +100,45 @@ public class MessageObject {
         }
     }
 
+    /**
+     * Text layouts of a message for one screen width and text size. The message keeps the last two
+     * that were built from a text copy, so turning the screen back and forth doesn't build them again.
+     */
+    public static class TextLayoutResult {
+        public ArrayList<TextLayoutBlock> blocks = new ArrayList<>();
+        public int textWidth;
+        public int textHeight;
+        public float textXOffset;
+        public int lastLineWidth;
+        public boolean hasRtl;
+        private int minSize;
+        private float textSize;
+        private CharSequence text;
+    }
+
+    /**
+     * A layout rebuild taken out of the UI thread. It lays out its own copy of the message text, with
+     * its own emoji spans, and its own paint, and only {@link #apply()} touches the message. The
+     * colors of that paint are set by the cell right before drawing.
+     */
+    public static class TextLayoutTask {
+        private MessageObject messageObject;
+        private CharSequence sourceText;
+        private CharSequence text;
+        private TextPaint paint;
+        private int maxWidth;
+        private int minSize;
+        private TextLayoutResult result;
+
+        public void build() {
+            result = buildTextLayout(text, paint, maxWidth);
+        }
+
+        public boolean apply() {
+            return messageObject.applyTextLayout(this);
+        }
+    }
+
     private static final int LINES_PER_BLOCK = 10;
 
     public ArrayList<TextLayoutBlock> textLayoutBlocks;
@@ -687,33 +729,50 @@ public class MessageObject {
         }
     }
 
-    public boolean checkLayout() {
+    /**
+     * Returns true if the text layout was not created yet or was created for another screen width
+     * or text size, without creating it.
+     */
+    public boolean isLayoutOutdated() {
         if (type != 0 || messageOwner.to_id == null || messageText == null || messageText.length() == 0) {
             return false;
         }
-        if (layoutCreated) {
-            int newMinSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
-            if (Math.abs(generatedWithMinSize - newMinSize) > AndroidUtilities.dp(52)) {
-                layoutCreated = false;
-            }
-        }
         if (!layoutCreated) {
-            layoutCreated = true;
-            TLRPC.User fromUser = null;
-            if (isFromUser()) {
-                fromUser = MessagesController.getInstance().getUser(messageOwner.from_id);
-            }
-            TextPaint paint;
-            if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
-                paint = Theme.chat_msgGameTextPaint;
-            } else {
-                paint = Theme.chat_msgTextPaint;
-            }
-            messageText = Emoji.replaceEmoji(messageText, paint.getFontMetricsInt(), AndroidUtilities.dp(20), false);
-            generateLayout(fromUser);
             return true;
         }
-        return false;
+        int newMinSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
+        if (Math.abs(generatedWithMinSize - newMinSize) > AndroidUtilities.dp(52)) {
+            return true;
+        }
+        TextPaint paint = messageOwner.media instanceof TLRPC.TL_messageMediaGame ? Theme.chat_msgGameTextPaint : Theme.chat_msgTextPaint;
+        return generatedWithTextSize != 0 && paint.getTextSize() != generatedWithTextSize;
+    }
+
+    public int getLayoutGeneration() {
+        return layoutGeneration;
+    }
+
+    public boolean checkLayout() {
+        if (!isLayoutOutdated()) {
+            return false;
+        }
+        if (layoutCreated && applyCachedTextLayout()) {
+            return true;
+        }
+        layoutCreated = true;
+        TLRPC.User fromUser = null;
+        if (isFromUser()) {
+            fromUser = MessagesController.getInstance().getUser(messageOwner.from_id);
+        }
+        TextPaint paint;
+        if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
+            paint = Theme.chat_msgGameTextPaint;
+        } else {
+            paint = Theme.chat_msgTextPaint;
+        }
+        messageText = Emoji.replaceEmoji(messageText, paint.getFontMetricsInt(), AndroidUtilities.dp(20), false);
+        generateLayout(fromUser);
+        return true;
     }
 
     public String getMimeType() {
@@ -1158,6 +1217,7 @@ public class MessageObject {
         generateLinkDescription();
         textLayoutBlocks = new ArrayList<>();
         textWidth = 0;
+        layoutGeneration++;
 
         boolean hasEntities;
         if (messageOwner.send_state != MESSAGE_SEND_STATE_SENT) {
@@ -1251,34 +1311,141 @@ public class MessageObject {
             }
         }
 
-        int maxWidth;
-        boolean needShare = messageOwner.from_id > 0 && (messageOwner.to_id.channel_id != 0 || messageOwner.to_id.chat_id != 0 || messageOwner.media instanceof TLRPC.TL_messageMediaGame || messageOwner.media instanceof TLRPC.TL_messageMediaInvoice) && !isOut();
         generatedWithMinSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
-        maxWidth = generatedWithMinSize - AndroidUtilities.dp(needShare ? 122 : 80);
+        TextPaint paint = getTextPaint();
+        generatedWithTextSize = paint.getTextSize();
+        cachedTextLayouts = null;
+        TextLayoutResult layout = buildTextLayout(messageText, paint, getTextMaxWidth(fromUser, generatedWithMinSize));
+        if (layout != null) {
+            setTextLayout(layout, false);
+        }
+    }
+
+    private TextPaint getTextPaint() {
+        if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
+            return Theme.chat_msgGameTextPaint;
+        } else {
+            return Theme.chat_msgTextPaint;
+        }
+    }
+
+    private int getTextMaxWidth(TLRPC.User fromUser, int minSize) {
+        boolean needShare = messageOwner.from_id > 0 && (messageOwner.to_id.channel_id != 0 || messageOwner.to_id.chat_id != 0 || messageOwner.media instanceof TLRPC.TL_messageMediaGame || messageOwner.media instanceof TLRPC.TL_messageMediaInvoice) && !isOut();
+        int maxWidth = minSize - AndroidUtilities.dp(needShare ? 122 : 80);
         if (fromUser != null && fromUser.bot || (isMegagroup() || messageOwner.fwd_from != null && messageOwner.fwd_from.channel_id != 0) && !isOut()) {
             maxWidth -= AndroidUtilities.dp(20);
         }
         if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
             maxWidth -= AndroidUtilities.dp(10);
         }
+        return maxWidth;
+    }
+
+    // only layouts of a private text copy are cached: the spans of messageText change when emoji are resized
+    private void setTextLayout(TextLayoutResult layout, boolean cache) {
+        layout.minSize = generatedWithMinSize;
+        layout.textSize = generatedWithTextSize;
+        layout.text = messageText;
+        textLayoutBlocks = layout.blocks;
+        textWidth = layout.textWidth;
+        textHeight = layout.textHeight;
+        textXOffset = layout.textXOffset;
+        lastLineWidth = layout.lastLineWidth;
+        hasRtl = layout.hasRtl;
+        if (!cache) {
+            return;
+        }
+        if (cachedTextLayouts == null) {
+            cachedTextLayouts = new TextLayoutResult[2];
+        } else if (cachedTextLayouts[0] != null && cachedTextLayouts[0] != layout) {
+            cachedTextLayouts[1] = cachedTextLayouts[0];
+        }
+        cachedTextLayouts[0] = layout;
+    }
 
-        StaticLayout textLayout;
+    private boolean applyCachedTextLayout() {
+        if (cachedTextLayouts == null) {
+            return false;
+        }
+        int minSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
+        float textSize = getTextPaint().getTextSize();
+        for (int a = 0; a < cachedTextLayouts.length; a++) {
+            TextLayoutResult layout = cachedTextLayouts[a];
+            if (layout != null && layout.minSize == minSize && layout.textSize == textSize && layout.text == messageText) {
+                generatedWithMinSize = minSize;
+                generatedWithTextSize = textSize;
+                layoutGeneration++;
+                setTextLayout(layout, true);
+                return true;
+            }
+        }
+        return false;
+    }
 
-        TextPaint paint;
-        if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
-            paint = Theme.chat_msgGameTextPaint;
-        } else {
-            paint = Theme.chat_msgTextPaint;
+    /**
+     * Rebuilds an outdated text layout without touching the spans of the message text. Returns null
+     * if there is nothing to build here: the layout is up to date, was taken from the cache, or was
+     * never created, in which case {@link #checkLayout()} has to set up the spans first. Called on
+     * the UI thread; the returned task can be built on any thread and applied back on the UI thread.
+     */
+    public TextLayoutTask prepareTextLayout() {
+        if (!layoutCreated || !isLayoutOutdated() || applyCachedTextLayout()) {
+            return null;
+        }
+        TextPaint paint = getTextPaint();
+        int minSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
+        TLRPC.User fromUser = null;
+        if (isFromUser()) {
+            fromUser = MessagesController.getInstance().getUser(messageOwner.from_id);
         }
+        messageText = Emoji.replaceEmoji(messageText, paint.getFontMetricsInt(), AndroidUtilities.dp(20), false);
+        TextLayoutTask task = new TextLayoutTask();
+        task.messageObject = this;
+        task.sourceText = messageText;
+        SpannableString text = new SpannableString(messageText);
+        Emoji.EmojiSpan[] spans = text.getSpans(0, text.length(), Emoji.EmojiSpan.class);
+        for (int a = 0; a < spans.length; a++) {
+            int start = text.getSpanStart(spans[a]);
+            int end = text.getSpanEnd(spans[a]);
+            int flags = text.getSpanFlags(spans[a]);
+            text.removeSpan(spans[a]);
+            text.setSpan(spans[a].copy(), start, end, flags);
+        }
+        task.text = text;
+        task.paint = new TextPaint(paint);
+        task.maxWidth = getTextMaxWidth(fromUser, minSize);
+        task.minSize = minSize;
+        return task;
+    }
+
+    private boolean applyTextLayout(TextLayoutTask task) {
+        if (task.result == null || task.sourceText != messageText || !isLayoutOutdated()) {
+            return false;
+        }
+        TextPaint paint = getTextPaint();
+        int minSize = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : AndroidUtilities.displaySize.x;
+        if (task.minSize != minSize || task.paint.getTextSize() != paint.getTextSize()) {
+            return false;
+        }
+        generatedWithMinSize = minSize;
+        generatedWithTextSize = paint.getTextSize();
+        layoutGeneration++;
+        setTextLayout(task.result, true);
+        return true;
+    }
+
+    private static TextLayoutResult buildTextLayout(CharSequence text, TextPaint paint, int maxWidth) {
+        TextLayoutResult result = new TextLayoutResult();
+        StaticLayout textLayout;
 
         try {
-            textLayout = new StaticLayout(messageText, paint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+            textLayout = new StaticLayout(text, paint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
         } catch (Exception e) {
             FileLog.e(e);
-            return;
+            return null;
         }
 
-        textHeight = textLayout.getHeight();
+        result.textHeight = textLayout.getHeight();
         int linesCount = textLayout.getLineCount();
 
         int blocksCount = (int) Math.ceil((float) linesCount / LINES_PER_BLOCK);
@@ -1293,7 +1460,7 @@ public class MessageObject {
                 block.textLayout = textLayout;
                 block.textYOffset = 0;
                 block.charactersOffset = 0;
-                block.height = textHeight;
+                block.height = result.textHeight;
             } else {
                 int startCharacter = textLayout.getLineStart(linesOffset);
                 int endCharacter = textLayout.getLineEnd(linesOffset + currentBlockLinesCount - 1);
@@ -1303,7 +1470,7 @@ public class MessageObject {
                 block.charactersOffset = startCharacter;
                 block.charactersEnd = endCharacter;
                 try {
-                    block.textLayout = new StaticLayout(messageText, startCharacter, endCharacter, paint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+                    block.textLayout = new StaticLayout(text, startCharacter, endCharacter, paint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
                     block.textYOffset = textLayout.getLineTop(linesOffset);
                     if (a != 0) {
                         block.height = (int) (block.textYOffset - prevOffset);
@@ -1317,25 +1484,25 @@ public class MessageObject {
                 if (a == blocksCount - 1) {
                     currentBlockLinesCount = Math.max(currentBlockLinesCount, block.textLayout.getLineCount());
                     try {
-                        textHeight = Math.max(textHeight, (int) (block.textYOffset + block.textLayout.getHeight()));
+                        result.textHeight = Math.max(result.textHeight, (int) (block.textYOffset + block.textLayout.getHeight()));
                     } catch (Exception e) {
                         FileLog.e(e);
                     }
                 }
             }
 
-            textLayoutBlocks.add(block);
+            result.blocks.add(block);
 
             float lastLeft;
             try {
                 lastLeft = block.textLayout.getLineLeft(currentBlockLinesCount - 1);
                 if (a == 0) {
-                    textXOffset = lastLeft;
+                    result.textXOffset = lastLeft;
                 }
             } catch (Exception e) {
                 lastLeft = 0;
                 if (a == 0) {
-                    textXOffset = 0;
+                    result.textXOffset = 0;
                 }
                 FileLog.e(e);
             }
@@ -1353,7 +1520,7 @@ public class MessageObject {
             int linesMaxWidthWithLeft;
 
             if (a == blocksCount - 1) {
-                lastLineWidth = linesMaxWidth;
+                result.lastLineWidth = linesMaxWidth;
             }
 
             linesMaxWidthWithLeft = lastLineWidthWithLeft = (int) Math.ceil(lastLine + lastLeft);
@@ -1381,9 +1548,9 @@ public class MessageObject {
                     }
 
                     if (lineLeft > 0) {
-                        textXOffset = Math.min(textXOffset, lineLeft);
+                        result.textXOffset = Math.min(result.textXOffset, lineLeft);
                         block.directionFlags |= 1;
-                        hasRtl = true;
+                        result.hasRtl = true;
                     } else {
                         block.directionFlags |= 2;
                     }
@@ -1404,26 +1571,27 @@ public class MessageObject {
                 if (hasNonRTL) {
                     textRealMaxWidth = textRealMaxWidthWithLeft;
                     if (a == blocksCount - 1) {
-                        lastLineWidth = lastLineWidthWithLeft;
+                        result.lastLineWidth = lastLineWidthWithLeft;
                     }
                 } else if (a == blocksCount - 1) {
-                    lastLineWidth = linesMaxWidth;
+                    result.lastLineWidth = linesMaxWidth;
                 }
-                textWidth = Math.max(textWidth, (int) Math.ceil(textRealMaxWidth));
+                result.textWidth = Math.max(result.textWidth, (int) Math.ceil(textRealMaxWidth));
             } else {
                 if (lastLeft > 0) {
-                    textXOffset = Math.min(textXOffset, lastLeft);
-                    hasRtl = blocksCount != 1;
+                    result.textXOffset = Math.min(result.textXOffset, lastLeft);
+                    result.hasRtl = blocksCount != 1;
                     block.directionFlags |= 1;
                 } else {
                     block.directionFlags |= 2;
                 }
 
-                textWidth = Math.max(textWidth, Math.min(maxWidth, linesMaxWidth));
+                result.textWidth = Math.max(result.textWidth, Math.min(maxWidth, linesMaxWidth));
             }
 
             linesOffset += currentBlockLinesCount;
         }
+        return result;
     }
 
     public boolean isOut() {
@@ -18,9 +18,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ir.mehdi.telegraf.FavoriteController;
 import ir.mehdi.telegraf.Setting;
@@ -69,38 +71,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		@Override
 		public int compare(TLRPC.TL_dialog dialog1, TLRPC.TL_dialog dialog2)
 		{
-			if (!dialog1.pinned && dialog2.pinned)
+			if (dialog1.sortKey < dialog2.sortKey)
 			{
 				return 1;
 			}
-			else if (dialog1.pinned && !dialog2.pinned)
-			{
-				return -1;
-			}
-			else if (dialog1.pinned && dialog2.pinned)
-			{
-				if (dialog1.pinnedNum < dialog2.pinnedNum)
-				{
-					return 1;
-				}
-				else if (dialog1.pinnedNum > dialog2.pinnedNum)
-				{
-					return -1;
-				}
-				else
-				{
-					return 0;
-				}
-			}
-			TLRPC.DraftMessage draftMessage = DraftQuery.getDraft(dialog1.id);
-			int                date1        = draftMessage != null && draftMessage.date >= dialog1.last_message_date ? draftMessage.date : dialog1.last_message_date;
-			draftMessage = DraftQuery.getDraft(dialog2.id);
-			int date2 = draftMessage != null && draftMessage.date >= dialog2.last_message_date ? draftMessage.date : dialog2.last_message_date;
-			if (date1 < date2)
-			{
-				return 1;
-			}
-			else if (date1 > date2)
+			else if (dialog1.sortKey > dialog2.sortKey)
 			{
 				return -1;
 			}
@@ -195,12 +170,148 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 	public  int                                             callConnectTimeout     = 30000;
 	public  int                                             callPacketTimeout      = 10000;
 	public  int                                             maxPinnedDialogsCount  = 5;
-	private ConcurrentHashMap<Integer, TLRPC.Chat>          chats                  = new ConcurrentHashMap<>(100, 1.0f, 2);
+	private static final int                                maxCachedUsersCount    = 20000;
+	private static final int                                maxCachedChatsCount    = 5000;
+	private PeerCache<TLRPC.Chat>                           chats                  = new PeerCache<TLRPC.Chat>(maxCachedChatsCount)
+	{
+		@Override
+		protected void load(final int id)
+		{
+			if (Thread.currentThread() == MessagesStorage.getInstance().getStorageQueue())
+			{
+				loadChat(id);
+				return;
+			}
+			MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (loadChat(id))
+					{
+						notifyPeersLoaded(UPDATE_MASK_CHAT_NAME | UPDATE_MASK_CHAT_AVATAR);
+					}
+				}
+			});
+		}
+
+		private boolean loadChat(int id)
+		{
+			TLRPC.Chat chat = MessagesStorage.getInstance().getChat(id);
+			if (chat == null)
+			{
+				loadFailed(id);
+				return false;
+			}
+			putChat(chat, true);
+			return true;
+		}
+
+		@Override
+		protected int getSize(TLRPC.Chat chat)
+		{
+			return estimatePeerSize(chat.title, chat.username, null);
+		}
+
+		@Override
+		protected boolean canEvict(int id, TLRPC.Chat chat)
+		{
+			return !dialogs_dict.containsKey((long) -id);
+		}
+	};
 	private ConcurrentHashMap<Integer, TLRPC.EncryptedChat> encryptedChats         = new ConcurrentHashMap<>(10, 1.0f, 2);
-	private ConcurrentHashMap<Integer, TLRPC.User>          users                  = new ConcurrentHashMap<>(100, 1.0f, 2);
+	private PeerCache<TLRPC.User>                           users                  = new PeerCache<TLRPC.User>(maxCachedUsersCount)
+	{
+		@Override
+		protected void load(final int id)
+		{
+			if (Thread.currentThread() == MessagesStorage.getInstance().getStorageQueue())
+			{
+				loadUser(id);
+				return;
+			}
+			MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (loadUser(id))
+					{
+						notifyPeersLoaded(UPDATE_MASK_NAME | UPDATE_MASK_AVATAR);
+					}
+				}
+			});
+		}
+
+		private boolean loadUser(int id)
+		{
+			TLRPC.User user = MessagesStorage.getInstance().getUser(id);
+			if (user == null)
+			{
+				loadFailed(id);
+				return false;
+			}
+			putUser(user, true);
+			return true;
+		}
+
+		@Override
+		protected int getSize(TLRPC.User user)
+		{
+			return estimatePeerSize(user.first_name, user.last_name, user.username);
+		}
+
+		@Override
+		protected boolean canEvict(int id, TLRPC.User user)
+		{
+			return id != UserConfig.getClientUserId() && id != 777000 && !dialogs_dict.containsKey((long) id);
+		}
+
+		@Override
+		protected void onEvicted(TLRPC.User user)
+		{
+			if (!TextUtils.isEmpty(user.username))
+			{
+				usersByUsernames.remove(user.username.toLowerCase(), user);
+			}
+		}
+	};
 	private ConcurrentHashMap<String, TLRPC.User>           usersByUsernames       = new ConcurrentHashMap<>(100, 1.0f, 2);
 	private ArrayList<Integer>                              joiningToChannels      = new ArrayList<>();
 	private HashMap<Integer, TLRPC.ExportedChatInvite>      exportedChats          = new HashMap<>();
+	private ReadStateAggregator                             readStateAggregator    = new ReadStateAggregator();
+	private AtomicInteger                                   loadedPeersMask        = new AtomicInteger();
+	private Runnable                                        notifyPeersLoadedRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, loadedPeersMask.getAndSet(0));
+		}
+	};
+	private HashSet<Long>                                   dialogsToRefilter      = new HashSet<>();
+	private Runnable                                        refilterDialogsRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			ArrayList<Long> dids;
+			synchronized (dialogsToRefilter)
+			{
+				dids = new ArrayList<>(dialogsToRefilter);
+				dialogsToRefilter.clear();
+			}
+			for (int a = 0; a < dids.size(); a++)
+			{
+				TLRPC.TL_dialog dialog = dialogs_dict.get(dids.get(a));
+				if (dialog != null)
+				{
+					updateDialogFilters(dialog);
+				}
+			}
+			refreshDialogsList();
+		}
+	};
 	private int lastPrintingStringCount;
 	private HashMap<Long, Boolean>          loadingPeerSettings   = new HashMap<>();
 	private ArrayList<Long>                 createdDialogIds      = new ArrayList<>();
@@ -870,6 +981,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
 	public void cleanup()
 	{
+		readStateAggregator.clear();
 		ContactsController.getInstance().cleanup();
 		MediaController.getInstance().cleanup();
 		NotificationsController.getInstance().cleanup();
@@ -992,9 +1104,19 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		return usersByUsernames.get(username.toLowerCase());
 	}
 
-	public ConcurrentHashMap<Integer, TLRPC.User> getUsers()
+	public int getCachedUsersCount()
+	{
+		return users.getResidentCount();
+	}
+
+	public int getCachedChatsCount()
+	{
+		return chats.getResidentCount();
+	}
+
+	public long getCachedPeersSize()
 	{
-		return users;
+		return users.getEstimatedSize() + chats.getEstimatedSize();
 	}
 
 	public TLRPC.Chat getChat(Integer id)
@@ -1002,6 +1124,86 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		return chats.get(id);
 	}
 
+	// a rough weight for the cache statistics, serializing every peer on put would cost more than it tells
+	private static int estimatePeerSize(String name1, String name2, String name3)
+	{
+		int size = 96;
+		if (name1 != null)
+		{
+			size += name1.length() * 2;
+		}
+		if (name2 != null)
+		{
+			size += name2.length() * 2;
+		}
+		if (name3 != null)
+		{
+			size += name3.length() * 2;
+		}
+		return size;
+	}
+
+	/**
+	 * Keeps a contact in the users cache. Contacts are listed without asking the cache first, so they
+	 * must not be dropped from it; one that already was is loaded back.
+	 */
+	public void setUserPinned(int id, boolean pinned)
+	{
+		users.setPinned(id, pinned);
+		if (pinned && users.peek(id) == null)
+		{
+			users.get(id);
+		}
+	}
+
+	// a min user or chat only carries some fields, so for a dropped id the full record is loaded first and the min fields are merged into it
+	private void putMinPeerAfterLoad(final TLObject peer, final boolean fromCache)
+	{
+		Runnable runnable = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (peer instanceof TLRPC.User)
+				{
+					TLRPC.User user     = (TLRPC.User) peer;
+					TLRPC.User fullUser = MessagesStorage.getInstance().getUser(user.id);
+					if (fullUser != null)
+					{
+						putUser(fullUser, true);
+					}
+					else
+					{
+						users.loadFailed(user.id);
+					}
+					putUser(user, fromCache);
+				}
+				else
+				{
+					TLRPC.Chat chat     = (TLRPC.Chat) peer;
+					TLRPC.Chat fullChat = MessagesStorage.getInstance().getChat(chat.id);
+					if (fullChat != null)
+					{
+						putChat(fullChat, true);
+					}
+					else
+					{
+						chats.loadFailed(chat.id);
+					}
+					putChat(chat, fromCache);
+				}
+			}
+		};
+		if (Thread.currentThread() == MessagesStorage.getInstance().getStorageQueue())
+		{
+			runnable.run();
+		}
+		else
+		{
+			MessagesStorage.getInstance().getStorageQueue().postRunnable(runnable);
+		}
+	}
+
 	public TLRPC.EncryptedChat getEncryptedChat(Integer id)
 	{
 		return encryptedChats.get(id);
@@ -1064,7 +1266,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 			return false;
 		}
 		fromCache = fromCache && user.id / 1000 != 333 && user.id != 777000;
-		TLRPC.User oldUser = users.get(user.id);
+		TLRPC.User oldUser       = users.peek(user.id);
+		boolean    wasBot        = oldUser != null && oldUser.bot;
+		boolean    statusChanged = false;
 		if (oldUser != null && !TextUtils.isEmpty(oldUser.username))
 		{
 			usersByUsernames.remove(oldUser.username.toLowerCase());
@@ -1101,6 +1305,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 					}
 				}
 			}
+			else if (users.isEvicted(user.id))
+			{
+				putMinPeerAfterLoad(user, fromCache);
+			}
 			else
 			{
 				users.put(user.id, user);
@@ -1118,7 +1326,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				}
 				if (oldUser != null && user.status != null && oldUser.status != null && user.status.expires != oldUser.status.expires)
 				{
-					return true;
+					statusChanged = true;
 				}
 			}
 			else if (oldUser == null)
@@ -1151,7 +1359,12 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				users.put(user.id, user);
 			}
 		}
-		return false;
+		TLRPC.User newUser = users.peek(user.id);
+		if (newUser != null && newUser.bot != wasBot && dialogs_dict.containsKey((long) user.id))
+		{
+			updateDialogFiltersLater(user.id);
+		}
+		return statusChanged;
 	}
 
 	public void putUsers(ArrayList<TLRPC.User> users, boolean fromCache)
@@ -1183,13 +1396,28 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		}
 	}
 
+	// users and chats that were dropped from the cache come back one by one, so their updates are merged into one post
+	private void notifyPeersLoaded(int mask)
+	{
+		int oldMask;
+		do
+		{
+			oldMask = loadedPeersMask.get();
+		} while (!loadedPeersMask.compareAndSet(oldMask, oldMask | mask));
+		if (oldMask == 0)
+		{
+			AndroidUtilities.runOnUIThread(notifyPeersLoadedRunnable);
+		}
+	}
+
 	public void putChat(TLRPC.Chat chat, boolean fromCache)
 	{
 		if (chat == null)
 		{
 			return;
 		}
-		TLRPC.Chat oldChat = chats.get(chat.id);
+		TLRPC.Chat oldChat     = chats.peek(chat.id);
+		int        filterFlags = getChatFilterFlags(oldChat);
 
 		if (chat.min)
 		{
@@ -1215,6 +1443,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 					}
 				}
 			}
+			else if (chats.isEvicted(chat.id))
+			{
+				putMinPeerAfterLoad(chat, fromCache);
+			}
 			else
 			{
 				chats.put(chat.id, chat);
@@ -1256,6 +1488,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				chats.put(chat.id, chat);
 			}
 		}
+		if (getChatFilterFlags(chats.peek(chat.id)) != filterFlags && dialogs_dict.containsKey((long) -chat.id))
+		{
+			updateDialogFiltersLater(-chat.id);
+		}
 	}
 
 	public void putChats(ArrayList<TLRPC.Chat> chats, boolean fromCache)
@@ -2762,6 +2998,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				else
 				{
 					dialog.unread_count = 0;
+					updateDialogFilters(dialog);
 				}
 				int           lastMessageId;
 				MessageObject object = dialogMessage.remove(dialog.id);
@@ -4599,7 +4836,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		SharedPreferences        preferences   = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE);
 		int                      currentValue  = preferences.getInt("notify2_" + dialog_id, 0);
 		int                      currentValue2 = preferences.getInt("notifyuntil_" + dialog_id, 0);
-		SharedPreferences.Editor editor        = preferences.edit();
+		SharedPreferences.Editor editor        = NotificationsSettingsStore.getInstance().edit();
 		boolean                  updated       = false;
 		TLRPC.TL_dialog          dialog        = dialogs_dict.get(dialog_id);
 		if (dialog != null)
@@ -4669,8 +4906,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 			{
 				if (editor == null)
 				{
-					SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE);
-					editor = preferences.edit();
+					editor = NotificationsSettingsStore.getInstance().edit();
 				}
 				int dialog_id;
 				if (dialog.peer.user_id != 0)
@@ -4711,6 +4947,68 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		}
 	}
 
+	public void processReadStateUpdates(SparseArray<Long> inbox, SparseArray<Long> outbox, HashMap<Integer, Integer> encrypted)
+	{
+		int updateMask = 0;
+		if (inbox.size() != 0 || outbox.size() != 0)
+		{
+			NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesRead, inbox, outbox);
+			NotificationsController.getInstance().processReadMessages(inbox, 0, 0, 0, false);
+			for (int b = 0; b < inbox.size(); b++)
+			{
+				int             key       = inbox.keyAt(b);
+				int             messageId = (int) ((long) inbox.get(key));
+				TLRPC.TL_dialog dialog    = dialogs_dict.get((long) key);
+				if (dialog != null && dialog.top_message <= messageId)
+				{
+					MessageObject obj = dialogMessage.get(dialog.id);
+					if (obj != null && !obj.isOut())
+					{
+						obj.setIsRead();
+						updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
+					}
+				}
+			}
+			for (int b = 0; b < outbox.size(); b++)
+			{
+				int             key       = outbox.keyAt(b);
+				int             messageId = (int) ((long) outbox.get(key));
+				TLRPC.TL_dialog dialog    = dialogs_dict.get((long) key);
+				if (dialog != null && dialog.top_message <= messageId)
+				{
+					MessageObject obj = dialogMessage.get(dialog.id);
+					if (obj != null && obj.isOut())
+					{
+						obj.setIsRead();
+						updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
+					}
+				}
+			}
+		}
+		if (!encrypted.isEmpty())
+		{
+			for (HashMap.Entry<Integer, Integer> entry : encrypted.entrySet())
+			{
+				NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesReadEncrypted, entry.getKey(), entry.getValue());
+				long            dialog_id = (long) (entry.getKey()) << 32;
+				TLRPC.TL_dialog dialog    = dialogs_dict.get(dialog_id);
+				if (dialog != null)
+				{
+					MessageObject message = dialogMessage.get(dialog_id);
+					if (message != null && message.messageOwner.date <= entry.getValue())
+					{
+						message.setIsRead();
+						updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
+					}
+				}
+			}
+		}
+		if (updateMask != 0)
+		{
+			NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, updateMask);
+		}
+	}
+
 	public void processDialogsUpdateRead(final HashMap<Long, Integer> dialogsToUpdate)
 	{
 		AndroidUtilities.runOnUIThread(new Runnable()
@@ -4724,8 +5022,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 					if (currentDialog != null)
 					{
 						currentDialog.unread_count = entry.getValue();
+						updateDialogFilters(currentDialog);
 					}
 				}
+				refreshDialogsList();
 				NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
 				NotificationsController.getInstance().processDialogsUpdateRead(dialogsToUpdate);
 			}
@@ -5206,6 +5506,8 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 							if (dialog != null)
 							{
 								dialog.unread_count = 0;
+								updateDialogFilters(dialog);
+								refreshDialogsList();
 								NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
 							}
 							if (!popup)
@@ -5287,6 +5589,8 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 							if (dialog != null)
 							{
 								dialog.unread_count = 0;
+								updateDialogFilters(dialog);
+								refreshDialogsList();
 								NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
 							}
 							HashMap<Long, Integer> dialogsToUpdate = new HashMap<>();
@@ -5352,7 +5656,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 			newMsg.random_id = 0;
 			newMsg.flags |= TLRPC.MESSAGE_FLAG_HAS_FROM_ID;
 			UserConfig.saveConfig(false);
-			MessageObject newMsgObj = new MessageObject(newMsg, users, true);
+			MessageObject newMsgObj = new MessageObject(newMsg, null, true);
 			newMsgObj.messageOwner.send_state = MessageObject.MESSAGE_SEND_STATE_SENT;
 
 			ArrayList<MessageObject> objArr = new ArrayList<>();
@@ -6174,6 +6478,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 	{
 		SharedPreferences.Editor editor = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE).edit();
 		editor.clear().commit();
+		NotificationsSettingsStore.getInstance().reload();
 		editor = ApplicationLoader.applicationContext.getSharedPreferences("emoji", Activity.MODE_PRIVATE).edit();
 		editor.putLong("lastGifLoadTime", 0).putLong("lastStickersLoadTime", 0).commit();
 		editor = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE).edit();
@@ -6914,12 +7219,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 												@Override
 												public void run()
 												{
-													for (HashMap.Entry<Long, ArrayList<MessageObject>> pair : messages.entrySet())
-													{
-														Long                     key   = pair.getKey();
-														ArrayList<MessageObject> value = pair.getValue();
-														updateInterfaceWithMessages(key, value);
-													}
+													updateInterfaceWithMessages(messages);
 													NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
 												}
 											});
@@ -7259,12 +7559,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 											@Override
 											public void run()
 											{
-												for (HashMap.Entry<Long, ArrayList<MessageObject>> pair : messages.entrySet())
-												{
-													Long                     key   = pair.getKey();
-													ArrayList<MessageObject> value = pair.getValue();
-													updateInterfaceWithMessages(key, value);
-												}
+												updateInterfaceWithMessages(messages);
 												NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
 											}
 										});
@@ -7388,11 +7683,12 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		{
 			dialog.pinnedNum = 0;
 		}
-		sortDialogs(null);
+		updateDialogPosition(dialog);
 		if (!pin && dialogs.get(dialogs.size() - 1) == dialog)
 		{
 			dialogs.remove(dialogs.size() - 1);
 		}
+		refreshDialogsList();
 		NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
 		if (lower_id != 0)
 		{
@@ -8623,7 +8919,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		else
 		{
 			checkForUsers = false;
-			usersDict = users;
+			usersDict = new ConcurrentHashMap<>();
 		}
 		if (chatsArr != null)
 		{
@@ -8637,7 +8933,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		else
 		{
 			checkForUsers = false;
-			chatsDict = chats;
+			chatsDict = new ConcurrentHashMap<>();
 		}
 		if (fromGetDifference)
 		{
@@ -8782,6 +9078,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				if (message.action instanceof TLRPC.TL_messageActionChatDeleteUser)
 				{
 					TLRPC.User user = usersDict.get(message.action.user_id);
+					if (user == null && usersArr == null)
+					{
+						user = getUser(message.action.user_id);
+					}
 					if (user != null && user.bot)
 					{
 						message.reply_markup = new TLRPC.TL_replyKeyboardHide();
@@ -9000,7 +9300,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 			}
 			else if (update instanceof TLRPC.TL_updateContactRegistered)
 			{
-				if (enableJoined && usersDict.containsKey(update.user_id) && !MessagesStorage.getInstance().isDialogHasMessages(update.user_id))
+				if (enableJoined && (usersArr != null ? usersDict.containsKey(update.user_id) : getUser(update.user_id) != null) && !MessagesStorage.getInstance().isDialogHasMessages(update.user_id))
 				{
 					TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
 					newMessage.action = new TLRPC.TL_messageActionUserJoined();
@@ -9764,8 +10064,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 							{
 								if (editor == null)
 								{
-									SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE);
-									editor = preferences.edit();
+									editor = NotificationsSettingsStore.getInstance().edit();
 								}
 								long dialog_id;
 								if (updateNotifySettings.peer.peer.user_id != 0)
@@ -10019,12 +10318,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				boolean updateDialogs = false;
 				if (!messages.isEmpty())
 				{
-					for (HashMap.Entry<Long, ArrayList<MessageObject>> entry : messages.entrySet())
-					{
-						Long                     key   = entry.getKey();
-						ArrayList<MessageObject> value = entry.getValue();
-						updateInterfaceWithMessages(key, value);
-					}
+					updateInterfaceWithMessages(messages);
 					updateDialogs = true;
 				}
 				else if (hasDraftUpdates)
@@ -10104,59 +10398,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 					public void run()
 					{
 						int updateMask = 0;
-						if (markAsReadMessagesInbox.size() != 0 || markAsReadMessagesOutbox.size() != 0)
-						{
-							NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesRead, markAsReadMessagesInbox, markAsReadMessagesOutbox);
-							NotificationsController.getInstance().processReadMessages(markAsReadMessagesInbox, 0, 0, 0, false);
-							for (int b = 0; b < markAsReadMessagesInbox.size(); b++)
-							{
-								int             key       = markAsReadMessagesInbox.keyAt(b);
-								int             messageId = (int) ((long) markAsReadMessagesInbox.get(key));
-								TLRPC.TL_dialog dialog    = dialogs_dict.get((long) key);
-								if (dialog != null && dialog.top_message <= messageId)
-								{
-									MessageObject obj = dialogMessage.get(dialog.id);
-									if (obj != null && !obj.isOut())
-									{
-										obj.setIsRead();
-										updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
-									}
-								}
-							}
-							for (int b = 0; b < markAsReadMessagesOutbox.size(); b++)
-							{
-								int             key       = markAsReadMessagesOutbox.keyAt(b);
-								int             messageId = (int) ((long) markAsReadMessagesOutbox.get(key));
-								TLRPC.TL_dialog dialog    = dialogs_dict.get((long) key);
-								if (dialog != null && dialog.top_message <= messageId)
-								{
-									MessageObject obj = dialogMessage.get(dialog.id);
-									if (obj != null && obj.isOut())
-									{
-										obj.setIsRead();
-										updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
-									}
-								}
-							}
-						}
-						if (!markAsReadEncrypted.isEmpty())
-						{
-							for (HashMap.Entry<Integer, Integer> entry : markAsReadEncrypted.entrySet())
-							{
-								NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesReadEncrypted, entry.getKey(), entry.getValue());
-								long            dialog_id = (long) (entry.getKey()) << 32;
-								TLRPC.TL_dialog dialog    = dialogs_dict.get(dialog_id);
-								if (dialog != null)
-								{
-									MessageObject message = dialogMessage.get(dialog_id);
-									if (message != null && message.messageOwner.date <= entry.getValue())
-									{
-										message.setIsRead();
-										updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
-									}
-								}
-							}
-						}
 						if (!markAsReadMessages.isEmpty())
 						{
 							NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesReadContent, markAsReadMessages);
@@ -10217,11 +10458,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		}
 		if (markAsReadMessagesInbox.size() != 0 || markAsReadMessagesOutbox.size() != 0 || !markAsReadEncrypted.isEmpty())
 		{
-			if (markAsReadMessagesInbox.size() != 0)
-			{
-				MessagesStorage.getInstance().updateDialogsWithReadMessages(markAsReadMessagesInbox, markAsReadMessagesOutbox, true);
-			}
-			MessagesStorage.getInstance().markMessagesAsRead(markAsReadMessagesInbox, markAsReadMessagesOutbox, markAsReadEncrypted, true);
+			readStateAggregator.add(markAsReadMessagesInbox, markAsReadMessagesOutbox, markAsReadEncrypted);
 		}
 		if (!markAsReadMessages.isEmpty())
 		{
@@ -10263,21 +10500,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
 	public boolean isDialogMuted(long dialog_id)
 	{
-		SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Activity.MODE_PRIVATE);
-		int               mute_type   = preferences.getInt("notify2_" + dialog_id, 0);
-		if (mute_type == 2)
-		{
-			return true;
-		}
-		else if (mute_type == 3)
-		{
-			int mute_until = preferences.getInt("notifyuntil_" + dialog_id, 0);
-			if (mute_until >= ConnectionsManager.getInstance().getCurrentTime())
-			{
-				return true;
-			}
-		}
-		return false;
+		return NotificationsSettingsStore.getInstance().getNotifyOverride(dialog_id, ConnectionsManager.getInstance().getCurrentTime()) == 2;
 	}
 
 	private boolean updatePrintingUsersWithNewMessages(long uid, ArrayList<MessageObject> messages)
@@ -10334,11 +10557,32 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		updateInterfaceWithMessages(uid, messages, false);
 	}
 
+	protected void updateInterfaceWithMessages(HashMap<Long, ArrayList<MessageObject>> messages)
+	{
+		boolean changed = false;
+		for (HashMap.Entry<Long, ArrayList<MessageObject>> entry : messages.entrySet())
+		{
+			changed |= updateDialogWithMessages(entry.getKey(), entry.getValue(), false);
+		}
+		if (changed)
+		{
+			refreshDialogsList();
+		}
+	}
+
 	protected void updateInterfaceWithMessages(final long uid, final ArrayList<MessageObject> messages, boolean isBroadcast)
+	{
+		if (updateDialogWithMessages(uid, messages, isBroadcast))
+		{
+			refreshDialogsList();
+		}
+	}
+
+	private boolean updateDialogWithMessages(final long uid, final ArrayList<MessageObject> messages, boolean isBroadcast)
 	{
 		if (messages == null || messages.isEmpty())
 		{
-			return;
+			return false;
 		}
 
 		boolean       isEncryptedChat = ((int) uid) == 0;
@@ -10377,7 +10621,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
 		if (lastMessage == null)
 		{
-			return;
+			return false;
 		}
 		TLRPC.TL_dialog dialog = dialogs_dict.get(uid);
 		if (lastMessage.messageOwner.action instanceof TLRPC.TL_messageActionChatMigrateTo)
@@ -10407,7 +10651,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				NotificationsController.getInstance().removeNotificationsForDialog(dialog.id);
 				NotificationCenter.getInstance().postNotificationName(NotificationCenter.needReloadRecentDialogsSearch);
 			}
-			return;
+			return false;
 		}
 
 		boolean changed = false;
@@ -10419,7 +10663,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				TLRPC.Chat chat = getChat(channelId);
 				if (channelId != 0 && chat == null || chat != null && chat.left)
 				{
-					return;
+					return false;
 				}
 				dialog = new TLRPC.TL_dialog();
 				dialog.id = uid;
@@ -10428,7 +10672,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 				dialog.last_message_date = lastMessage.messageOwner.date;
 				dialog.flags = ChatObject.isChannel(chat) ? 1 : 0;
 				dialogs_dict.put(uid, dialog);
-				dialogs.add(dialog);
 				dialogMessage.put(uid, lastMessage);
 				if (lastMessage.messageOwner.to_id.channel_id == 0)
 				{
@@ -10473,13 +10716,14 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 
 		if (changed)
 		{
-			sortDialogs(null);
+			updateDialogPosition(dialog);
 		}
 
 		if (updateRating)
 		{
 			SearchQuery.increasePeerRaiting(uid);
 		}
+		return changed;
 	}
 
 	public void sortDialogs(HashMap<Integer, TLRPC.Chat> chatsDict)
@@ -10494,75 +10738,216 @@ public class MessagesController implements NotificationCenter.NotificationCenter
 		dialogsUnreadOnly.clear(); //telegraf
 		dialogsServerOnly.clear();
 		dialogsGroupsOnly.clear();
+		for (int a = 0; a < dialogs.size(); a++)
+		{
+			TLRPC.TL_dialog d = dialogs.get(a);
+			d.sortKey = getDialogSortKey(d);
+		}
 		Collections.sort(dialogs, dialogComparator);
 		for (int a = 0; a < dialogs.size(); a++)
 		{
-			TLRPC.TL_dialog d        = dialogs.get(a);
-			int             high_id  = (int) (d.id >> 32);
-			int             lower_id = (int) d.id;
-			if (lower_id != 0 && high_id != 1)
+			TLRPC.TL_dialog d = dialogs.get(a);
+			if (chatsDict != null && (int) d.id < 0 && (int) (d.id >> 32) != 1 && !DialogObject.isChannel(d))
 			{
-				dialogsServerOnly.add(d);
-				if (DialogObject.isChannel(d))
+				TLRPC.Chat chat = chatsDict.get(-(int) d.id);
+				if (chat != null && chat.migrated_to != null)
 				{
-					TLRPC.Chat chat = getChat(-lower_id);
-					if (chat != null && (chat.megagroup && chat.editor || chat.creator))
-					{
-						dialogsGroupsOnly.add(d);
-					}
-					if (chat != null && chat.megagroup) // telegraf, this is super group
-					{
-						dialogsGroupsOnly.add(d); // telegraf
-					}
-					if (chat != null && !chat.megagroup) // telegraf
-					{
-						dialogsChannelOnly.add(d); // telegraf
-					}
+					dialogs.remove(a);
+					a--;
+					continue;
+				}
+			}
+			addDialogToFilters(d, false);
+		}
+
+		refreshDialogsList();
+	}
+
+	/**
+	 * Moves a single dialog to its place after its date, draft or pin changed, or inserts it if it is
+	 * not in the list yet. Unlike sortDialogs it only touches this dialog: the old position is found
+	 * with a binary search on the sort key the lists are ordered by, the new one the same way.
+	 */
+	public void updateDialogPosition(TLRPC.TL_dialog dialog)
+	{
+		removeSortedDialog(dialogs, dialog);
+		removeDialogFromFilters(dialog);
+
+		dialog.sortKey = getDialogSortKey(dialog);
+		dialogs.add(findDialogInsertIndex(dialogs, dialog.sortKey), dialog);
+		addDialogToFilters(dialog, true);
+	}
+
+	/**
+	 * Puts a dialog into the filter lists it belongs to now, after its unread count, its favorite mark
+	 * or the bot or megagroup flag of its peer changed. Its place in the main list stays as it is.
+	 */
+	public void updateDialogFilters(TLRPC.TL_dialog dialog)
+	{
+		if (dialogs_dict.get(dialog.id) != dialog)
+		{
+			return;
+		}
+		removeDialogFromFilters(dialog);
+		addDialogToFilters(dialog, true);
+	}
+
+	// peers are also put off the UI thread, so their dialogs are queued and refiltered in one pass
+	private void updateDialogFiltersLater(long did)
+	{
+		boolean post;
+		synchronized (dialogsToRefilter)
+		{
+			post = dialogsToRefilter.isEmpty();
+			dialogsToRefilter.add(did);
+		}
+		if (post)
+		{
+			AndroidUtilities.runOnUIThread(refilterDialogsRunnable);
+		}
+	}
+
+	private void removeDialogFromFilters(TLRPC.TL_dialog dialog)
+	{
+		removeSortedDialog(dialogsServerOnly, dialog);
+		removeSortedDialog(dialogsGroupsOnly, dialog);
+		removeSortedDialog(dialogsChannelOnly, dialog); //telegraf
+		removeSortedDialog(dialogsJustGroupsOnly, dialog); //telegraf
+		removeSortedDialog(dialogsContactOnly, dialog); //telegraf
+		removeSortedDialog(dialogsFavoriteOnly, dialog); //telegraf
+		removeSortedDialog(dialogsBotOnly, dialog); //telegraf
+		removeSortedDialog(dialogsUnreadOnly, dialog); //telegraf
+	}
+
+	private static int getChatFilterFlags(TLRPC.Chat chat)
+	{
+		if (chat == null)
+		{
+			return 0;
+		}
+		return 1 | (chat.megagroup ? 2 : 0) | (chat.editor ? 4 : 0) | (chat.creator ? 8 : 0);
+	}
+
+	/**
+	 * Redraws the dialogs list and the tab badges. updateDialogPosition leaves this to its callers, so
+	 * a batch of moved dialogs refreshes the list once instead of once per dialog.
+	 */
+	public void refreshDialogsList()
+	{
+		// telegraf
+		DialogsAdapter.getInstance().notifyDataSetChanged();
+		TabSetting.setBadges();
+	}
+
+	private static long getDialogSortKey(TLRPC.TL_dialog dialog)
+	{
+		if (dialog.pinned)
+		{
+			return (1L << 32) + dialog.pinnedNum;
+		}
+		TLRPC.DraftMessage draftMessage = DraftQuery.getDraft(dialog.id);
+		return draftMessage != null && draftMessage.date >= dialog.last_message_date ? draftMessage.date : dialog.last_message_date;
+	}
+
+	private static int findDialogInsertIndex(ArrayList<TLRPC.TL_dialog> list, long sortKey)
+	{
+		int low  = 0;
+		int high = list.size();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (list.get(mid).sortKey >= sortKey)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static void removeSortedDialog(ArrayList<TLRPC.TL_dialog> list, TLRPC.TL_dialog dialog)
+	{
+		for (int a = findDialogInsertIndex(list, dialog.sortKey) - 1; a >= 0; a--)
+		{
+			TLRPC.TL_dialog d = list.get(a);
+			if (d.sortKey != dialog.sortKey)
+			{
+				break;
+			}
+			if (d == dialog)
+			{
+				list.remove(a);
+			}
+		}
+	}
+
+	private static void addFilterDialog(ArrayList<TLRPC.TL_dialog> list, TLRPC.TL_dialog dialog, boolean sorted)
+	{
+		if (sorted)
+		{
+			list.add(findDialogInsertIndex(list, dialog.sortKey), dialog);
+		}
+		else
+		{
+			list.add(dialog);
+		}
+	}
+
+	private void addDialogToFilters(TLRPC.TL_dialog d, boolean sorted)
+	{
+		int high_id  = (int) (d.id >> 32);
+		int lower_id = (int) d.id;
+		if (lower_id != 0 && high_id != 1)
+		{
+			addFilterDialog(dialogsServerOnly, d, sorted);
+			if (DialogObject.isChannel(d))
+			{
+				TLRPC.Chat chat = getChat(-lower_id);
+				if (chat != null && (chat.megagroup && chat.editor || chat.creator))
+				{
+					addFilterDialog(dialogsGroupsOnly, d, sorted);
 				}
-				else if (lower_id < 0)
+				if (chat != null && chat.megagroup) // telegraf, this is super group
 				{
-					if (chatsDict != null)
-					{
-						TLRPC.Chat chat = chatsDict.get(-lower_id);
-						if (chat != null && chat.migrated_to != null)
-						{
-							dialogs.remove(a);
-							a--;
-							continue;
-						}
-					}
-					dialogsGroupsOnly.add(d);
-					dialogsJustGroupsOnly.add(d); // telegraf
+					addFilterDialog(dialogsGroupsOnly, d, sorted); // telegraf
 				}
-				else if (lower_id > 0) // telegraf
+				if (chat != null && !chat.megagroup) // telegraf
 				{
-					TLRPC.User user = getUser(Integer.valueOf((int) d.id));
-					if (user == null || !user.bot)
-					{
-						dialogsContactOnly.add(d);
-					}
-					else
-					{
-						dialogsBotOnly.add(d);
-					}
+					addFilterDialog(dialogsChannelOnly, d, sorted); // telegraf
 				}
 			}
-			// telegraf
-			if (FavoriteController.IsFaver(Long.valueOf(d.id)))
+			else if (lower_id < 0)
 			{
-				dialogsFavoriteOnly.add(d);
+				addFilterDialog(dialogsGroupsOnly, d, sorted);
+				addFilterDialog(dialogsJustGroupsOnly, d, sorted); // telegraf
 			}
-
-			// telegraf
-			if (d.unread_count > 0)
+			else if (lower_id > 0) // telegraf
 			{
-				dialogsUnreadOnly.add(d);
+				TLRPC.User user = getUser(lower_id);
+				if (user == null || !user.bot)
+				{
+					addFilterDialog(dialogsContactOnly, d, sorted);
+				}
+				else
+				{
+					addFilterDialog(dialogsBotOnly, d, sorted);
+				}
 			}
 		}
+		// telegraf
+		if (FavoriteController.IsFaver(Long.valueOf(d.id)))
+		{
+			addFilterDialog(dialogsFavoriteOnly, d, sorted);
+		}
 
 		// telegraf
-		DialogsAdapter.getInstance().notifyDataSetChanged();
-		TabSetting.setBadges();
+		if (d.unread_count > 0)
+		{
+			addFilterDialog(dialogsUnreadOnly, d, sorted);
+		}
 	}
 
 	// telegraf
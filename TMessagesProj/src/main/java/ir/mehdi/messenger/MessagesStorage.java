@@ -15,6 +15,7 @@ import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import ir.mehdi.PhoneFormat.PhoneFormat;
+import ir.mehdi.SQLite.SQLiteConnectionPool;
 import ir.mehdi.SQLite.SQLiteCursor;
 import ir.mehdi.SQLite.SQLiteDatabase;
 import ir.mehdi.SQLite.SQLitePreparedStatement;
@@ -40,6 +41,11 @@ import java.util.concurrent.atomic.AtomicLong;
 public class MessagesStorage {
     private DispatchQueue storageQueue = new DispatchQueue("storageQueue");
     private SQLiteDatabase database;
+    private static final int READ_CONNECTIONS_COUNT = 2;
+    private static final int LAST_DB_VERSION = 44;
+    private DispatchQueue[] readQueues = new DispatchQueue[READ_CONNECTIONS_COUNT];
+    private int readQueueIndex;
+    private volatile SQLiteConnectionPool readPool;
     private File cacheFile;
     private AtomicLong lastTaskId = new AtomicLong(System.currentTimeMillis());
 
@@ -56,6 +62,32 @@ public class MessagesStorage {
     private int lastSavedDate = 0;
     private int lastSavedQts = 0;
 
+    private int groupCommitLatency = 30;
+    private static final int GROUP_COMMIT_MAX_TRANSACTIONS = 200;
+    private boolean groupCommitFailed;
+
+    private SQLiteDatabase.GroupCommitDelegate groupCommitDelegate = new SQLiteDatabase.GroupCommitDelegate() {
+        @Override
+        public void onGroupTransactionStarted() {
+            storageQueue.postRunnable(flushGroupTransactionRunnable, groupCommitLatency);
+        }
+
+        @Override
+        public void onGroupTransactionFailed(int transactionsCount, int errorCode) {
+            //updates stored in the lost group must be fetched again, so the saved update state is no longer advanced
+            groupCommitFailed = true;
+        }
+    };
+
+    private Runnable flushGroupTransactionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (database != null) {
+                database.flushGroupTransaction();
+            }
+        }
+    };
+
     private static volatile MessagesStorage Instance = null;
 
     public static MessagesStorage getInstance() {
@@ -71,8 +103,15 @@ public class MessagesStorage {
         return localInstance;
     }
 
+    public interface ReadTask {
+        void run(SQLiteDatabase database);
+    }
+
     public MessagesStorage() {
         storageQueue.setPriority(Thread.MAX_PRIORITY);
+        for (int a = 0; a < readQueues.length; a++) {
+            readQueues[a] = new DispatchQueue("storageReadQueue" + a);
+        }
         openDatabase(true);
     }
 
@@ -84,6 +123,94 @@ public class MessagesStorage {
         return storageQueue;
     }
 
+    /**
+     * Runs task on one of the read queues with a read-only connection, so the query itself doesn't
+     * hold up storageQueue. The task is first passed through storageQueue, which commits the open
+     * write group, so it sees every write posted before it. It must not write, until the read
+     * connections are opened it runs on storageQueue instead.
+     */
+    public void postReadTask(final ReadTask task) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                final SQLiteConnectionPool pool = readPool;
+                if (pool == null || !database.flushGroupTransaction()) {
+                    task.run(database);
+                    return;
+                }
+                DispatchQueue queue = readQueues[(readQueueIndex++ & 0x7fffffff) % readQueues.length];
+                queue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        SQLiteDatabase readDatabase;
+                        try {
+                            readDatabase = pool.acquire();
+                        } catch (Exception e) {
+                            FileLog.e(e);
+                            postReadTaskToStorageQueue(task);
+                            return;
+                        }
+                        try {
+                            task.run(readDatabase);
+                        } finally {
+                            pool.release(readDatabase);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void postReadTaskToStorageQueue(final ReadTask task) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                task.run(database);
+            }
+        });
+    }
+
+    private void openReadPool() {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (database == null || cacheFile == null || readPool != null) {
+                    return;
+                }
+                database.flushGroupTransaction();
+                readPool = new SQLiteConnectionPool(cacheFile.getPath(), READ_CONNECTIONS_COUNT);
+            }
+        });
+    }
+
+    private void closeReadPool() {
+        SQLiteConnectionPool pool = readPool;
+        readPool = null;
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    public void setGroupCommitLatency(final int latency) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                groupCommitLatency = latency;
+                if (database != null) {
+                    database.setGroupCommitDelegate(latency > 0 ? groupCommitDelegate : null, GROUP_COMMIT_MAX_TRANSACTIONS);
+                }
+            }
+        });
+    }
+
+    public void flushGroupTransaction(boolean useQueue) {
+        if (useQueue) {
+            storageQueue.postRunnable(flushGroupTransactionRunnable);
+        } else {
+            flushGroupTransactionRunnable.run();
+        }
+    }
+
     public void openDatabase(boolean first) {
         cacheFile = new File(ApplicationLoader.getFilesDirFixed(), "cache4.db");
 
@@ -96,6 +223,10 @@ public class MessagesStorage {
             database = new SQLiteDatabase(cacheFile.getPath());
             database.executeFast("PRAGMA secure_delete = ON").stepThis().dispose();
             database.executeFast("PRAGMA temp_store = 1").stepThis().dispose();
+            database.executeFast("PRAGMA journal_mode = WAL").stepThis().dispose();
+            if (groupCommitLatency > 0) {
+                database.setGroupCommitDelegate(groupCommitDelegate, GROUP_COMMIT_MAX_TRANSACTIONS);
+            }
             if (createTable) {
                 FileLog.e("create new database");
                 database.executeFast("CREATE TABLE messages_holes(uid INTEGER, start INTEGER, end INTEGER, PRIMARY KEY(uid, start));").stepThis().dispose();
@@ -155,8 +286,8 @@ public class MessagesStorage {
                 database.executeFast("CREATE INDEX IF NOT EXISTS botcache_date_idx ON botcache(date);").stepThis().dispose();
 
                 database.executeFast("CREATE TABLE users_data(uid INTEGER PRIMARY KEY, about TEXT)").stepThis().dispose();
-                database.executeFast("CREATE TABLE users(uid INTEGER PRIMARY KEY, name TEXT, status INTEGER, data BLOB)").stepThis().dispose();
-                database.executeFast("CREATE TABLE chats(uid INTEGER PRIMARY KEY, name TEXT, data BLOB)").stepThis().dispose();
+                database.executeFast("CREATE TABLE users(uid INTEGER PRIMARY KEY, name TEXT, status INTEGER, data BLOB, tname TEXT)").stepThis().dispose();
+                database.executeFast("CREATE TABLE chats(uid INTEGER PRIMARY KEY, name TEXT, data BLOB, tname TEXT)").stepThis().dispose();
                 database.executeFast("CREATE TABLE enc_chats(uid INTEGER PRIMARY KEY, user INTEGER, name TEXT, data BLOB, g BLOB, authkey BLOB, ttl INTEGER, layer INTEGER, seq_in INTEGER, seq_out INTEGER, use_count INTEGER, exchange_id INTEGER, key_date INTEGER, fprint INTEGER, fauthkey BLOB, khash BLOB, in_seq_no INTEGER, admin_id INTEGER)").stepThis().dispose();
                 database.executeFast("CREATE TABLE channel_users_v2(did INTEGER, uid INTEGER, date INTEGER, data BLOB, PRIMARY KEY(did, uid))").stepThis().dispose();
                 database.executeFast("CREATE TABLE contacts(uid INTEGER PRIMARY KEY, mutual INTEGER)").stepThis().dispose();
@@ -177,9 +308,13 @@ public class MessagesStorage {
                 database.executeFast("CREATE TABLE bot_info(uid INTEGER PRIMARY KEY, info BLOB)").stepThis().dispose();
                 database.executeFast("CREATE TABLE pending_tasks(id INTEGER PRIMARY KEY, data BLOB);").stepThis().dispose();
                 database.executeFast("CREATE TABLE requested_holes(uid INTEGER, seq_out_start INTEGER, seq_out_end INTEGER, PRIMARY KEY (uid, seq_out_start, seq_out_end));").stepThis().dispose();
+                database.executeFast("CREATE TABLE drafts(did INTEGER PRIMARY KEY, data BLOB, reply BLOB)").stepThis().dispose();
+
+                createSearchIndex();
+                createTranslitSearchIndex();
 
                 //version
-                database.executeFast("PRAGMA user_version = 41").stepThis().dispose();
+                database.executeFast("PRAGMA user_version = " + LAST_DB_VERSION).stepThis().dispose();
 
                 //database.executeFast("CREATE TABLE secret_holes(uid INTEGER, seq_in INTEGER, seq_out INTEGER, data BLOB, PRIMARY KEY (uid, seq_in, seq_out));").stepThis().dispose();
                 //database.executeFast("CREATE TABLE attach_data(uid INTEGER, id INTEGER, data BLOB, PRIMARY KEY (uid, id))").stepThis().dispose();
@@ -217,7 +352,7 @@ public class MessagesStorage {
                         FileLog.e(e2);
                     }
                 }
-                if (version < 41) {
+                if (version < LAST_DB_VERSION) {
                     updateDbToLastVersion(version);
                 }
             }
@@ -230,6 +365,7 @@ public class MessagesStorage {
         }
         loadUnreadMessages();
         loadPendingTasks();
+        openReadPool();
     }
 
     private void updateDbToLastVersion(final int currentVersion) {
@@ -525,7 +661,26 @@ public class MessagesStorage {
                     if (version == 40) {
                         fixNotificationSettings();
                         database.executeFast("PRAGMA user_version = 41").stepThis().dispose();
-                        //version = 41;
+                        version = 41;
+                    }
+                    if (version == 41) {
+                        createSearchIndex();
+                        fillSearchIndex();
+                        database.executeFast("PRAGMA user_version = 42").stepThis().dispose();
+                        version = 42;
+                    }
+                    if (version == 42) {
+                        database.executeFast("ALTER TABLE users ADD COLUMN tname TEXT").stepThis().dispose();
+                        database.executeFast("ALTER TABLE chats ADD COLUMN tname TEXT").stepThis().dispose();
+                        createTranslitSearchIndex();
+                        fillTranslitNames();
+                        database.executeFast("PRAGMA user_version = 43").stepThis().dispose();
+                        version = 43;
+                    }
+                    if (version == 43) {
+                        database.executeFast("CREATE TABLE IF NOT EXISTS drafts(did INTEGER PRIMARY KEY, data BLOB, reply BLOB)").stepThis().dispose();
+                        database.executeFast("PRAGMA user_version = 44").stepThis().dispose();
+                        //version = 44;
                     }
                 } catch (Exception e) {
                     FileLog.e(e);
@@ -535,6 +690,7 @@ public class MessagesStorage {
     }
 
     private void cleanupInternal() {
+        groupCommitFailed = false;
         lastDateValue = 0;
         lastSeqValue = 0;
         lastPtsValue = 0;
@@ -548,12 +704,15 @@ public class MessagesStorage {
 
         secretPBytes = null;
         secretG = 0;
+        closeReadPool();
         if (database != null) {
             database.close();
             database = null;
         }
         if (cacheFile != null) {
             cacheFile.delete();
+            new File(cacheFile.getPath() + "-wal").delete();
+            new File(cacheFile.getPath() + "-shm").delete();
             cacheFile = null;
         }
     }
@@ -582,6 +741,9 @@ public class MessagesStorage {
             @Override
             public void run() {
                 try {
+                    if (!database.flushGroupTransaction()) {
+                        return;
+                    }
                     SQLitePreparedStatement state = database.executeFast("UPDATE params SET lsv = ?, sg = ?, pbytes = ? WHERE id = 1");
                     state.bindInteger(1, lsv);
                     state.bindInteger(2, sg);
@@ -600,6 +762,202 @@ public class MessagesStorage {
         });
     }
 
+    private void createSearchIndex() throws Exception {
+        database.executeFast("CREATE VIRTUAL TABLE IF NOT EXISTS messages_fts USING fts5(text, uid UNINDEXED, prefix = '2 3')").stepThis().dispose();
+        database.executeFast("CREATE VIRTUAL TABLE IF NOT EXISTS names_fts USING fts5(name, prefix = '2 3')").stepThis().dispose();
+
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS messages_fts_delete AFTER DELETE ON messages BEGIN DELETE FROM messages_fts WHERE rowid = old.mid; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS messages_fts_mid AFTER UPDATE OF mid ON messages BEGIN UPDATE messages_fts SET rowid = new.mid WHERE rowid = old.mid; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS users_fts_insert AFTER INSERT ON users BEGIN REPLACE INTO names_fts(rowid, name) VALUES(new.uid, new.name); END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS users_fts_update AFTER UPDATE OF name ON users BEGIN REPLACE INTO names_fts(rowid, name) VALUES(new.uid, new.name); END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS users_fts_delete AFTER DELETE ON users BEGIN DELETE FROM names_fts WHERE rowid = old.uid; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS chats_fts_insert AFTER INSERT ON chats BEGIN REPLACE INTO names_fts(rowid, name) VALUES(-new.uid, new.name); END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS chats_fts_update AFTER UPDATE OF name ON chats BEGIN REPLACE INTO names_fts(rowid, name) VALUES(-new.uid, new.name); END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS chats_fts_delete AFTER DELETE ON chats BEGIN DELETE FROM names_fts WHERE rowid = -old.uid; END;").stepThis().dispose();
+    }
+
+    private void fillSearchIndex() throws Exception {
+        database.executeFast("DELETE FROM names_fts").stepThis().dispose();
+        database.executeFast("INSERT INTO names_fts(rowid, name) SELECT uid, name FROM users").stepThis().dispose();
+        database.executeFast("INSERT INTO names_fts(rowid, name) SELECT -uid, name FROM chats").stepThis().dispose();
+
+        database.beginTransaction();
+        SQLiteCursor cursor = database.queryFinalized("SELECT mid, uid, data FROM messages");
+        while (cursor.next()) {
+            NativeByteBuffer data = cursor.byteBufferValue(2);
+            if (data != null) {
+                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                data.reuse();
+                if (message != null) {
+                    putMessageSearchText(cursor.longValue(0), cursor.longValue(1), message);
+                }
+            }
+        }
+        cursor.dispose();
+        database.commitTransaction();
+    }
+
+    private void createTranslitSearchIndex() throws Exception {
+        database.executeFast("CREATE VIRTUAL TABLE IF NOT EXISTS tnames_fts USING fts5(tname, prefix = '2 3')").stepThis().dispose();
+
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS users_tfts_insert AFTER INSERT ON users BEGIN DELETE FROM tnames_fts WHERE rowid = new.uid; INSERT INTO tnames_fts(rowid, tname) SELECT new.uid, new.tname WHERE new.tname IS NOT NULL; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS users_tfts_update AFTER UPDATE OF tname ON users BEGIN DELETE FROM tnames_fts WHERE rowid = old.uid; INSERT INTO tnames_fts(rowid, tname) SELECT new.uid, new.tname WHERE new.tname IS NOT NULL; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS users_tfts_delete AFTER DELETE ON users BEGIN DELETE FROM tnames_fts WHERE rowid = old.uid; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS chats_tfts_insert AFTER INSERT ON chats BEGIN DELETE FROM tnames_fts WHERE rowid = -new.uid; INSERT INTO tnames_fts(rowid, tname) SELECT -new.uid, new.tname WHERE new.tname IS NOT NULL; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS chats_tfts_update AFTER UPDATE OF tname ON chats BEGIN DELETE FROM tnames_fts WHERE rowid = -old.uid; INSERT INTO tnames_fts(rowid, tname) SELECT -new.uid, new.tname WHERE new.tname IS NOT NULL; END;").stepThis().dispose();
+        database.executeFast("CREATE TRIGGER IF NOT EXISTS chats_tfts_delete AFTER DELETE ON chats BEGIN DELETE FROM tnames_fts WHERE rowid = -old.uid; END;").stepThis().dispose();
+    }
+
+    private void fillTranslitNames() throws Exception {
+        database.beginTransaction();
+        SQLitePreparedStatement state = database.executeFast("UPDATE users SET tname = ? WHERE uid = ?");
+        SQLiteCursor cursor = database.queryFinalized("SELECT uid, name FROM users");
+        while (cursor.next()) {
+            String tName = getTranslitName(cursor.stringValue(1));
+            if (tName != null) {
+                state.requery();
+                state.bindString(1, tName).bindInteger(2, cursor.intValue(0)).step();
+            }
+        }
+        cursor.dispose();
+        state.dispose();
+
+        state = database.executeFast("UPDATE chats SET tname = ? WHERE uid = ?");
+        cursor = database.queryFinalized("SELECT uid, name FROM chats");
+        while (cursor.next()) {
+            String tName = getTranslitName(cursor.stringValue(1));
+            if (tName != null) {
+                state.requery();
+                state.bindString(1, tName).bindInteger(2, cursor.intValue(0)).step();
+            }
+        }
+        cursor.dispose();
+        state.dispose();
+        database.commitTransaction();
+    }
+
+    private static String getTranslitName(String name) {
+        if (name == null) {
+            return null;
+        }
+        String tName = LocaleController.getInstance().getTranslitString(name);
+        return name.equals(tName) ? null : tName;
+    }
+
+    private static String getMessageSearchText(TLRPC.Message message) {
+        String caption = message.media != null ? message.media.caption : null;
+        if (TextUtils.isEmpty(caption)) {
+            return TextUtils.isEmpty(message.message) ? null : message.message;
+        } else if (TextUtils.isEmpty(message.message)) {
+            return caption;
+        }
+        return message.message + "\n" + caption;
+    }
+
+    private void putMessageSearchText(long messageId, long did, TLRPC.Message message) throws Exception {
+        if ((int) did == 0) {
+            return;
+        }
+        String text = getMessageSearchText(message);
+        if (text == null) {
+            database.executeFast("DELETE FROM messages_fts WHERE rowid = ?").bindLong(1, messageId).stepThis().dispose();
+            return;
+        }
+        database.executeFast("REPLACE INTO messages_fts(rowid, text, uid) VALUES(?, ?, ?)").bindLong(1, messageId).bindString(2, text).bindLong(3, did).stepThis().dispose();
+    }
+
+    /**
+     * Builds a MATCH expression for names_fts and tnames_fts: every query is matched as a list of
+     * word prefixes, and the queries are joined with OR. Returns null if nothing can be matched.
+     */
+    public static String getSearchMatchQuery(String[] queries) {
+        String result = null;
+        for (int a = 0; a < queries.length; a++) {
+            if (queries[a] == null) {
+                continue;
+            }
+            String match = getSearchMatchQuery(queries[a]);
+            if (match == null) {
+                continue;
+            }
+            result = result == null ? "(" + match + ")" : result + " OR (" + match + ")";
+        }
+        return result;
+    }
+
+    private static String getSearchMatchQuery(String query) {
+        StringBuilder builder = new StringBuilder();
+        String[] words = query.split("\\s+");
+        for (int a = 0; a < words.length; a++) {
+            if (words[a].length() == 0) {
+                continue;
+            }
+            if (builder.length() != 0) {
+                builder.append(' ');
+            }
+            builder.append('"').append(words[a].replace("\"", "\"\"")).append("\"*");
+        }
+        return builder.length() != 0 ? builder.toString() : null;
+    }
+
+    /**
+     * Searches text of the cached messages through messages_fts. query is matched as a list of word
+     * prefixes, together with its transliterated variant. The result is passed to delegate on the
+     * read queue as TL_messages_messages, newest messages first, with their users and chats loaded.
+     */
+    public void searchMessages(final String query, final int limit, final RequestDelegate delegate) {
+        postReadTask(new ReadTask() {
+            @Override
+            public void run(SQLiteDatabase database) {
+                TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
+                try {
+                    String search1 = query.trim().toLowerCase();
+                    String search2 = LocaleController.getInstance().getTranslitString(search1);
+                    String match = getSearchMatchQuery(new String[]{search1, search1.equals(search2) ? null : search2});
+                    if (match != null) {
+                        ArrayList<Integer> usersToLoad = new ArrayList<>();
+                        ArrayList<Integer> chatsToLoad = new ArrayList<>();
+                        SQLitePreparedStatement state = database.executeFast("SELECT m.data, m.mid, m.uid, m.read_state, m.send_state, m.date FROM messages_fts as f INNER JOIN messages as m ON m.mid = f.rowid WHERE messages_fts MATCH ? ORDER BY m.date DESC LIMIT ?");
+                        SQLiteCursor cursor = state.bindString(1, match).bindInteger(2, limit).query();
+                        while (cursor.next()) {
+                            NativeByteBuffer data = cursor.byteBufferValue(0);
+                            if (data != null) {
+                                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                                data.reuse();
+                                if (message != null) {
+                                    message.id = cursor.intValue(1);
+                                    message.dialog_id = cursor.longValue(2);
+                                    MessageObject.setUnreadFlags(message, cursor.intValue(3));
+                                    message.send_state = cursor.intValue(4);
+                                    message.date = cursor.intValue(5);
+                                    res.messages.add(message);
+                                    addUsersAndChatsFromMessage(message, usersToLoad, chatsToLoad);
+                                    int lower_id = (int) message.dialog_id;
+                                    if (lower_id > 0) {
+                                        if (!usersToLoad.contains(lower_id)) {
+                                            usersToLoad.add(lower_id);
+                                        }
+                                    } else if (!chatsToLoad.contains(-lower_id)) {
+                                        chatsToLoad.add(-lower_id);
+                                    }
+                                }
+                            }
+                        }
+                        cursor.dispose();
+                        getUsersInternal(database, usersToLoad, res.users);
+                        getChatsInternal(database, chatsToLoad, res.chats);
+                    }
+                } catch (Exception e) {
+                    res.messages.clear();
+                    res.users.clear();
+                    res.chats.clear();
+                    FileLog.e(e);
+                }
+                delegate.run(res, null);
+            }
+        });
+    }
+
     private void fixNotificationSettings() {
         storageQueue.postRunnable(new Runnable() {
             @Override
@@ -840,6 +1198,9 @@ public class MessagesStorage {
                     if (lastSavedSeq == seq && lastSavedPts == pts && lastSavedDate == date && lastQtsValue == qts) {
                         return;
                     }
+                    if (!database.flushGroupTransaction() || groupCommitFailed) {
+                        return;
+                    }
                     SQLitePreparedStatement state = database.executeFast("UPDATE params SET seq = ?, pts = ?, date = ?, qts = ? WHERE id = 1");
                     state.bindInteger(1, seq);
                     state.bindInteger(2, pts);
@@ -1013,11 +1374,11 @@ public class MessagesStorage {
                         }
 
                         if (!usersToLoad.isEmpty()) {
-                            getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                            getUsersInternal(usersToLoad, users);
                         }
 
                         if (!chatsToLoad.isEmpty()) {
-                            getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                            getChatsInternal(chatsToLoad, chats);
                             for (int a = 0; a < chats.size(); a++) {
                                 TLRPC.Chat chat = chats.get(a);
                                 if (chat != null && (chat.left || chat.migrated_to != null)) {
@@ -1331,10 +1692,14 @@ public class MessagesStorage {
                         while (cursor.next()) {
                             NativeByteBuffer data = cursor.byteBufferValue(0);
                             if (data != null) {
-                                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                                LazyMessage lazyMessage = LazyMessage.read(data);
                                 data.reuse();
-                                if (message != null && message.from_id == uid && message.id != 1) {
-                                    mids.add(message.id);
+                                if (lazyMessage != null && lazyMessage.from_id == uid && lazyMessage.id != 1) {
+                                    mids.add(lazyMessage.id);
+                                    TLRPC.Message message = lazyMessage.getMessage();
+                                    if (message == null) {
+                                        continue;
+                                    }
                                     if (message.media instanceof TLRPC.TL_messageMediaPhoto) {
                                         for (TLRPC.PhotoSize photoSize : message.media.photo.sizes) {
                                             File file = FileLoader.getPathToAttach(photoSize);
@@ -1465,7 +1830,7 @@ public class MessagesStorage {
                                 while (cursor2.next()) {
                                     NativeByteBuffer data = cursor2.byteBufferValue(0);
                                     if (data != null) {
-                                        TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                                        LazyMessage message = LazyMessage.readHeaderOnly(data);
                                         data.reuse();
                                         if (message != null) {
                                             messageId = message.id;
@@ -1717,6 +2082,7 @@ public class MessagesStorage {
     }
 
     private void updateDialogsWithReadMessagesInternal(final ArrayList<Integer> messages, final SparseArray<Long> inbox, final SparseArray<Long> outbox) {
+        boolean transactionOpen = false;
         try {
             HashMap<Long, Integer> dialogsToUpdate = new HashMap<>();
 
@@ -1742,7 +2108,10 @@ public class MessagesStorage {
                 }
                 cursor.dispose();
             } else {
+                database.beginTransaction();
+                transactionOpen = true;
                 if (inbox != null && inbox.size() != 0) {
+                    SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET inbox_max = max((SELECT inbox_max FROM dialogs WHERE did = ?), ?) WHERE did = ?");
                     for (int b = 0; b < inbox.size(); b++) {
                         int key = inbox.keyAt(b);
                         long messageId = inbox.get(key);
@@ -1753,32 +2122,34 @@ public class MessagesStorage {
                         }
                         cursor.dispose();
 
-                        SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET inbox_max = max((SELECT inbox_max FROM dialogs WHERE did = ?), ?) WHERE did = ?");
                         state.requery();
                         state.bindLong(1, key);
                         state.bindInteger(2, (int) messageId);
                         state.bindLong(3, key);
                         state.step();
-                        state.dispose();
                     }
+                    state.dispose();
                 }
                 if (outbox != null && outbox.size() != 0) {
+                    SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET outbox_max = max((SELECT outbox_max FROM dialogs WHERE did = ?), ?) WHERE did = ?");
                     for (int b = 0; b < outbox.size(); b++) {
                         int key = outbox.keyAt(b);
                         long messageId = outbox.get(key);
-                        SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET outbox_max = max((SELECT outbox_max FROM dialogs WHERE did = ?), ?) WHERE did = ?");
                         state.requery();
                         state.bindLong(1, key);
                         state.bindInteger(2, (int) messageId);
                         state.bindLong(3, key);
                         state.step();
-                        state.dispose();
                     }
+                    state.dispose();
                 }
+                transactionOpen = false;
+                database.commitTransaction();
             }
 
             if (!dialogsToUpdate.isEmpty()) {
                 database.beginTransaction();
+                transactionOpen = true;
                 SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET unread_count = ? WHERE did = ?");
                 for (HashMap.Entry<Long, Integer> entry : dialogsToUpdate.entrySet()) {
                     state.requery();
@@ -1787,6 +2158,7 @@ public class MessagesStorage {
                     state.step();
                 }
                 state.dispose();
+                transactionOpen = false;
                 database.commitTransaction();
             }
 
@@ -1795,6 +2167,10 @@ public class MessagesStorage {
             }
         } catch (Exception e) {
             FileLog.e(e);
+        } finally {
+            if (transactionOpen) {
+                database.rollbackTransaction();
+            }
         }
     }
 
@@ -2611,7 +2987,7 @@ public class MessagesStorage {
                     }
 
                     if (!usersToLoad.isEmpty()) {
-                        getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                        getUsersInternal(usersToLoad, users);
                     }
 
                     if (!chatsToLoad.isEmpty() || !broadcastIds.isEmpty()) {
@@ -2672,9 +3048,9 @@ public class MessagesStorage {
     }
 
     public void getMessages(final long dialog_id, final int count, final int max_id, final int offset_date, final int minDate, final int classGuid, final int load_type, final boolean isChannel, final int loadIndex) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadTask(new ReadTask() {
             @Override
-            public void run() {
+            public void run(SQLiteDatabase database) {
                 TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
                 int count_unread = 0;
                 int count_query = count;
@@ -2798,15 +3174,24 @@ public class MessagesStorage {
                             cursor.dispose();
                             cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
                             if (cursor.next()) {
-                                int mid = cursor.intValue(0);
+                                final int mid = cursor.intValue(0);
                                 if (mid != 0) {
-                                    SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_holes VALUES(?, ?, ?)");
-                                    state.requery();
-                                    state.bindLong(1, dialog_id);
-                                    state.bindInteger(2, 0);
-                                    state.bindInteger(3, mid);
-                                    state.step();
-                                    state.dispose();
+                                    storageQueue.postRunnable(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            try {
+                                                SQLitePreparedStatement state = MessagesStorage.this.database.executeFast("REPLACE INTO messages_holes VALUES(?, ?, ?)");
+                                                state.requery();
+                                                state.bindLong(1, dialog_id);
+                                                state.bindInteger(2, 0);
+                                                state.bindInteger(3, mid);
+                                                state.step();
+                                                state.dispose();
+                                            } catch (Exception e) {
+                                                FileLog.e(e);
+                                            }
+                                        }
+                                    });
                                 }
                             }
                             cursor.dispose();
@@ -3220,10 +3605,10 @@ public class MessagesStorage {
                     }
 
                     if (!usersToLoad.isEmpty()) {
-                        getUsersInternal(TextUtils.join(",", usersToLoad), res.users);
+                        getUsersInternal(database, usersToLoad, res.users);
                     }
                     if (!chatsToLoad.isEmpty()) {
-                        getChatsInternal(TextUtils.join(",", chatsToLoad), res.chats);
+                        getChatsInternal(database, chatsToLoad, res.chats);
                     }
                 } catch (Exception e) {
                     res.messages.clear();
@@ -3570,7 +3955,7 @@ public class MessagesStorage {
                     getEncryptedChatsInternal("" + chat_id, encryptedChats, usersToLoad);
                     if (!encryptedChats.isEmpty() && !usersToLoad.isEmpty()) {
                         ArrayList<TLRPC.User> users = new ArrayList<>();
-                        getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                        getUsersInternal(usersToLoad, users);
                         if (!users.isEmpty()) {
                             result.add(encryptedChats.get(0));
                             result.add(users.get(0));
@@ -3687,7 +4072,7 @@ public class MessagesStorage {
         if (users == null || users.isEmpty()) {
             return;
         }
-        SQLitePreparedStatement state = database.executeFast("REPLACE INTO users VALUES(?, ?, ?, ?)");
+        SQLitePreparedStatement state = database.executeFast("REPLACE INTO users VALUES(?, ?, ?, ?, ?)");
         for (int a = 0; a < users.size(); a++) {
             TLRPC.User user = users.get(a);
             if (user.min) {
@@ -3725,8 +4110,9 @@ public class MessagesStorage {
             state.requery();
             NativeByteBuffer data = new NativeByteBuffer(user.getObjectSize());
             user.serializeToStream(data);
+            String name = formatUserSearchName(user);
             state.bindInteger(1, user.id);
-            state.bindString(2, formatUserSearchName(user));
+            state.bindString(2, name);
             if (user.status != null) {
                 if (user.status instanceof TLRPC.TL_userStatusRecently) {
                     user.status.expires = -100;
@@ -3740,6 +4126,7 @@ public class MessagesStorage {
                 state.bindInteger(3, 0);
             }
             state.bindByteBuffer(4, data);
+            state.bindString(5, getTranslitName(name));
             state.step();
             data.reuse();
         }
@@ -3750,7 +4137,7 @@ public class MessagesStorage {
         if (chats == null || chats.isEmpty()) {
             return;
         }
-        SQLitePreparedStatement state = database.executeFast("REPLACE INTO chats VALUES(?, ?, ?)");
+        SQLitePreparedStatement state = database.executeFast("REPLACE INTO chats VALUES(?, ?, ?, ?)");
         for (int a = 0; a < chats.size(); a++) {
             TLRPC.Chat chat = chats.get(a);
             if (chat.min) {
@@ -3791,8 +4178,10 @@ public class MessagesStorage {
             if (chat.title != null) {
                 String name = chat.title.toLowerCase();
                 state.bindString(2, name);
+                state.bindString(4, getTranslitName(name));
             } else {
                 state.bindString(2, "");
+                state.bindNull(4);
             }
             state.bindByteBuffer(3, data);
             state.step();
@@ -3826,6 +4215,38 @@ public class MessagesStorage {
         cursor.dispose();
     }
 
+    public void getUsersInternal(ArrayList<Integer> usersToLoad, ArrayList<TLRPC.User> result) throws Exception {
+        getUsersInternal(database, usersToLoad, result);
+    }
+
+    public void getUsersInternal(SQLiteDatabase database, ArrayList<Integer> usersToLoad, ArrayList<TLRPC.User> result) throws Exception {
+        if (usersToLoad == null || usersToLoad.isEmpty() || result == null) {
+            return;
+        }
+        for (int offset = 0, size = usersToLoad.size(); offset < size; offset += SQLiteDatabase.MAX_IN_LIST_SIZE) {
+            int count = Math.min(SQLiteDatabase.MAX_IN_LIST_SIZE, size - offset);
+            SQLiteCursor cursor = database.executeFastIn("SELECT data, status FROM users WHERE uid IN(%s)", count).bindIntegerArray(1, usersToLoad, offset, count).query();
+            while (cursor.next()) {
+                try {
+                    NativeByteBuffer data = cursor.byteBufferValue(0);
+                    if (data != null) {
+                        TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                        data.reuse();
+                        if (user != null) {
+                            if (user.status != null) {
+                                user.status.expires = cursor.intValue(1);
+                            }
+                            result.add(user);
+                        }
+                    }
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+            }
+            cursor.dispose();
+        }
+    }
+
     public void getChatsInternal(String chatsToLoad, ArrayList<TLRPC.Chat> result) throws Exception {
         if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
             return;
@@ -3848,7 +4269,40 @@ public class MessagesStorage {
         cursor.dispose();
     }
 
+    public void getChatsInternal(ArrayList<Integer> chatsToLoad, ArrayList<TLRPC.Chat> result) throws Exception {
+        getChatsInternal(database, chatsToLoad, result);
+    }
+
+    public void getChatsInternal(SQLiteDatabase database, ArrayList<Integer> chatsToLoad, ArrayList<TLRPC.Chat> result) throws Exception {
+        if (chatsToLoad == null || chatsToLoad.isEmpty() || result == null) {
+            return;
+        }
+        for (int offset = 0, size = chatsToLoad.size(); offset < size; offset += SQLiteDatabase.MAX_IN_LIST_SIZE) {
+            int count = Math.min(SQLiteDatabase.MAX_IN_LIST_SIZE, size - offset);
+            SQLiteCursor cursor = database.executeFastIn("SELECT data FROM chats WHERE uid IN(%s)", count).bindIntegerArray(1, chatsToLoad, offset, count).query();
+            while (cursor.next()) {
+                try {
+                    NativeByteBuffer data = cursor.byteBufferValue(0);
+                    if (data != null) {
+                        TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
+                        data.reuse();
+                        if (chat != null) {
+                            result.add(chat);
+                        }
+                    }
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+            }
+            cursor.dispose();
+        }
+    }
+
     public void getEncryptedChatsInternal(String chatsToLoad, ArrayList<TLRPC.EncryptedChat> result, ArrayList<Integer> usersToLoad) throws Exception {
+        getEncryptedChatsInternal(database, chatsToLoad, result, usersToLoad);
+    }
+
+    public void getEncryptedChatsInternal(SQLiteDatabase database, String chatsToLoad, ArrayList<TLRPC.EncryptedChat> result, ArrayList<Integer> usersToLoad) throws Exception {
         if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
             return;
         }
@@ -4401,6 +4855,7 @@ public class MessagesStorage {
                 }
                 state.bindInteger(10, 0);
                 state.step();
+                putMessageSearchText(messageId, message.dialog_id, message);
 
                 if (message.random_id != 0) {
                     state3.requery();
@@ -4939,35 +5394,52 @@ public class MessagesStorage {
     }
 
     private void markMessagesAsReadInternal(SparseArray<Long> inbox, SparseArray<Long> outbox, HashMap<Integer, Integer> encryptedMessages) {
+        boolean transactionOpen = false;
         try {
-            if (inbox != null) {
+            database.beginTransaction();
+            transactionOpen = true;
+            if (inbox != null && inbox.size() != 0) {
+                SQLitePreparedStatement state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND mid > 0 AND mid <= ? AND read_state IN(0,2) AND out = 0");
                 for (int b = 0; b < inbox.size(); b++) {
                     int key = inbox.keyAt(b);
-                    long messageId = inbox.get(key);
-                    database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = read_state | 1 WHERE uid = %d AND mid > 0 AND mid <= %d AND read_state IN(0,2) AND out = 0", key, messageId)).stepThis().dispose();
+                    state.requery();
+                    state.bindLong(1, key);
+                    state.bindLong(2, inbox.get(key));
+                    state.step();
                 }
+                state.dispose();
             }
-            if (outbox != null) {
+            if (outbox != null && outbox.size() != 0) {
+                SQLitePreparedStatement state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND mid > 0 AND mid <= ? AND read_state IN(0,2) AND out = 1");
                 for (int b = 0; b < outbox.size(); b++) {
                     int key = outbox.keyAt(b);
-                    long messageId = outbox.get(key);
-                    database.executeFast(String.format(Locale.US, "UPDATE messages SET read_state = read_state | 1 WHERE uid = %d AND mid > 0 AND mid <= %d AND read_state IN(0,2) AND out = 1", key, messageId)).stepThis().dispose();
+                    state.requery();
+                    state.bindLong(1, key);
+                    state.bindLong(2, outbox.get(key));
+                    state.step();
                 }
+                state.dispose();
             }
             if (encryptedMessages != null && !encryptedMessages.isEmpty()) {
+                SQLitePreparedStatement state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND date <= ? AND read_state IN(0,2) AND out = 1");
                 for (HashMap.Entry<Integer, Integer> entry : encryptedMessages.entrySet()) {
                     long dialog_id = ((long) entry.getKey()) << 32;
                     int max_date = entry.getValue();
-                    SQLitePreparedStatement state = database.executeFast("UPDATE messages SET read_state = read_state | 1 WHERE uid = ? AND date <= ? AND read_state IN(0,2) AND out = 1");
                     state.requery();
                     state.bindLong(1, dialog_id);
                     state.bindInteger(2, max_date);
                     state.step();
-                    state.dispose();
                 }
+                state.dispose();
             }
+            transactionOpen = false;
+            database.commitTransaction();
         } catch (Exception e) {
             FileLog.e(e);
+        } finally {
+            if (transactionOpen) {
+                database.rollbackTransaction();
+            }
         }
     }
 
@@ -5243,11 +5715,11 @@ public class MessagesStorage {
             }
 
             if (!chatsToLoad.isEmpty()) {
-                getChatsInternal(TextUtils.join(",", chatsToLoad), dialogs.chats);
+                getChatsInternal(chatsToLoad, dialogs.chats);
             }
 
             if (!usersToLoad.isEmpty()) {
-                getUsersInternal(TextUtils.join(",", usersToLoad), dialogs.users);
+                getUsersInternal(usersToLoad, dialogs.users);
             }
 
             if (!dialogs.dialogs.isEmpty() || !encryptedChats.isEmpty()) {
@@ -5621,6 +6093,7 @@ public class MessagesStorage {
                         }
                         state.bindInteger(10, 0);
                         state.step();
+                        putMessageSearchText(messageId, dialog_id, message);
 
                         if (SharedMediaQuery.canAddMessageToMedia(message)) {
                             state2.requery();
@@ -5741,9 +6214,9 @@ public class MessagesStorage {
     }
 
     public void getDialogs(final int offset, final int count) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadTask(new ReadTask() {
             @Override
-            public void run() {
+            public void run(SQLiteDatabase database) {
                 TLRPC.messages_Dialogs dialogs = new TLRPC.messages_Dialogs();
                 ArrayList<TLRPC.EncryptedChat> encryptedChats = new ArrayList<>();
                 try {
@@ -5876,14 +6349,14 @@ public class MessagesStorage {
                     }
 
                     if (!encryptedToLoad.isEmpty()) {
-                        getEncryptedChatsInternal(TextUtils.join(",", encryptedToLoad), encryptedChats, usersToLoad);
+                        getEncryptedChatsInternal(database, TextUtils.join(",", encryptedToLoad), encryptedChats, usersToLoad);
                     }
 
                     if (!chatsToLoad.isEmpty()) {
-                        getChatsInternal(TextUtils.join(",", chatsToLoad), dialogs.chats);
+                        getChatsInternal(database, chatsToLoad, dialogs.chats);
                     }
                     if (!usersToLoad.isEmpty()) {
-                        getUsersInternal(TextUtils.join(",", usersToLoad), dialogs.users);
+                        getUsersInternal(database, usersToLoad, dialogs.users);
                     }
                     MessagesController.getInstance().processLoadedDialogs(dialogs, encryptedChats, offset, count, 1, false, false, true);
                 } catch (Exception e) {
@@ -5983,6 +6456,7 @@ public class MessagesStorage {
                         state.bindInteger(9, (message.flags & TLRPC.MESSAGE_FLAG_HAS_VIEWS) != 0 ? message.views : 0);
                         state.bindInteger(10, 0);
                         state.step();
+                        putMessageSearchText(messageId, dialog.id, message);
 
                         if (SharedMediaQuery.canAddMessageToMedia(message)) {
                             state3.requery();
@@ -6271,7 +6745,7 @@ public class MessagesStorage {
     public ArrayList<TLRPC.User> getUsers(final ArrayList<Integer> uids) {
         ArrayList<TLRPC.User> users = new ArrayList<>();
         try {
-            getUsersInternal(TextUtils.join(",", uids), users);
+            getUsersInternal(uids, users);
         } catch (Exception e) {
             users.clear();
             FileLog.e(e);
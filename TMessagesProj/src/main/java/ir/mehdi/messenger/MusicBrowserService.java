@@ -204,7 +204,7 @@ public class MusicBrowserService extends MediaBrowserService implements Notifica
                             cursor.dispose();
                             if (!usersToLoad.isEmpty()) {
                                 ArrayList<TLRPC.User> usersArrayList = new ArrayList<>();
-                                MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), usersArrayList);
+                                MessagesStorage.getInstance().getUsersInternal(usersToLoad, usersArrayList);
                                 for (int a = 0; a < usersArrayList.size(); a++) {
                                     TLRPC.User user = usersArrayList.get(a);
                                     users.put(user.id, user);
@@ -212,7 +212,7 @@ public class MusicBrowserService extends MediaBrowserService implements Notifica
                             }
                             if (!chatsToLoad.isEmpty()) {
                                 ArrayList<TLRPC.Chat> chatsArrayList = new ArrayList<>();
-                                MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), chatsArrayList);
+                                MessagesStorage.getInstance().getChatsInternal(chatsToLoad, chatsArrayList);
                                 for (int a = 0; a < chatsArrayList.size(); a++) {
                                     TLRPC.Chat chat = chatsArrayList.get(a);
                                     chats.put(chat.id, chat);
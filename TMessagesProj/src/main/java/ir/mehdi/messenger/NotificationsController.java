@@ -164,8 +164,7 @@ public class NotificationsController {
                     FileLog.e(e);
                 }
                 setBadge(0);
-                SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Context.MODE_PRIVATE);
-                SharedPreferences.Editor editor = preferences.edit();
+                SharedPreferences.Editor editor = NotificationsSettingsStore.getInstance().edit();
                 editor.clear();
                 editor.commit();
             }
@@ -578,8 +577,8 @@ public class NotificationsController {
                     int lower_id = (int) dialog_id;
                     boolean isChat = lower_id < 0;
                     if (lower_id != 0) {
-                        if (preferences.getBoolean("custom_" + dialog_id, false)) {
-                            popup = preferences.getInt("popup_" + dialog_id, 0);
+                        if (NotificationsSettingsStore.getInstance().isCustom(dialog_id)) {
+                            popup = NotificationsSettingsStore.getInstance().getPopup(dialog_id);
                         } else {
                             popup = 0;
                         }
@@ -592,7 +591,7 @@ public class NotificationsController {
                         }
                     }
                     if (value == null) {
-                        int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                        int notifyOverride = getNotifyOverride(dialog_id);
                         value = !(notifyOverride == 2 || (!preferences.getBoolean("EnableAll", true) || isChat && !preferences.getBoolean("EnableGroup", true)) && notifyOverride == 0);
                         settingsCache.put(dialog_id, value);
                     }
@@ -646,7 +645,7 @@ public class NotificationsController {
                 for (HashMap.Entry<Long, Integer> entry : dialogsToUpdate.entrySet()) {
                     long dialog_id = entry.getKey();
 
-                    int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                    int notifyOverride = getNotifyOverride(dialog_id);
                     if (notifyCheck) {
                         Integer override = pushDialogsOverrideMention.get(dialog_id);
                         if (override != null && override == 1) {
@@ -764,7 +763,7 @@ public class NotificationsController {
                         }
                         Boolean value = settingsCache.get(dialog_id);
                         if (value == null) {
-                            int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                            int notifyOverride = getNotifyOverride(dialog_id);
                             value = !(notifyOverride == 2 || (!preferences.getBoolean("EnableAll", true) || ((int) dialog_id < 0) && !preferences.getBoolean("EnableGroup", true)) && notifyOverride == 0);
                             settingsCache.put(dialog_id, value);
                         }
@@ -782,7 +781,7 @@ public class NotificationsController {
                     long dialog_id = entry.getKey();
                     Boolean value = settingsCache.get(dialog_id);
                     if (value == null) {
-                        int notifyOverride = getNotifyOverride(preferences, dialog_id);
+                        int notifyOverride = getNotifyOverride(dialog_id);
                         Integer override = pushDialogsOverrideMention.get(dialog_id);
                         if (override != null && override == 1) {
                             pushDialogsOverrideMention.put(dialog_id, 0);
@@ -1355,15 +1354,8 @@ public class NotificationsController {
                 && (messageObject.messageOwner.action == null || messageObject.messageOwner.action instanceof TLRPC.TL_messageActionEmpty);
     }
 
-    private int getNotifyOverride(SharedPreferences preferences, long dialog_id) {
-        int notifyOverride = preferences.getInt("notify2_" + dialog_id, 0);
-        if (notifyOverride == 3) {
-            int muteUntil = preferences.getInt("notifyuntil_" + dialog_id, 0);
-            if (muteUntil >= ConnectionsManager.getInstance().getCurrentTime()) {
-                notifyOverride = 2;
-            }
-        }
-        return notifyOverride;
+    private int getNotifyOverride(long dialog_id) {
+        return NotificationsSettingsStore.getInstance().getNotifyOverride(dialog_id, ConnectionsManager.getInstance().getCurrentTime());
     }
 
     private void dismissNotification() {
@@ -1436,8 +1428,7 @@ public class NotificationsController {
         }
 
         try {
-            SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Context.MODE_PRIVATE);
-            int notifyOverride = getNotifyOverride(preferences, opened_dialog_id);
+            int notifyOverride = getNotifyOverride(opened_dialog_id);
             if (notifyOverride == 2) {
                 return;
             }
@@ -1560,7 +1551,7 @@ public class NotificationsController {
             int priorityOverride;
             int vibrateOverride;
 
-            int notifyOverride = getNotifyOverride(preferences, override_dialog_id);
+            int notifyOverride = getNotifyOverride(override_dialog_id);
             if (!notifyAboutLast || notifyOverride == 2 || (!preferences.getBoolean("EnableAll", true) || chat_id != 0 && !preferences.getBoolean("EnableGroup", true)) && notifyOverride == 0) {
                 notifyDisabled = true;
             }
@@ -1568,9 +1559,9 @@ public class NotificationsController {
             if (!notifyDisabled && dialog_id == override_dialog_id && chat != null) {
                 int notifyMaxCount;
                 int notifyDelay;
-                if (preferences.getBoolean("custom_" + dialog_id, false)) {
-                    notifyMaxCount = preferences.getInt("smart_max_count_" + dialog_id, 2);
-                    notifyDelay = preferences.getInt("smart_delay_" + dialog_id, 3 * 60);
+                if (NotificationsSettingsStore.getInstance().isCustom(dialog_id)) {
+                    notifyMaxCount = NotificationsSettingsStore.getInstance().getSmartMaxCount(dialog_id);
+                    notifyDelay = NotificationsSettingsStore.getInstance().getSmartDelay(dialog_id);
                 } else {
                     notifyMaxCount = 2;
                     notifyDelay = 3 * 60;
@@ -1603,10 +1594,10 @@ public class NotificationsController {
                 inAppPreview = preferences.getBoolean("EnableInAppPreview", true);
                 inAppPriority = preferences.getBoolean("EnableInAppPriority", false);
                 boolean custom;
-                if (custom = preferences.getBoolean("custom_" + dialog_id, false)) {
-                    vibrateOverride = preferences.getInt("vibrate_" + dialog_id, 0);
-                    priorityOverride = preferences.getInt("priority_" + dialog_id, 3);
-                    choosenSoundPath = preferences.getString("sound_path_" + dialog_id, null);
+                if (custom = NotificationsSettingsStore.getInstance().isCustom(dialog_id)) {
+                    vibrateOverride = NotificationsSettingsStore.getInstance().getVibrate(dialog_id);
+                    priorityOverride = NotificationsSettingsStore.getInstance().getPriority(dialog_id);
+                    choosenSoundPath = NotificationsSettingsStore.getInstance().getSoundPath(dialog_id);
                 } else {
                     vibrateOverride = 0;
                     priorityOverride = 3;
@@ -1635,8 +1626,8 @@ public class NotificationsController {
                     ledColor = preferences.getInt("MessagesLed", 0xff0000ff);
                 }
                 if (custom) {
-                    if (preferences.contains("color_" + dialog_id)) {
-                        ledColor = preferences.getInt("color_" + dialog_id, 0);
+                    if (NotificationsSettingsStore.getInstance().hasColor(dialog_id)) {
+                        ledColor = NotificationsSettingsStore.getInstance().getColor(dialog_id);
                     }
                 }
 
@@ -0,0 +1,300 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-dialog notification settings kept in memory by dialog id. The values still live in the
+ * "Notifications" preferences, which stay the only place they are written to; this store mirrors
+ * them so notification decisions don't build and look up string keys for every message. The
+ * change listener only runs on the main thread, so code that writes from other threads uses
+ * {@link #edit()}, which updates the mirror as part of the commit.
+ */
+public class NotificationsSettingsStore implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static class DialogSettings {
+        private boolean custom;
+        private int popup;
+        private int notifyOverride;
+        private int muteUntil;
+        private int smartMaxCount = 2;
+        private int smartDelay = 3 * 60;
+        private int vibrate;
+        private int priority = 3;
+        private String soundPath;
+        private boolean hasColor;
+        private int color;
+    }
+
+    private static final String[] keyPrefixes = new String[] {"custom_", "popup_", "notify2_", "notifyuntil_", "smart_max_count_", "smart_delay_", "vibrate_", "priority_", "sound_path_", "color_"};
+
+    private SharedPreferences preferences;
+    private LongSparseArray<DialogSettings> dialogSettings = new LongSparseArray<>();
+
+    private static volatile NotificationsSettingsStore Instance = null;
+
+    public static NotificationsSettingsStore getInstance() {
+        NotificationsSettingsStore localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (NotificationsSettingsStore.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new NotificationsSettingsStore();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    private class Editor implements SharedPreferences.Editor {
+
+        private SharedPreferences.Editor editor = preferences.edit();
+        private ArrayList<String> keys = new ArrayList<>();
+        private boolean cleared;
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            editor.putString(key, value);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            editor.putStringSet(key, values);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            editor.remove(key);
+            keys.add(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            editor.clear();
+            cleared = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            boolean result = editor.commit();
+            updateKeys(keys, cleared);
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+            updateKeys(keys, cleared);
+        }
+    }
+
+    private NotificationsSettingsStore() {
+        preferences = ApplicationLoader.applicationContext.getSharedPreferences("Notifications", Context.MODE_PRIVATE);
+        preferences.registerOnSharedPreferenceChangeListener(this);
+        reload();
+    }
+
+    public synchronized void reload() {
+        dialogSettings.clear();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            updateKey(entry.getKey());
+        }
+    }
+
+    /**
+     * An editor of the "Notifications" preferences that updates this store as soon as it commits
+     * or applies, on whatever thread that happens.
+     */
+    public SharedPreferences.Editor edit() {
+        return new Editor();
+    }
+
+    private synchronized void updateKeys(ArrayList<String> keys, boolean cleared) {
+        if (cleared) {
+            reload();
+            return;
+        }
+        for (int a = 0; a < keys.size(); a++) {
+            updateKey(keys.get(a));
+        }
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key == null) {
+            reload();
+        } else {
+            synchronized (this) {
+                updateKey(key);
+            }
+        }
+    }
+
+    private void updateKey(String key) {
+        int prefix = -1;
+        for (int a = 0; a < keyPrefixes.length; a++) {
+            if (key.startsWith(keyPrefixes[a])) {
+                prefix = a;
+                break;
+            }
+        }
+        if (prefix == -1) {
+            return;
+        }
+        long dialog_id;
+        try {
+            dialog_id = Long.parseLong(key.substring(keyPrefixes[prefix].length()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        if (settings == null) {
+            settings = new DialogSettings();
+            dialogSettings.put(dialog_id, settings);
+        }
+        try {
+            switch (prefix) {
+                case 0:
+                    settings.custom = preferences.getBoolean(key, false);
+                    break;
+                case 1:
+                    settings.popup = preferences.getInt(key, 0);
+                    break;
+                case 2:
+                    settings.notifyOverride = preferences.getInt(key, 0);
+                    break;
+                case 3:
+                    settings.muteUntil = preferences.getInt(key, 0);
+                    break;
+                case 4:
+                    settings.smartMaxCount = preferences.getInt(key, 2);
+                    break;
+                case 5:
+                    settings.smartDelay = preferences.getInt(key, 3 * 60);
+                    break;
+                case 6:
+                    settings.vibrate = preferences.getInt(key, 0);
+                    break;
+                case 7:
+                    settings.priority = preferences.getInt(key, 3);
+                    break;
+                case 8:
+                    settings.soundPath = preferences.getString(key, null);
+                    break;
+                case 9:
+                    settings.hasColor = preferences.contains(key);
+                    settings.color = preferences.getInt(key, 0);
+                    break;
+            }
+        } catch (ClassCastException e) {
+            FileLog.e(e);
+        }
+    }
+
+    public synchronized boolean isCustom(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null && settings.custom;
+    }
+
+    public synchronized int getPopup(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.popup : 0;
+    }
+
+    /**
+     * Returns the stored mute type of a dialog, with a timed mute (3) that is still running
+     * reported as muted (2).
+     */
+    public synchronized int getNotifyOverride(long dialog_id, int currentTime) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        if (settings == null) {
+            return 0;
+        }
+        if (settings.notifyOverride == 3 && settings.muteUntil >= currentTime) {
+            return 2;
+        }
+        return settings.notifyOverride;
+    }
+
+    public synchronized int getSmartMaxCount(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.smartMaxCount : 2;
+    }
+
+    public synchronized int getSmartDelay(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.smartDelay : 3 * 60;
+    }
+
+    public synchronized int getVibrate(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.vibrate : 0;
+    }
+
+    public synchronized int getPriority(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.priority : 3;
+    }
+
+    public synchronized String getSoundPath(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.soundPath : null;
+    }
+
+    public synchronized boolean hasColor(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null && settings.hasColor;
+    }
+
+    public synchronized int getColor(long dialog_id) {
+        DialogSettings settings = dialogSettings.get(dialog_id);
+        return settings != null ? settings.color : 0;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import java.util.Arrays;
+
+/**
+ * Int-keyed cache of users or chats that is safe to use from any thread. When it grows over its
+ * limit, the least recently used quarter is dropped. A later lookup of a dropped id never waits
+ * for the database: it returns null and starts {@link #load(int)}, which puts the entry back.
+ * Dropped ids are remembered for at most {@link #maxEvictedCount} entries. Pinned ids (contacts,
+ * open dialogs) are never dropped.
+ */
+public abstract class PeerCache<T> {
+
+    private final int maxCount;
+    private SparseArray<T> values = new SparseArray<>();
+    private SparseIntArray accessTimes = new SparseIntArray();
+    private SparseIntArray sizes = new SparseIntArray();
+    private final int maxEvictedCount;
+    private SparseBooleanArray evicted = new SparseBooleanArray();
+    private SparseBooleanArray loading = new SparseBooleanArray();
+    private SparseBooleanArray pinned = new SparseBooleanArray();
+    private int accessCounter;
+    private long estimatedSize;
+    private int evictedCount;
+
+    public PeerCache(int maxCount) {
+        this.maxCount = maxCount;
+        maxEvictedCount = maxCount * 2;
+    }
+
+    /**
+     * Starts loading a dropped entry back. It is called without holding the cache lock and must not
+     * block the calling thread. The result goes back with {@link #put(int, Object)}, or
+     * {@link #loadFailed(int)} if the entry is gone. If the entry is put back before load returns,
+     * get returns it right away.
+     */
+    protected abstract void load(int id);
+
+    protected abstract int getSize(T value);
+
+    protected boolean canEvict(int id, T value) {
+        return true;
+    }
+
+    protected void onEvicted(T value) {
+
+    }
+
+    public T get(int id) {
+        synchronized (this) {
+            T value = values.get(id);
+            if (value != null) {
+                accessTimes.put(id, ++accessCounter);
+                return value;
+            }
+            if (!evicted.get(id) || loading.get(id)) {
+                return null;
+            }
+            loading.put(id, true);
+        }
+        load(id);
+        synchronized (this) {
+            return values.get(id);
+        }
+    }
+
+    public synchronized void loadFailed(int id) {
+        evicted.delete(id);
+        loading.delete(id);
+    }
+
+    public synchronized T peek(int id) {
+        return values.get(id);
+    }
+
+    public synchronized boolean isEvicted(int id) {
+        return evicted.get(id);
+    }
+
+    public synchronized void setPinned(int id, boolean value) {
+        if (value) {
+            pinned.put(id, true);
+        } else {
+            pinned.delete(id);
+        }
+    }
+
+    public void put(int id, T value) {
+        synchronized (this) {
+            int size = getSize(value);
+            estimatedSize += size - sizes.get(id);
+            values.put(id, value);
+            sizes.put(id, size);
+            accessTimes.put(id, ++accessCounter);
+            evicted.delete(id);
+            loading.delete(id);
+            if (values.size() <= maxCount) {
+                return;
+            }
+        }
+        trim();
+    }
+
+    public synchronized void clear() {
+        values.clear();
+        accessTimes.clear();
+        sizes.clear();
+        evicted.clear();
+        loading.clear();
+        pinned.clear();
+        estimatedSize = 0;
+    }
+
+    public synchronized int getResidentCount() {
+        return values.size();
+    }
+
+    public synchronized long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    public synchronized int getEvictedCount() {
+        return evictedCount;
+    }
+
+    private void trim() {
+        SparseArray<T> removed = new SparseArray<>();
+        synchronized (this) {
+            int count = values.size();
+            int[] times = new int[count];
+            for (int a = 0; a < count; a++) {
+                times[a] = accessTimes.valueAt(a);
+            }
+            Arrays.sort(times);
+            int threshold = times[count - maxCount * 3 / 4];
+            for (int a = 0; a < values.size(); a++) {
+                int id = values.keyAt(a);
+                T value = values.valueAt(a);
+                if (accessTimes.valueAt(a) < threshold && !pinned.get(id) && canEvict(id, value)) {
+                    removed.put(id, value);
+                }
+            }
+            if (evicted.size() + removed.size() > maxEvictedCount) {
+                // dropped ids that are not being loaded are forgotten, as if they had never been cached
+                evicted.clear();
+                for (int a = 0; a < loading.size(); a++) {
+                    evicted.put(loading.keyAt(a), true);
+                }
+            }
+            for (int a = 0; a < removed.size(); a++) {
+                int id = removed.keyAt(a);
+                estimatedSize -= sizes.get(id);
+                values.remove(id);
+                accessTimes.delete(id);
+                sizes.delete(id);
+                evicted.put(id, true);
+            }
+            evictedCount += removed.size();
+        }
+        for (int a = 0; a < removed.size(); a++) {
+            onEvicted(removed.valueAt(a));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of worker threads that runs posted runnables by priority instead of in posting order.
+ * Runnables with the same priority run newest first, so requests that were posted a moment ago
+ * (e.g. for views that just scrolled in) overtake the old ones still waiting in the queue.
+ */
+public class PriorityDispatchQueue {
+
+    private class Task implements Runnable, Comparable<Task> {
+
+        private final Runnable runnable;
+        private final int priority;
+        private final long sequence;
+        private final long postTime;
+
+        Task(Runnable runnable, int priority) {
+            this.runnable = runnable;
+            this.priority = priority;
+            sequence = sequenceCounter.incrementAndGet();
+            postTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            if (!pendingTasks.remove(runnable, this)) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            totalWaitTime.addAndGet(startTime - postTime);
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                FileLog.e(e);
+            }
+            totalRunTime.addAndGet(System.currentTimeMillis() - startTime);
+            completedTasksCount.incrementAndGet();
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (priority != another.priority) {
+                return priority > another.priority ? -1 : 1;
+            }
+            if (sequence != another.sequence) {
+                return sequence > another.sequence ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<Runnable, Task> pendingTasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequenceCounter = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong totalRunTime = new AtomicLong();
+    private final AtomicInteger completedTasksCount = new AtomicInteger();
+    private volatile int maxQueueSize;
+
+    public PriorityDispatchQueue(final String threadName, int threadsCount, final int threadPriority) {
+        threadsCount = Math.max(1, threadsCount);
+        executor = new ThreadPoolExecutor(threadsCount, threadsCount, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger threadNum = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName + threadNum.getAndIncrement());
+                thread.setPriority(threadPriority);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void setThreadsCount(int count) {
+        count = Math.max(1, count);
+        if (count > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(count);
+            executor.setCorePoolSize(count);
+        } else {
+            executor.setCorePoolSize(count);
+            executor.setMaximumPoolSize(count);
+        }
+    }
+
+    public int getThreadsCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public void postRunnable(Runnable runnable) {
+        postRunnable(runnable, 0);
+    }
+
+    public void postRunnable(Runnable runnable, int priority) {
+        Task task = new Task(runnable, priority);
+        Task old = pendingTasks.put(runnable, task);
+        if (old != null) {
+            executor.remove(old);
+        }
+        executor.execute(task);
+        int size = pendingTasks.size();
+        if (size > maxQueueSize) {
+            maxQueueSize = size;
+        }
+    }
+
+    /**
+     * Moves a runnable that is still waiting in the queue to another priority. Does nothing if it
+     * has already started or was never posted.
+     */
+    public void setPriority(Runnable runnable, int priority) {
+        Task task = pendingTasks.get(runnable);
+        if (task == null || task.priority == priority) {
+            return;
+        }
+        Task newTask = new Task(runnable, priority);
+        if (pendingTasks.replace(runnable, task, newTask)) {
+            executor.remove(task);
+            executor.execute(newTask);
+        }
+    }
+
+    public void cancelRunnable(Runnable runnable) {
+        Task task = pendingTasks.remove(runnable);
+        if (task != null) {
+            executor.remove(task);
+        }
+    }
+
+    public void cleanupQueue() {
+        pendingTasks.clear();
+        executor.getQueue().clear();
+    }
+
+    public int getQueueSize() {
+        return pendingTasks.size();
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public int getCompletedTasksCount() {
+        return completedTasksCount.get();
+    }
+
+    public long getAverageWaitTime() {
+        int count = completedTasksCount.get();
+        return count != 0 ? totalWaitTime.get() / count : 0;
+    }
+
+    public long getAverageRunTime() {
+        int count = completedTasksCount.get();
+        return count != 0 ? totalRunTime.get() / count : 0;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.messenger;
+
+import android.util.SparseArray;
+
+import java.util.HashMap;
+
+/**
+ * Collects read max ids per dialog from incoming updates for {@link #flushDelay} ms, then writes
+ * them in one storage task and posts one UI update for all of them.
+ */
+public class ReadStateAggregator {
+
+    private static final int flushDelay = 100;
+
+    private SparseArray<Long> inbox = new SparseArray<>();
+    private SparseArray<Long> outbox = new SparseArray<>();
+    private HashMap<Integer, Integer> encrypted = new HashMap<>();
+    private boolean flushScheduled;
+    private int addedCount;
+    private int flushedCount;
+
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public void add(SparseArray<Long> newInbox, SparseArray<Long> newOutbox, HashMap<Integer, Integer> newEncrypted) {
+        synchronized (this) {
+            mergeMaxIds(inbox, newInbox);
+            mergeMaxIds(outbox, newOutbox);
+            for (HashMap.Entry<Integer, Integer> entry : newEncrypted.entrySet()) {
+                Integer date = encrypted.get(entry.getKey());
+                if (date == null || date < entry.getValue()) {
+                    encrypted.put(entry.getKey(), entry.getValue());
+                }
+            }
+            addedCount++;
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        MessagesStorage.getInstance().getStorageQueue().postRunnable(flushRunnable, flushDelay);
+    }
+
+    public void clear() {
+        synchronized (this) {
+            inbox = new SparseArray<>();
+            outbox = new SparseArray<>();
+            encrypted = new HashMap<>();
+            flushScheduled = false;
+        }
+        MessagesStorage.getInstance().getStorageQueue().cancelRunnable(flushRunnable);
+    }
+
+    public synchronized int getAddedCount() {
+        return addedCount;
+    }
+
+    public synchronized int getFlushedCount() {
+        return flushedCount;
+    }
+
+    private static void mergeMaxIds(SparseArray<Long> target, SparseArray<Long> source) {
+        for (int a = 0; a < source.size(); a++) {
+            int key = source.keyAt(a);
+            Long messageId = target.get(key);
+            if (messageId == null || messageId < source.valueAt(a)) {
+                target.put(key, source.valueAt(a));
+            }
+        }
+    }
+
+    private void flush() {
+        final SparseArray<Long> flushInbox;
+        final SparseArray<Long> flushOutbox;
+        final HashMap<Integer, Integer> flushEncrypted;
+        synchronized (this) {
+            if (!flushScheduled) {
+                return;
+            }
+            flushInbox = inbox;
+            flushOutbox = outbox;
+            flushEncrypted = encrypted;
+            inbox = new SparseArray<>();
+            outbox = new SparseArray<>();
+            encrypted = new HashMap<>();
+            flushScheduled = false;
+            flushedCount++;
+        }
+        if (flushInbox.size() != 0) {
+            MessagesStorage.getInstance().updateDialogsWithReadMessages(flushInbox, flushOutbox, false);
+        }
+        MessagesStorage.getInstance().markMessagesAsRead(flushInbox, flushOutbox, flushEncrypted, false);
+        AndroidUtilities.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                MessagesController.getInstance().processReadStateUpdates(flushInbox, flushOutbox, flushEncrypted);
+            }
+        });
+    }
+}
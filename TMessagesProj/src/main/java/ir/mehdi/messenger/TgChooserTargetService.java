@@ -98,10 +98,10 @@ public class TgChooserTargetService extends ChooserTargetService {
                     }
                     cursor.dispose();
                     if (!chatsToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                        MessagesStorage.getInstance().getChatsInternal(chatsToLoad, chats);
                     }
                     if (!usersToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                        MessagesStorage.getInstance().getUsersInternal(usersToLoad, users);
                     }
                 } catch (Exception e) {
                     FileLog.e(e);
@@ -348,7 +348,7 @@ public class UserConfig {
                             }
                         }
                         if (!customDialogs.isEmpty()) {
-                            SharedPreferences.Editor editor = preferences.edit();
+                            SharedPreferences.Editor editor = NotificationsSettingsStore.getInstance().edit();
                             for (int a = 0; a < customDialogs.size(); a++) {
                                 editor.putBoolean("custom_" + customDialogs.get(a), true);
                             }
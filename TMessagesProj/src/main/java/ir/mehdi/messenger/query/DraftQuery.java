@@ -10,13 +10,17 @@ package ir.mehdi.messenger.query;
 
 import android.app.Activity;
 import android.content.SharedPreferences;
+import android.support.v4.util.LongSparseArray;
 import android.text.TextUtils;
 
 import ir.mehdi.SQLite.SQLiteCursor;
+import ir.mehdi.SQLite.SQLiteDatabase;
+import ir.mehdi.SQLite.SQLitePreparedStatement;
 import ir.mehdi.messenger.AndroidUtilities;
 import ir.mehdi.messenger.ApplicationLoader;
 import ir.mehdi.messenger.ChatObject;
 import ir.mehdi.messenger.FileLog;
+import ir.mehdi.messenger.LazyMessage;
 import ir.mehdi.messenger.MessagesController;
 import ir.mehdi.messenger.MessagesStorage;
 import ir.mehdi.messenger.NotificationCenter;
@@ -31,39 +35,259 @@ import ir.mehdi.tgnet.TLRPC;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 
+/**
+ * Drafts live in the drafts table of {@link MessagesStorage} and are kept in memory by dialog id.
+ * The table is read once on the storage queue, reply messages are only deserialized when their
+ * dialog asks for them, and changes are written back in batches, so saving a draft never waits
+ * for the disk.
+ */
 public class DraftQuery {
 
-    private static HashMap<Long, TLRPC.DraftMessage> drafts        = new HashMap<>();
-    private static HashMap<Long, TLRPC.Message>      draftMessages = new HashMap<>();
+    private static final int writeDelay = 500;
+
+    private static LongSparseArray<TLRPC.DraftMessage> drafts = new LongSparseArray<>();
+    private static LongSparseArray<TLRPC.Message> draftMessages = new LongSparseArray<>();
+    private static LongSparseArray<LazyMessage> storedDraftMessages = new LongSparseArray<>();
     private static boolean inTransaction;
     private static SharedPreferences preferences;
     private static boolean loadingDrafts;
+    private static boolean draftsRead;
+    private static HashSet<Long> changedBeforeRead = new HashSet<>();
+    private static final HashMap<Long, byte[][]> pendingWrites = new HashMap<>();
+    private static boolean writeScheduled;
+
+    private static Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeDrafts();
+        }
+    };
 
     static {
         preferences = ApplicationLoader.applicationContext.getSharedPreferences("drafts", Activity.MODE_PRIVATE);
+        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                readDrafts();
+            }
+        });
+    }
+
+    private static void importPreferences() {
         Map<String, ?> values = preferences.getAll();
+        if (values.isEmpty()) {
+            return;
+        }
+        HashMap<Long, byte[][]> rows = new HashMap<>();
         for (Map.Entry<String, ?> entry : values.entrySet()) {
             try {
                 String key = entry.getKey();
                 long did = Utilities.parseLong(key);
-                byte[] bytes = Utilities.hexToBytes((String) entry.getValue());
-                SerializedData serializedData = new SerializedData(bytes);
-                if (key.startsWith("r_")) {
-                    TLRPC.Message message = TLRPC.Message.TLdeserialize(serializedData, serializedData.readInt32(true), true);
-                    if (message != null) {
-                        draftMessages.put(did, message);
+                byte[][] row = rows.get(did);
+                if (row == null) {
+                    row = new byte[2][];
+                    rows.put(did, row);
+                }
+                row[key.startsWith("r_") ? 1 : 0] = Utilities.hexToBytes((String) entry.getValue());
+            } catch (Exception e) {
+                //igonre
+            }
+        }
+        for (HashMap.Entry<Long, byte[][]> entry : rows.entrySet()) {
+            if (entry.getValue()[0] == null) {
+                entry.setValue(null);
+            }
+        }
+        if (putDraftsToStorage(rows)) {
+            preferences.edit().clear().commit();
+        }
+    }
+
+    private static void readDrafts() {
+        final LongSparseArray<TLRPC.DraftMessage> readDrafts = new LongSparseArray<>();
+        final LongSparseArray<LazyMessage> readMessages = new LongSparseArray<>();
+        try {
+            importPreferences();
+            SQLiteCursor cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT did, data, reply FROM drafts");
+            while (cursor.next()) {
+                long did = cursor.longValue(0);
+                NativeByteBuffer data = cursor.byteBufferValue(1);
+                if (data == null) {
+                    continue;
+                }
+                TLRPC.DraftMessage draftMessage = TLRPC.DraftMessage.TLdeserialize(data, data.readInt32(false), false);
+                data.reuse();
+                if (draftMessage == null) {
+                    continue;
+                }
+                readDrafts.put(did, draftMessage);
+                if (!cursor.isNull(2)) {
+                    data = cursor.byteBufferValue(2);
+                    if (data != null) {
+                        LazyMessage message = LazyMessage.read(data);
+                        data.reuse();
+                        if (message != null) {
+                            readMessages.put(did, message);
+                        }
                     }
-                } else {
-                    TLRPC.DraftMessage draftMessage = TLRPC.DraftMessage.TLdeserialize(serializedData, serializedData.readInt32(true), true);
-                    if (draftMessage != null) {
-                        drafts.put(did, draftMessage);
+                }
+            }
+            cursor.dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        AndroidUtilities.runOnUIThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int a = 0; a < readDrafts.size(); a++) {
+                    long did = readDrafts.keyAt(a);
+                    if (changedBeforeRead.contains(did)) {
+                        continue;
                     }
+                    drafts.put(did, readDrafts.valueAt(a));
+                    LazyMessage message = readMessages.get(did);
+                    if (message != null) {
+                        storedDraftMessages.put(did, message);
+                    }
+                }
+                changedBeforeRead.clear();
+                draftsRead = true;
+                if (readDrafts.size() != 0) {
+                    MessagesController.getInstance().sortDialogs(null);
+                    NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
+                }
+            }
+        });
+    }
+
+    private static byte[] serialize(TLObject object) {
+        SerializedData serializedData = new SerializedData(object.getObjectSize());
+        object.serializeToStream(serializedData);
+        byte[] bytes = serializedData.toByteArray();
+        serializedData.cleanup();
+        return bytes;
+    }
+
+    private static void putDraftToStorage(long did) {
+        byte[][] row = null;
+        TLRPC.DraftMessage draft = drafts.get(did);
+        if (draft != null) {
+            row = new byte[2][];
+            try {
+                row[0] = serialize(draft);
+                TLRPC.Message replyToMessage = getDraftMessage(did);
+                if (replyToMessage != null) {
+                    row[1] = serialize(replyToMessage);
                 }
             } catch (Exception e) {
-                //igonre
+                FileLog.e(e);
+                return;
+            }
+        }
+        if (!draftsRead) {
+            changedBeforeRead.add(did);
+        }
+        synchronized (pendingWrites) {
+            pendingWrites.put(did, row);
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        MessagesStorage.getInstance().getStorageQueue().postRunnable(writeRunnable, writeDelay);
+    }
+
+    private static void writeDrafts() {
+        HashMap<Long, byte[][]> rows;
+        synchronized (pendingWrites) {
+            if (!writeScheduled) {
+                return;
+            }
+            rows = new HashMap<>(pendingWrites);
+            pendingWrites.clear();
+            writeScheduled = false;
+        }
+        if (putDraftsToStorage(rows)) {
+            return;
+        }
+        synchronized (pendingWrites) {
+            for (HashMap.Entry<Long, byte[][]> entry : rows.entrySet()) {
+                // a draft saved meanwhile is newer than the one that failed
+                if (!pendingWrites.containsKey(entry.getKey())) {
+                    pendingWrites.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        MessagesStorage.getInstance().getStorageQueue().postRunnable(writeRunnable, writeDelay);
+    }
+
+    /**
+     * Writes the rows in one transaction and commits it right away. Returns false if they could
+     * not be stored, in which case none of them were.
+     */
+    private static boolean putDraftsToStorage(HashMap<Long, byte[][]> rows) {
+        SQLiteDatabase database = MessagesStorage.getInstance().getDatabase();
+        if (database == null) {
+            return false;
+        }
+        boolean transactionOpen = false;
+        SQLitePreparedStatement state = null;
+        SQLitePreparedStatement deleteState = null;
+        try {
+            database.beginTransaction();
+            transactionOpen = true;
+            state = database.executeFast("REPLACE INTO drafts VALUES(?, ?, ?)");
+            deleteState = database.executeFast("DELETE FROM drafts WHERE did = ?");
+            for (HashMap.Entry<Long, byte[][]> entry : rows.entrySet()) {
+                byte[][] row = entry.getValue();
+                if (row == null) {
+                    deleteState.requery();
+                    deleteState.bindLong(1, entry.getKey());
+                    deleteState.step();
+                    continue;
+                }
+                NativeByteBuffer data = new NativeByteBuffer(row[0].length);
+                data.writeBytes(row[0]);
+                NativeByteBuffer reply = null;
+                state.requery();
+                state.bindLong(1, entry.getKey());
+                state.bindByteBuffer(2, data);
+                if (row[1] != null) {
+                    reply = new NativeByteBuffer(row[1].length);
+                    reply.writeBytes(row[1]);
+                    state.bindByteBuffer(3, reply);
+                } else {
+                    state.bindNull(3);
+                }
+                state.step();
+                data.reuse();
+                if (reply != null) {
+                    reply.reuse();
+                }
+            }
+            transactionOpen = false;
+            database.commitTransaction();
+            return database.flushGroupTransaction();
+        } catch (Exception e) {
+            FileLog.e(e);
+            return false;
+        } finally {
+            if (state != null) {
+                state.dispose();
+            }
+            if (deleteState != null) {
+                deleteState.dispose();
+            }
+            if (transactionOpen) {
+                database.rollbackTransaction();
             }
         }
     }
@@ -96,6 +320,22 @@ public class DraftQuery {
     public static void cleanup() {
         drafts.clear();
         draftMessages.clear();
+        storedDraftMessages.clear();
+        synchronized (pendingWrites) {
+            pendingWrites.clear();
+            writeScheduled = false;
+        }
+        MessagesStorage.getInstance().getStorageQueue().cancelRunnable(writeRunnable);
+        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MessagesStorage.getInstance().getDatabase().executeFast("DELETE FROM drafts").stepThis().dispose();
+                } catch (Exception e) {
+                    FileLog.e(e);
+                }
+            }
+        });
         preferences.edit().clear().commit();
     }
 
@@ -104,7 +344,18 @@ public class DraftQuery {
     }
 
     public static TLRPC.Message getDraftMessage(long did) {
-        return draftMessages.get(did);
+        TLRPC.Message message = draftMessages.get(did);
+        if (message == null) {
+            LazyMessage storedMessage = storedDraftMessages.get(did);
+            if (storedMessage != null) {
+                storedDraftMessages.remove(did);
+                message = storedMessage.getMessage();
+                if (message != null) {
+                    draftMessages.put(did, message);
+                }
+            }
+        }
+        return message;
     }
 
     public static void saveDraft(long did, CharSequence message, ArrayList<TLRPC.MessageEntity> entities, TLRPC.Message replyToMessage, boolean noWebpage) {
@@ -158,36 +409,27 @@ public class DraftQuery {
                 }
             });
         }
-        MessagesController.getInstance().sortDialogs(null);
+        TLRPC.TL_dialog dialog = MessagesController.getInstance().dialogs_dict.get(did);
+        if (dialog != null) {
+            MessagesController.getInstance().updateDialogPosition(dialog);
+            MessagesController.getInstance().refreshDialogsList();
+        }
         NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
     }
 
     public static void saveDraft(final long did, TLRPC.DraftMessage draft, TLRPC.Message replyToMessage, boolean fromServer) {
-        SharedPreferences.Editor editor = preferences.edit();
         if (draft == null || draft instanceof TLRPC.TL_draftMessageEmpty) {
             drafts.remove(did);
-            draftMessages.remove(did);
-            preferences.edit().remove("" + did).remove("r_" + did).commit();
         } else {
             drafts.put(did, draft);
-            try {
-                SerializedData serializedData = new SerializedData(draft.getObjectSize());
-                draft.serializeToStream(serializedData);
-                editor.putString("" + did, Utilities.bytesToHex(serializedData.toByteArray()));
-            } catch (Exception e) {
-                FileLog.e(e);
-            }
         }
+        storedDraftMessages.remove(did);
         if (replyToMessage == null) {
             draftMessages.remove(did);
-            editor.remove("r_" + did);
         } else {
             draftMessages.put(did, replyToMessage);
-            SerializedData serializedData = new SerializedData(replyToMessage.getObjectSize());
-            replyToMessage.serializeToStream(serializedData);
-            editor.putString("r_" + did, Utilities.bytesToHex(serializedData.toByteArray()));
         }
-        editor.commit();
+        putDraftToStorage(did);
         if (fromServer) {
             if (draft.reply_to_msg_id != 0 && replyToMessage == null) {
                 int lower_id = (int) did;
@@ -278,9 +520,8 @@ public class DraftQuery {
                 TLRPC.DraftMessage draftMessage = drafts.get(did);
                 if (draftMessage != null && draftMessage.reply_to_msg_id == message.id) {
                     draftMessages.put(did, message);
-                    SerializedData serializedData = new SerializedData(message.getObjectSize());
-                    message.serializeToStream(serializedData);
-                    preferences.edit().putString("r_" + did, Utilities.bytesToHex(serializedData.toByteArray())).commit();
+                    storedDraftMessages.remove(did);
+                    putDraftToStorage(did);
                     NotificationCenter.getInstance().postNotificationName(NotificationCenter.newDraftReceived, did);
                 }
             }
@@ -295,8 +536,13 @@ public class DraftQuery {
         if (!replyOnly) {
             drafts.remove(did);
             draftMessages.remove(did);
-            preferences.edit().remove("" + did).remove("r_" + did).commit();
-            MessagesController.getInstance().sortDialogs(null);
+            storedDraftMessages.remove(did);
+            putDraftToStorage(did);
+            TLRPC.TL_dialog dialog = MessagesController.getInstance().dialogs_dict.get(did);
+            if (dialog != null) {
+                MessagesController.getInstance().updateDialogPosition(dialog);
+                MessagesController.getInstance().refreshDialogsList();
+            }
             NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
         } else if (draftMessage.reply_to_msg_id != 0) {
             draftMessage.reply_to_msg_id = 0;
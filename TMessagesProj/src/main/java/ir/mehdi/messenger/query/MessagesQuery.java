@@ -133,10 +133,10 @@ public class MessagesQuery {
                     return broadcastPinnedMessage(result, users, chats, true, returnValue);
                 } else {
                     if (!usersToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                        MessagesStorage.getInstance().getUsersInternal(usersToLoad, users);
                     }
                     if (!chatsToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                        MessagesStorage.getInstance().getChatsInternal(chatsToLoad, chats);
                     }
                     broadcastPinnedMessage(result, users, chats, true, false);
                 }
@@ -331,10 +331,10 @@ public class MessagesQuery {
                         cursor.dispose();
 
                         if (!usersToLoad.isEmpty()) {
-                            MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                            MessagesStorage.getInstance().getUsersInternal(usersToLoad, users);
                         }
                         if (!chatsToLoad.isEmpty()) {
-                            MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                            MessagesStorage.getInstance().getChatsInternal(chatsToLoad, chats);
                         }
                         broadcastReplyMessages(result, replyMessageOwners, users, chats, dialogId, true);
 
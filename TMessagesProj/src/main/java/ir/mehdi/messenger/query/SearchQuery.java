@@ -285,11 +285,11 @@ public class SearchQuery {
                         }
                         cursor.dispose();
                         if (!usersToLoad.isEmpty()) {
-                            MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                            MessagesStorage.getInstance().getUsersInternal(usersToLoad, users);
                         }
 
                         if (!chatsToLoad.isEmpty()) {
-                            MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                            MessagesStorage.getInstance().getChatsInternal(chatsToLoad, chats);
                         }
                         AndroidUtilities.runOnUIThread(new Runnable() {
                             @Override
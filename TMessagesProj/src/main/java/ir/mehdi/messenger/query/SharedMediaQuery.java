@@ -399,10 +399,10 @@ public class SharedMediaQuery {
                     cursor.dispose();
 
                     if (!usersToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), res.users);
+                        MessagesStorage.getInstance().getUsersInternal(usersToLoad, res.users);
                     }
                     if (!chatsToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), res.chats);
+                        MessagesStorage.getInstance().getChatsInternal(chatsToLoad, res.chats);
                     }
                     if (res.messages.size() > count) {
                         topReached = false;
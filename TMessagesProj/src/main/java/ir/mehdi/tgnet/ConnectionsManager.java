@@ -69,6 +69,7 @@ public class ConnectionsManager {
     private AtomicInteger lastRequestToken = new AtomicInteger(1);
     private PowerManager.WakeLock wakeLock;
     private int appResumeCount;
+    private RequestCoalescer requestCoalescer = new RequestCoalescer(this);
 
     private static volatile ConnectionsManager Instance = null;
 
@@ -136,70 +137,106 @@ public class ConnectionsManager {
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                FileLog.d("send request " + object + " with token = " + requestToken);
-                try {
-                    NativeByteBuffer buffer = new NativeByteBuffer(object.getObjectSize());
-                    object.serializeToStream(buffer);
-                    object.freeResources();
-
-                    native_sendRequest(buffer.address, new RequestDelegateInternal() {
-                        @Override
-                        public void run(int response, int errorCode, String errorText, int networkType) {
-                            try {
-                                TLObject resp = null;
-                                TLRPC.TL_error error = null;
-                                if (response != 0) {
-                                    NativeByteBuffer buff = NativeByteBuffer.wrap(response);
-                                    buff.reused = true;
-                                    resp = object.deserializeResponse(buff, buff.readInt32(true), true);
-                                } else if (errorText != null) {
-                                    error = new TLRPC.TL_error();
-                                    error.code = errorCode;
-                                    error.text = errorText;
-                                    FileLog.e(object + " got error " + error.code + " " + error.text);
-                                }
-                                if (resp != null) {
-                                    resp.networkType = networkType;
-                                }
-                                FileLog.d("java received " + resp + " error = " + error);
-                                final TLObject finalResponse = resp;
-                                final TLRPC.TL_error finalError = error;
-                                Utilities.stageQueue.postRunnable(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        onComplete.run(finalResponse, finalError);
-                                        if (finalResponse != null) {
-                                            finalResponse.freeResources();
-                                        }
-                                    }
-                                });
-                            } catch (Exception e) {
-                                FileLog.e(e);
-                            }
-                        }
-                    }, onQuickAck, flags, datacenterId, connetionType, immediate, requestToken);
-                } catch (Exception e) {
-                    FileLog.e(e);
+                if (onQuickAck == null && requestCoalescer.addRequest(object, onComplete, flags, datacenterId, connetionType, requestToken)) {
+                    return;
                 }
+                sendRequestInternal(object, onComplete, onQuickAck, flags, datacenterId, connetionType, immediate, requestToken);
             }
         });
         return requestToken;
     }
 
-    public void cancelRequest(int token, boolean notifyServer) {
+    int getNextRequestToken() {
+        return lastRequestToken.getAndIncrement();
+    }
+
+    void sendRequestInternal(final TLObject object, final RequestDelegate onComplete, final QuickAckDelegate onQuickAck, final int flags, final int datacenterId, final int connetionType, final boolean immediate, final int requestToken) {
+        if (BuildVars.DEBUG_VERSION) {
+            FileLog.d("send request " + object + " with token = " + requestToken);
+        }
+        try {
+            NativeByteBuffer buffer = NativeByteBuffer.serialize(object);
+            object.freeResources();
+
+            native_sendRequest(buffer.address, new RequestDelegateInternal() {
+                @Override
+                public void run(int response, int errorCode, String errorText, int networkType) {
+                    try {
+                        TLObject resp = null;
+                        TLRPC.TL_error error = null;
+                        if (response != 0) {
+                            NativeByteBuffer buff = NativeByteBuffer.wrap(response);
+                            buff.reused = true;
+                            resp = object.deserializeResponse(buff, buff.readInt32(true), true);
+                        } else if (errorText != null) {
+                            error = new TLRPC.TL_error();
+                            error.code = errorCode;
+                            error.text = errorText;
+                            FileLog.e(object + " got error " + error.code + " " + error.text);
+                        }
+                        if (resp != null) {
+                            resp.networkType = networkType;
+                        }
+                        if (BuildVars.DEBUG_VERSION) {
+                            FileLog.d("java received " + resp + " error = " + error);
+                        }
+                        final TLObject finalResponse = resp;
+                        final TLRPC.TL_error finalError = error;
+                        Utilities.stageQueue.postRunnable(new Runnable() {
+                            @Override
+                            public void run() {
+                                onComplete.run(finalResponse, finalError);
+                                if (finalResponse != null) {
+                                    finalResponse.freeResources();
+                                }
+                            }
+                        });
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
+                }
+            }, onQuickAck, flags, datacenterId, connetionType, immediate, requestToken);
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    public int getSavedRequestsCount() {
+        return requestCoalescer.getSavedRequestsCount();
+    }
+
+    public void cancelRequest(final int token, final boolean notifyServer) {
         native_cancelRequest(token, notifyServer);
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                requestCoalescer.cancelRequest(token, notifyServer);
+            }
+        });
     }
 
     public void cleanup() {
         native_cleanUp();
     }
 
-    public void cancelRequestsForGuid(int guid) {
+    public void cancelRequestsForGuid(final int guid) {
         native_cancelRequestsForGuid(guid);
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                requestCoalescer.cancelRequestsForGuid(guid);
+            }
+        });
     }
 
-    public void bindRequestToGuid(int requestToken, int guid) {
+    public void bindRequestToGuid(final int requestToken, final int guid) {
         native_bindRequestToGuid(requestToken, guid);
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                requestCoalescer.bindRequestToGuid(requestToken, guid);
+            }
+        });
     }
 
     public void applyDatacenterAddress(int datacenterId, String ipAddress, int port) {
@@ -10,9 +10,12 @@ public class NativeByteBuffer extends AbstractSerializedData {
     protected int address;
     public ByteBuffer buffer;
     private boolean justCalc;
+    private boolean growable;
     private int len;
     public boolean reused = true;
 
+    private static final int initialSerializeSize = 128;
+
     private static final ThreadLocal<NativeByteBuffer> addressWrapper = new ThreadLocal<NativeByteBuffer>() {
         @Override
         protected NativeByteBuffer initialValue() {
@@ -61,6 +64,41 @@ public class NativeByteBuffer extends AbstractSerializedData {
         justCalc = calculate;
     }
 
+    /**
+     * Serializes an object in one pass. Writing starts in a small pooled buffer that is swapped
+     * for a bigger pooled one when it fills up, so there is no separate size counting walk.
+     */
+    public static NativeByteBuffer serialize(TLObject object) throws Exception {
+        NativeByteBuffer result = new NativeByteBuffer(initialSerializeSize);
+        result.buffer.limit(result.buffer.capacity());
+        result.growable = true;
+        object.serializeToStream(result);
+        result.growable = false;
+        result.buffer.limit(result.buffer.position());
+        native_setLimit(result.address, result.buffer.limit());
+        return result;
+    }
+
+    private void ensureCapacity(int count) {
+        if (!growable || buffer.remaining() >= count) {
+            return;
+        }
+        int position = buffer.position();
+        int newAddress = native_getFreeBuffer(Math.max(buffer.capacity() * 2, position + count));
+        if (newAddress == 0) {
+            return;
+        }
+        ByteBuffer newBuffer = native_getJavaByteBuffer(newAddress);
+        newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        newBuffer.limit(newBuffer.capacity());
+        newBuffer.position(0);
+        buffer.flip();
+        newBuffer.put(buffer);
+        native_reuse(address);
+        address = newAddress;
+        buffer = newBuffer;
+    }
+
     public int position() {
         return buffer.position();
     }
@@ -104,6 +142,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeInt32(int x) {
         try {
             if (!justCalc) {
+                ensureCapacity(4);
                 buffer.putInt(x);
             } else {
                 len += 4;
@@ -116,6 +155,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeInt64(long x) {
         try {
             if (!justCalc) {
+                ensureCapacity(8);
                 buffer.putLong(x);
             } else {
                 len += 8;
@@ -140,6 +180,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeBytes(byte[] b) {
         try {
             if (!justCalc) {
+                ensureCapacity(b.length);
                 buffer.put(b);
             } else {
                 len += b.length;
@@ -152,6 +193,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeBytes(byte[] b, int offset, int count) {
         try {
             if (!justCalc) {
+                ensureCapacity(count);
                 buffer.put(b, offset, count);
             } else {
                 len += count;
@@ -168,6 +210,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeByte(byte b) {
         try {
             if (!justCalc) {
+                ensureCapacity(1);
                 buffer.put(b);
             } else {
                 len += 1;
@@ -187,6 +230,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteArray(byte[] b, int offset, int count) {
         try {
+            if (!justCalc) {
+                ensureCapacity(count + 7);
+            }
             if(count <= 253) {
                 if (!justCalc) {
                     buffer.put((byte)count);
@@ -224,6 +270,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
 
     public void writeByteArray(byte[] b) {
         try {
+            if (!justCalc) {
+                ensureCapacity(b.length + 7);
+            }
             if (b.length <= 253) {
                 if (!justCalc) {
                     buffer.put((byte) b.length);
@@ -270,6 +319,9 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public void writeByteBuffer(NativeByteBuffer b) {
         try {
             int l = b.limit();
+            if (!justCalc) {
+                ensureCapacity(l + 7);
+            }
             if (l <= 253) {
                 if (!justCalc) {
                     buffer.put((byte) l);
@@ -310,6 +362,7 @@ public class NativeByteBuffer extends AbstractSerializedData {
         if (justCalc) {
             len += b.limit();
         } else {
+            ensureCapacity(b.limit());
             b.rewind();
             buffer.put(b.buffer);
         }
@@ -506,5 +559,6 @@ public class NativeByteBuffer extends AbstractSerializedData {
     public static native ByteBuffer native_getJavaByteBuffer(int address);
     public static native int native_limit(int address);
     public static native int native_position(int address);
+    public static native void native_setLimit(int address, int limit);
     public static native void native_reuse(int address);
 }
@@ -0,0 +1,414 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.tgnet;
+
+import android.util.SparseArray;
+
+import ir.mehdi.messenger.FileLog;
+import ir.mehdi.messenger.UserConfig;
+import ir.mehdi.messenger.Utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares one server call between callers that ask for the same thing. Identical read-only requests
+ * that are already in flight get the pending response, and id-list requests of the same type posted
+ * within {@link #batchWindow} ms are merged into one call whose response is split back per caller.
+ * Every caller but the first gets its own copy of a shared response, so delegates may change what
+ * they receive. If a merged call fails, each caller's request is sent again on its own, so one bad
+ * id can't fail the others. Callers keep their own request tokens, so cancelling or guid-cancelling
+ * one of them only drops its delegate; the shared request is cancelled when nobody waits for it
+ * anymore. Only used from the stage queue.
+ */
+class RequestCoalescer {
+
+    private static class Waiter {
+        private TLObject request;
+        private RequestDelegate delegate;
+        private int token;
+        private int guid;
+    }
+
+    private class Group implements Runnable {
+        private String key;
+        private TLObject request;
+        private ArrayList<Waiter> waiters = new ArrayList<>();
+        private int flags;
+        private int datacenterId;
+        private int connectionType;
+        private int token;
+        private boolean sent;
+
+        @Override
+        public void run() {
+            batches.remove(key);
+            send(this);
+        }
+    }
+
+    private static final int batchWindow = 10;
+
+    private final ConnectionsManager connectionsManager;
+    private HashMap<String, Group> inflightGroups = new HashMap<>();
+    private HashMap<String, Group> batches = new HashMap<>();
+    private SparseArray<Group> tokenGroups = new SparseArray<>();
+    private AtomicInteger savedRequestsCount = new AtomicInteger();
+
+    RequestCoalescer(ConnectionsManager manager) {
+        connectionsManager = manager;
+    }
+
+    private static boolean isBatchable(TLObject object) {
+        return object instanceof TLRPC.TL_users_getUsers || object instanceof TLRPC.TL_messages_getMessages || object instanceof TLRPC.TL_channels_getMessages && ((TLRPC.TL_channels_getMessages) object).channel != null;
+    }
+
+    private static boolean isDeduplicable(TLObject object) {
+        return object instanceof TLRPC.TL_messages_getWebPagePreview || object instanceof TLRPC.TL_users_getFullUser ||
+                object instanceof TLRPC.TL_channels_getFullChannel || object instanceof TLRPC.TL_messages_getFullChat ||
+                object instanceof TLRPC.TL_contacts_resolveUsername || object instanceof TLRPC.TL_messages_getPeerSettings;
+    }
+
+    private static String getDeduplicationKey(TLObject object) {
+        if (object instanceof TLRPC.TL_messages_getWebPagePreview) {
+            return ((TLRPC.TL_messages_getWebPagePreview) object).message;
+        } else if (object instanceof TLRPC.TL_users_getFullUser) {
+            TLRPC.InputUser inputUser = ((TLRPC.TL_users_getFullUser) object).id;
+            return getInputUserId(inputUser) + "_" + inputUser.access_hash;
+        } else if (object instanceof TLRPC.TL_channels_getFullChannel) {
+            TLRPC.InputChannel inputChannel = ((TLRPC.TL_channels_getFullChannel) object).channel;
+            return inputChannel.channel_id + "_" + inputChannel.access_hash;
+        } else if (object instanceof TLRPC.TL_messages_getFullChat) {
+            return "" + ((TLRPC.TL_messages_getFullChat) object).chat_id;
+        } else if (object instanceof TLRPC.TL_contacts_resolveUsername) {
+            return ((TLRPC.TL_contacts_resolveUsername) object).username;
+        } else {
+            TLRPC.InputPeer peer = ((TLRPC.TL_messages_getPeerSettings) object).peer;
+            return peer.getClass().getSimpleName() + "_" + peer.user_id + "_" + peer.chat_id + "_" + peer.channel_id + "_" + peer.access_hash;
+        }
+    }
+
+    public int getSavedRequestsCount() {
+        return savedRequestsCount.get();
+    }
+
+    /**
+     * Takes over a request if it can be shared with others. Returns false if the caller has to send
+     * it on its own.
+     */
+    boolean addRequest(TLObject object, RequestDelegate delegate, int flags, int datacenterId, int connectionType, int token) {
+        boolean batchable = isBatchable(object);
+        if (!batchable && !isDeduplicable(object)) {
+            return false;
+        }
+        Waiter waiter = new Waiter();
+        waiter.request = object;
+        waiter.delegate = delegate;
+        waiter.token = token;
+        String prefix = object.getClass().getSimpleName() + "_" + flags + "_" + datacenterId + "_" + connectionType + "_";
+        Group group;
+        if (batchable) {
+            String key = prefix + (object instanceof TLRPC.TL_channels_getMessages ? ((TLRPC.TL_channels_getMessages) object).channel.channel_id : 0);
+            group = batches.get(key);
+            if (group == null) {
+                group = createGroup(key, flags, datacenterId, connectionType);
+                group.request = createBatchRequest(object);
+                batches.put(key, group);
+                Utilities.stageQueue.postRunnable(group, batchWindow);
+            } else {
+                savedRequestsCount.incrementAndGet();
+            }
+            mergeBatchRequest(group.request, object);
+        } else {
+            String key;
+            try {
+                key = prefix + getDeduplicationKey(object);
+            } catch (Exception e) {
+                FileLog.e(e);
+                return false;
+            }
+            group = inflightGroups.get(key);
+            if (group == null) {
+                group = createGroup(key, flags, datacenterId, connectionType);
+                group.request = object;
+                inflightGroups.put(key, group);
+                group.waiters.add(waiter);
+                tokenGroups.put(token, group);
+                send(group);
+                return true;
+            }
+            savedRequestsCount.incrementAndGet();
+        }
+        group.waiters.add(waiter);
+        tokenGroups.put(token, group);
+        return true;
+    }
+
+    void bindRequestToGuid(int token, int guid) {
+        Group group = tokenGroups.get(token);
+        if (group != null) {
+            for (int a = 0; a < group.waiters.size(); a++) {
+                Waiter waiter = group.waiters.get(a);
+                if (waiter.token == token) {
+                    waiter.guid = guid;
+                    break;
+                }
+            }
+        }
+    }
+
+    void cancelRequest(int token, boolean notifyServer) {
+        Group group = tokenGroups.get(token);
+        if (group == null) {
+            return;
+        }
+        tokenGroups.remove(token);
+        for (int a = 0; a < group.waiters.size(); a++) {
+            if (group.waiters.get(a).token == token) {
+                group.waiters.remove(a);
+                break;
+            }
+        }
+        checkEmptyGroup(group, notifyServer);
+    }
+
+    void cancelRequestsForGuid(int guid) {
+        ArrayList<Group> groups = new ArrayList<>();
+        for (int a = 0; a < tokenGroups.size(); a++) {
+            Group group = tokenGroups.valueAt(a);
+            if (!groups.contains(group)) {
+                groups.add(group);
+            }
+        }
+        for (int a = 0; a < groups.size(); a++) {
+            Group group = groups.get(a);
+            for (int b = 0; b < group.waiters.size(); b++) {
+                Waiter waiter = group.waiters.get(b);
+                if (waiter.guid == guid) {
+                    tokenGroups.remove(waiter.token);
+                    group.waiters.remove(b);
+                    b--;
+                }
+            }
+            checkEmptyGroup(group, true);
+        }
+    }
+
+    private void checkEmptyGroup(Group group, boolean notifyServer) {
+        if (!group.waiters.isEmpty()) {
+            return;
+        }
+        if (group.sent) {
+            inflightGroups.remove(group.key);
+            ConnectionsManager.native_cancelRequest(group.token, notifyServer);
+        } else {
+            batches.remove(group.key);
+            Utilities.stageQueue.cancelRunnable(group);
+        }
+    }
+
+    private Group createGroup(String key, int flags, int datacenterId, int connectionType) {
+        Group group = new Group();
+        group.key = key;
+        group.flags = flags;
+        group.datacenterId = datacenterId;
+        group.connectionType = connectionType;
+        return group;
+    }
+
+    private void send(final Group group) {
+        group.sent = true;
+        group.token = connectionsManager.getNextRequestToken();
+        connectionsManager.sendRequestInternal(group.request, new RequestDelegate() {
+            @Override
+            public void run(TLObject response, TLRPC.TL_error error) {
+                if (inflightGroups.get(group.key) == group) {
+                    inflightGroups.remove(group.key);
+                }
+                boolean single = group.waiters.size() == 1;
+                if (!single && error != null && isBatchable(group.request)) {
+                    sendSeparately(group);
+                    return;
+                }
+                byte[] responseData = null;
+                if (!single && response != null) {
+                    responseData = serializeResponse(response);
+                }
+                for (int a = 0; a < group.waiters.size(); a++) {
+                    Waiter waiter = group.waiters.get(a);
+                    tokenGroups.remove(waiter.token);
+                    TLObject result = response;
+                    if (a != 0 && responseData != null) {
+                        result = copyResponse(waiter.request, response, responseData);
+                    }
+                    if (!single && result != null && isBatchable(waiter.request)) {
+                        result = splitBatchResponse(waiter.request, result);
+                    }
+                    try {
+                        waiter.delegate.run(result, error);
+                    } catch (Exception e) {
+                        FileLog.e(e);
+                    }
+                }
+                group.waiters.clear();
+            }
+        }, null, group.flags, group.datacenterId, group.connectionType, true, group.token);
+    }
+
+    private void sendSeparately(Group group) {
+        for (int a = 0; a < group.waiters.size(); a++) {
+            Waiter waiter = group.waiters.get(a);
+            tokenGroups.remove(waiter.token);
+            connectionsManager.sendRequestInternal(waiter.request, waiter.delegate, null, group.flags, group.datacenterId, group.connectionType, true, waiter.token);
+            if (waiter.guid != 0) {
+                ConnectionsManager.native_bindRequestToGuid(waiter.token, waiter.guid);
+            }
+        }
+        group.waiters.clear();
+    }
+
+    private static byte[] serializeResponse(TLObject response) {
+        try {
+            SerializedData data;
+            if (response instanceof TLRPC.Vector) {
+                ArrayList<Object> objects = ((TLRPC.Vector) response).objects;
+                data = new SerializedData();
+                data.writeInt32(TLRPC.Vector.constructor);
+                data.writeInt32(objects.size());
+                for (int a = 0; a < objects.size(); a++) {
+                    ((TLObject) objects.get(a)).serializeToStream(data);
+                }
+            } else {
+                data = new SerializedData(response.getObjectSize());
+                response.serializeToStream(data);
+            }
+            byte[] bytes = data.toByteArray();
+            data.cleanup();
+            return bytes;
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        return null;
+    }
+
+    private static TLObject copyResponse(TLObject request, TLObject response, byte[] responseData) {
+        try {
+            SerializedData data = new SerializedData(responseData);
+            TLObject result = request.deserializeResponse(data, data.readInt32(true), true);
+            data.cleanup();
+            if (result != null) {
+                result.networkType = response.networkType;
+                return result;
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        return response;
+    }
+
+    private static TLObject createBatchRequest(TLObject object) {
+        if (object instanceof TLRPC.TL_users_getUsers) {
+            return new TLRPC.TL_users_getUsers();
+        } else if (object instanceof TLRPC.TL_messages_getMessages) {
+            return new TLRPC.TL_messages_getMessages();
+        } else {
+            TLRPC.TL_channels_getMessages req = new TLRPC.TL_channels_getMessages();
+            req.channel = ((TLRPC.TL_channels_getMessages) object).channel;
+            return req;
+        }
+    }
+
+    private static void mergeBatchRequest(TLObject batch, TLObject object) {
+        if (object instanceof TLRPC.TL_users_getUsers) {
+            ArrayList<TLRPC.InputUser> ids = ((TLRPC.TL_users_getUsers) batch).id;
+            HashSet<Integer> existing = new HashSet<>();
+            for (int a = 0; a < ids.size(); a++) {
+                existing.add(getInputUserId(ids.get(a)));
+            }
+            ArrayList<TLRPC.InputUser> add = ((TLRPC.TL_users_getUsers) object).id;
+            for (int a = 0; a < add.size(); a++) {
+                if (existing.add(getInputUserId(add.get(a)))) {
+                    ids.add(add.get(a));
+                }
+            }
+        } else {
+            ArrayList<Integer> ids;
+            ArrayList<Integer> add;
+            if (object instanceof TLRPC.TL_messages_getMessages) {
+                ids = ((TLRPC.TL_messages_getMessages) batch).id;
+                add = ((TLRPC.TL_messages_getMessages) object).id;
+            } else {
+                ids = ((TLRPC.TL_channels_getMessages) batch).id;
+                add = ((TLRPC.TL_channels_getMessages) object).id;
+            }
+            for (int a = 0; a < add.size(); a++) {
+                if (!ids.contains(add.get(a))) {
+                    ids.add(add.get(a));
+                }
+            }
+        }
+    }
+
+    private static int getInputUserId(TLRPC.InputUser inputUser) {
+        if (inputUser instanceof TLRPC.TL_inputUserSelf) {
+            return UserConfig.getClientUserId();
+        }
+        return inputUser.user_id;
+    }
+
+    private static TLObject splitBatchResponse(TLObject request, TLObject response) {
+        if (request instanceof TLRPC.TL_users_getUsers) {
+            if (!(response instanceof TLRPC.Vector)) {
+                return response;
+            }
+            HashSet<Integer> ids = new HashSet<>();
+            ArrayList<TLRPC.InputUser> inputUsers = ((TLRPC.TL_users_getUsers) request).id;
+            for (int a = 0; a < inputUsers.size(); a++) {
+                ids.add(getInputUserId(inputUsers.get(a)));
+            }
+            TLRPC.Vector vector = new TLRPC.Vector();
+            ArrayList<Object> objects = ((TLRPC.Vector) response).objects;
+            for (int a = 0; a < objects.size(); a++) {
+                TLRPC.User user = (TLRPC.User) objects.get(a);
+                if (ids.contains(user.id)) {
+                    vector.objects.add(user);
+                }
+            }
+            return vector;
+        }
+        if (!(response instanceof TLRPC.messages_Messages)) {
+            return response;
+        }
+        TLRPC.messages_Messages messages = (TLRPC.messages_Messages) response;
+        ArrayList<Integer> ids = request instanceof TLRPC.TL_messages_getMessages ? ((TLRPC.TL_messages_getMessages) request).id : ((TLRPC.TL_channels_getMessages) request).id;
+        TLRPC.messages_Messages result;
+        if (messages instanceof TLRPC.TL_messages_channelMessages) {
+            result = new TLRPC.TL_messages_channelMessages();
+        } else if (messages instanceof TLRPC.TL_messages_messagesSlice) {
+            result = new TLRPC.TL_messages_messagesSlice();
+        } else {
+            result = new TLRPC.TL_messages_messages();
+        }
+        result.flags = messages.flags;
+        result.pts = messages.pts;
+        result.count = messages.count;
+        result.networkType = messages.networkType;
+        result.chats = messages.chats;
+        result.users = messages.users;
+        for (int a = 0; a < messages.messages.size(); a++) {
+            TLRPC.Message message = messages.messages.get(a);
+            if (ids.contains(message.id)) {
+                result.messages.add(message);
+            }
+        }
+        return result;
+    }
+}
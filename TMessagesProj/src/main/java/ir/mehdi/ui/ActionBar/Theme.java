@@ -851,6 +851,13 @@ public class Theme {
     private static HashMap<String, Integer> defaultColors = new HashMap<>();
     private static HashMap<String, Integer> currentColors;
 
+    private static HashMap<String, Integer> colorKeyIds = new HashMap<>();
+    private static ArrayList<String> colorKeys = new ArrayList<>();
+    private static volatile int[] colorTable = new int[0];
+    private static volatile int colorsVersion;
+    private static int serviceBackgroundId;
+    private static int serviceBackgroundSelectedId;
+
     static {
         defaultColors.put(key_dialogBackground, 0xffffffff);
         defaultColors.put(key_dialogTextBlack, 0xff212121);
@@ -1372,6 +1379,13 @@ public class Theme {
         defaultColors.put(key_calls_ratingStar, 0x80000000);
         defaultColors.put(key_calls_ratingStarSelected, 0xFF4a97d6);
 
+        for (String key : defaultColors.keySet()) {
+            colorKeyIds.put(key, colorKeys.size());
+            colorKeys.add(key);
+        }
+        serviceBackgroundId = colorKeyIds.get(key_chat_serviceBackground);
+        serviceBackgroundSelectedId = colorKeyIds.get(key_chat_serviceBackgroundSelected);
+
         themes = new ArrayList<>();
         otherThemes = new ArrayList<>();
         themesDict = new HashMap<>();
@@ -1843,6 +1857,7 @@ public class Theme {
                 themedWallpaper = null;
             }
             currentTheme = themeInfo;
+            rebuildColorTable();
             reloadWallpaper();
             applyCommonTheme();
             applyDialogsTheme();
@@ -2663,7 +2678,50 @@ public class Theme {
         return color;
     }
 
+    /**
+     * Returns the dense id of a color key, to be kept in a static field and passed to
+     * {@link #getColor(int)} on hot paths. Returns -1 for keys that have no default color.
+     */
+    public static int getColorKeyId(String key) {
+        Integer id = colorKeyIds.get(key);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Incremented every time the resolved colors change, so views can skip re-applying colors
+     * they already set for the same version.
+     */
+    public static int getColorsVersion() {
+        return colorsVersion;
+    }
+
+    private static void rebuildColorTable() {
+        int[] table = new int[colorKeys.size()];
+        for (int a = 0; a < table.length; a++) {
+            String key = colorKeys.get(a);
+            Integer color = currentColors.get(key);
+            table[a] = color != null ? color : getDefaultColor(key);
+        }
+        colorTable = table;
+        colorsVersion++;
+    }
+
+    public static int getColor(int keyId) {
+        if (keyId < 0) {
+            return 0xffff0000;
+        }
+        int[] table = colorTable;
+        if (keyId >= table.length || keyId == serviceBackgroundId || keyId == serviceBackgroundSelectedId) {
+            return getColor(colorKeys.get(keyId), null);
+        }
+        return table[keyId];
+    }
+
     public static int getColor(String key) {
+        Integer id = colorKeyIds.get(key);
+        if (id != null) {
+            return getColor((int) id);
+        }
         return getColor(key, null);
     }
 
@@ -2693,6 +2751,7 @@ public class Theme {
         } else {
             currentColors.put(key, color);
         }
+        rebuildColorTable();
 
         if (key.equals(key_chat_serviceBackground) || key.equals(key_chat_serviceBackgroundSelected)) {
             applyChatServiceMessageColor();
@@ -2703,6 +2762,7 @@ public class Theme {
 
     public static void setThemeWallpaper(String themeName, Bitmap bitmap, File path) {
         currentColors.remove(key_chat_wallpaper);
+        rebuildColorTable();
         ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE).edit().remove("overrideThemeWallpaper").commit();
         if (bitmap != null) {
             themedWallpaper = new BitmapDrawable(bitmap);
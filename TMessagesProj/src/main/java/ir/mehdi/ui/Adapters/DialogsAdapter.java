@@ -17,7 +17,10 @@ import java.util.ArrayList;
 import ir.mehdi.telegraf.HiddenController;
 import ir.mehdi.messenger.AndroidUtilities;
 import ir.mehdi.messenger.ApplicationLoader;
+import ir.mehdi.messenger.MessageObject;
 import ir.mehdi.messenger.MessagesController;
+import ir.mehdi.messenger.query.DraftQuery;
+import ir.mehdi.messenger.support.util.DiffUtil;
 import ir.mehdi.messenger.support.widget.RecyclerView;
 import ir.mehdi.tgnet.TLRPC;
 import ir.mehdi.ui.Cells.DialogCell;
@@ -43,7 +46,23 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter
 	//	private Context mContext;
 	private int  dialogsType;
 	private long openedDialogId;
-	private int  currentCount;
+
+	private static final int contentFieldsCount = 7;
+	private static int dialogsVersion;
+
+	private final ArrayList<TLRPC.TL_dialog> emptyDialogs = new ArrayList<>();
+
+	private ArrayList<TLRPC.TL_dialog> visibleDialogs    = new ArrayList<>();
+	private ArrayList<TLRPC.TL_dialog> visibleSource;
+	private int                        visibleSourceSize = -1;
+	private int                        visibleVersion    = -1;
+	private int                        visibleType       = -1;
+	private String                     visibleCategory;
+	private boolean                    visibleHiddenmode;
+
+	private ArrayList<TLRPC.TL_dialog> shownDialogs = new ArrayList<>();
+	private int[]                      shownContent = new int[0];
+	private int                        shownCount;
 
 	public DialogsAdapter(Context context, int type)
 	{
@@ -67,22 +86,103 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter
 		openedDialogId = id;
 	}
 
-	public boolean isDataSetChanged()
-	{
-		int     current = currentCount;
-		boolean flag    = current != getItemCount() || current == 1;
-		//		Log.d("_telegraf", "Adapter IsDataChanged: " + ((Boolean)flag).toString());
-		return flag;
-	}
-
 	// telegraf
 	@Override
 	public void notifyDataSetChanged()
 	{
 		ApplicationLoader.SetHiddenMode(ApplicationLoader.applicationContext, Hiddenmode);
+		dialogsVersion++;
+		rememberShownDialogs();
 		super.notifyDataSetChanged();
 	}
 
+	/**
+	 * Compares the dialogs on screen with the current ones and only notifies the rows that were
+	 * inserted, removed, moved or changed. Cells keep their list index, so rows whose position
+	 * changed are rebound as well.
+	 */
+	public void updateDialogs()
+	{
+		final ArrayList<TLRPC.TL_dialog> oldDialogs = shownDialogs;
+		final int[]                      oldContent = shownContent;
+		int                              oldFooter  = shownCount - oldDialogs.size();
+		dialogsVersion++;
+		rememberShownDialogs();
+		if (oldFooter != shownCount - shownDialogs.size())
+		{
+			notifyDataSetChanged();
+			return;
+		}
+		final ArrayList<TLRPC.TL_dialog> newDialogs = shownDialogs;
+		final int[]                      newContent = shownContent;
+		DiffUtil.calculateDiff(new DiffUtil.Callback()
+		{
+			@Override
+			public int getOldListSize()
+			{
+				return oldDialogs.size();
+			}
+
+			@Override
+			public int getNewListSize()
+			{
+				return newDialogs.size();
+			}
+
+			@Override
+			public boolean areItemsTheSame(int oldItemPosition, int newItemPosition)
+			{
+				return oldDialogs.get(oldItemPosition).id == newDialogs.get(newItemPosition).id;
+			}
+
+			@Override
+			public boolean areContentsTheSame(int oldItemPosition, int newItemPosition)
+			{
+				if (oldItemPosition != newItemPosition)
+				{
+					return false;
+				}
+				int offset = oldItemPosition * contentFieldsCount;
+				for (int a = 0; a < contentFieldsCount; a++)
+				{
+					if (oldContent[offset + a] != newContent[offset + a])
+					{
+						return false;
+					}
+				}
+				return true;
+			}
+		}).dispatchUpdatesTo(this);
+	}
+
+	@Override
+	public void onAttachedToRecyclerView(RecyclerView recyclerView)
+	{
+		rememberShownDialogs();
+	}
+
+	private void rememberShownDialogs()
+	{
+		ArrayList<TLRPC.TL_dialog> dialogs = getDialogsArray();
+		shownDialogs = new ArrayList<>(dialogs);
+		shownContent = new int[dialogs.size() * contentFieldsCount];
+		for (int a = 0; a < dialogs.size(); a++)
+		{
+			TLRPC.TL_dialog    dialog        = dialogs.get(a);
+			MessageObject      messageObject = MessagesController.getInstance().dialogMessage.get(dialog.id);
+			TLRPC.DraftMessage draftMessage  = DraftQuery.getDraft(dialog.id);
+			int                offset        = a * contentFieldsCount;
+			shownContent[offset]     = dialog.top_message;
+			shownContent[offset + 1] = dialog.unread_count;
+			shownContent[offset + 2] = dialog.last_message_date;
+			shownContent[offset + 3] = dialog.pinned ? 1 : 0;
+			shownContent[offset + 4] = dialog.read_outbox_max_id;
+			shownContent[offset + 5] = System.identityHashCode(messageObject);
+			shownContent[offset + 6] = System.identityHashCode(draftMessage);
+		}
+		shownCount = getItemCount();
+	}
+
 	public void setDialogsType(int dialogsType)
 	{
 		this.dialogsType = dialogsType;
@@ -114,11 +214,16 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter
 		return reth;
 	}
 
+	/**
+	 * Returns the dialogs of the current category with hidden (or, in hidden mode, visible) ones
+	 * left out. The filtered list is kept until the dialogs are reloaded or the source list, the
+	 * category or the mode changes.
+	 */
 	public ArrayList<TLRPC.TL_dialog> getDialogsArray()
 	{
 		//		MessagesController.getInstance().loadingDialogs = false; // telegraf
 
-		ArrayList<TLRPC.TL_dialog> ret = new ArrayList<>();
+		ArrayList<TLRPC.TL_dialog> ret = emptyDialogs;
 
 		if (dialogsType == 0)
 		{
@@ -156,7 +261,18 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter
 		{
 			ret = MessagesController.getInstance().dialogsGroupsOnly;
 		}
-		return HidePRoccess(ret);
+		if (ret != visibleSource || ret.size() != visibleSourceSize || visibleVersion != dialogsVersion || visibleType != dialogsType ||
+				visibleHiddenmode != Hiddenmode || (categoryId == null ? visibleCategory != null : !categoryId.equals(visibleCategory)))
+		{
+			visibleDialogs = HidePRoccess(ret);
+			visibleSource = ret;
+			visibleSourceSize = ret.size();
+			visibleVersion = dialogsVersion;
+			visibleType = dialogsType;
+			visibleHiddenmode = Hiddenmode;
+			visibleCategory = categoryId;
+		}
+		return visibleDialogs;
 	}
 
 	@Override
@@ -171,7 +287,6 @@ public class DialogsAdapter extends RecyclerListView.SelectionAdapter
 		{
 			count++;
 		}
-		currentCount = count;
 
 		//		Log.d("_telegraf", "Adapter GetItemCount: " + ((Integer)count).toString());
 
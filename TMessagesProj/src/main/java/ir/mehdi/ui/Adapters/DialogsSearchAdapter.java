@@ -18,6 +18,7 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import ir.mehdi.SQLite.SQLiteCursor;
+import ir.mehdi.SQLite.SQLiteDatabase;
 import ir.mehdi.SQLite.SQLitePreparedStatement;
 import ir.mehdi.messenger.AndroidUtilities;
 import ir.mehdi.messenger.ChatObject;
@@ -65,6 +66,7 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
     private String lastSearchText;
     private int reqId = 0;
     private int lastReqId;
+    private int lastServerReqId;
     private DialogsSearchAdapterDelegate delegate;
     private int needMessagesSearch;
     private boolean messagesSearchEndReached;
@@ -239,6 +241,31 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
         if (delegate != null) {
             delegate.searchStateChanged(true);
         }
+        if (req.offset_id == 0) {
+            MessagesStorage.getInstance().searchMessages(query, req.limit, new RequestDelegate() {
+                @Override
+                public void run(final TLObject response, TLRPC.TL_error error) {
+                    AndroidUtilities.runOnUIThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (currentReqId != lastReqId || lastServerReqId == currentReqId) {
+                                return;
+                            }
+                            TLRPC.messages_Messages res = (TLRPC.messages_Messages) response;
+                            if (res.messages.isEmpty()) {
+                                return;
+                            }
+                            MessagesController.getInstance().putUsers(res.users, true);
+                            MessagesController.getInstance().putChats(res.chats, true);
+                            searchResultMessages.clear();
+                            addSearchResultMessages(res.messages);
+                            messagesSearchEndReached = true;
+                            notifyDataSetChanged();
+                        }
+                    });
+                }
+            });
+        }
         reqId = ConnectionsManager.getInstance().sendRequest(req, new RequestDelegate() {
             @Override
             public void run(final TLObject response, final TLRPC.TL_error error) {
@@ -247,6 +274,7 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     public void run() {
                         if (currentReqId == lastReqId) {
                             if (error == null) {
+                                lastServerReqId = currentReqId;
                                 TLRPC.messages_Messages res = (TLRPC.messages_Messages) response;
                                 MessagesStorage.getInstance().putUsersAndChats(res.users, res.chats, true, true);
                                 MessagesController.getInstance().putUsers(res.users, false);
@@ -254,18 +282,7 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                                 if (req.offset_id == 0) {
                                     searchResultMessages.clear();
                                 }
-                                for (int a = 0; a < res.messages.size(); a++) {
-                                    TLRPC.Message message = res.messages.get(a);
-                                    searchResultMessages.add(new MessageObject(message, null, false));
-                                    long dialog_id = MessageObject.getDialogId(message);
-                                    ConcurrentHashMap<Long, Integer> read_max = message.out ? MessagesController.getInstance().dialogs_read_outbox_max : MessagesController.getInstance().dialogs_read_inbox_max;
-                                    Integer value = read_max.get(dialog_id);
-                                    if (value == null) {
-                                        value = MessagesStorage.getInstance().getDialogReadMax(message.out, dialog_id);
-                                        read_max.put(dialog_id, value);
-                                    }
-                                    message.unread = value < message.id;
-                                }
+                                addSearchResultMessages(res.messages);
                                 messagesSearchEndReached = res.messages.size() != 20;
                                 notifyDataSetChanged();
                             }
@@ -280,6 +297,21 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
         }, ConnectionsManager.RequestFlagFailOnServerErrors);
     }
 
+    private void addSearchResultMessages(ArrayList<TLRPC.Message> messages) {
+        for (int a = 0; a < messages.size(); a++) {
+            TLRPC.Message message = messages.get(a);
+            searchResultMessages.add(new MessageObject(message, null, false));
+            long dialog_id = MessageObject.getDialogId(message);
+            ConcurrentHashMap<Long, Integer> read_max = message.out ? MessagesController.getInstance().dialogs_read_outbox_max : MessagesController.getInstance().dialogs_read_inbox_max;
+            Integer value = read_max.get(dialog_id);
+            if (value == null) {
+                value = MessagesStorage.getInstance().getDialogReadMax(message.out, dialog_id);
+                read_max.put(dialog_id, value);
+            }
+            message.unread = value < message.id;
+        }
+    }
+
     public boolean hasRecentRearch() {
         return !recentSearchObjects.isEmpty() || !SearchQuery.hints.isEmpty();
     }
@@ -356,7 +388,7 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
 
                     if (!chatsToLoad.isEmpty()) {
                         ArrayList<TLRPC.Chat> chats = new ArrayList<>();
-                        MessagesStorage.getInstance().getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                        MessagesStorage.getInstance().getChatsInternal(chatsToLoad, chats);
                         for (int a = 0; a < chats.size(); a++) {
                             TLRPC.Chat chat = chats.get(a);
                             long did;
@@ -377,7 +409,7 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     }
 
                     if (!usersToLoad.isEmpty()) {
-                        MessagesStorage.getInstance().getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                        MessagesStorage.getInstance().getUsersInternal(usersToLoad, users);
                         for (int a = 0; a < users.size(); a++) {
                             TLRPC.User user = users.get(a);
                             RecentSearchObject recentSearchObject = hashMap.get((long) user.id);
@@ -484,9 +516,9 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
         if (needMessagesSearch == 2) {
             return;
         }
-        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+        MessagesStorage.getInstance().postReadTask(new MessagesStorage.ReadTask() {
             @Override
-            public void run() {
+            public void run(SQLiteDatabase database) {
                 try {
                     String search1 = query.trim().toLowerCase();
                     if (search1.length() == 0) {
@@ -504,6 +536,12 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                         search[1] = search2;
                     }
 
+                    String match = MessagesStorage.getSearchMatchQuery(search);
+                    if (match == null) {
+                        updateSearchResults(new ArrayList<TLObject>(), new ArrayList<CharSequence>(), new ArrayList<TLRPC.User>(), searchId);
+                        return;
+                    }
+
                     ArrayList<Integer> usersToLoad = new ArrayList<>();
                     ArrayList<Integer> chatsToLoad = new ArrayList<>();
                     ArrayList<Integer> encryptedToLoad = new ArrayList<>();
@@ -511,7 +549,8 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     int resultCount = 0;
 
                     HashMap<Long, DialogSearchResult> dialogsResult = new HashMap<>();
-                    SQLiteCursor cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT did, date FROM dialogs ORDER BY date DESC LIMIT 600");
+                    SQLiteCursor cursor = database.executeFast("WITH found(id) AS (SELECT rowid FROM names_fts WHERE names_fts MATCH ?1 UNION SELECT rowid FROM tnames_fts WHERE tnames_fts MATCH ?1) " +
+                            "SELECT did, date FROM dialogs WHERE did IN (SELECT id FROM found) OR did IN (SELECT uid << 32 FROM enc_chats WHERE user IN (SELECT id FROM found)) OR (did >> 32) = 1 ORDER BY date DESC LIMIT 600").bindString(1, match).query();
                     while (cursor.next()) {
                         long id = cursor.longValue(0);
                         DialogSearchResult dialogSearchResult = new DialogSearchResult();
@@ -545,13 +584,10 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     cursor.dispose();
 
                     if (!usersToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status, name FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
+                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, status, name, tname FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
                         while (cursor.next()) {
                             String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
+                            String tName = cursor.stringValue(3);
                             String username = null;
                             int usernamePos = name.lastIndexOf(";;;");
                             if (usernamePos != -1) {
@@ -589,13 +625,10 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     }
 
                     if (!chatsToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, name FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
+                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, name, tname FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
                         while (cursor.next()) {
                             String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
+                            String tName = cursor.stringValue(2);
                             for (String q : search) {
                                 if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
                                     NativeByteBuffer data = cursor.byteBufferValue(0);
@@ -623,13 +656,10 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     }
 
                     if (!encryptedToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT q.data, u.name, q.user, q.g, q.authkey, q.ttl, u.data, u.status, q.layer, q.seq_in, q.seq_out, q.use_count, q.exchange_id, q.key_date, q.fprint, q.fauthkey, q.khash, q.in_seq_no FROM enc_chats as q INNER JOIN users as u ON q.user = u.uid WHERE q.uid IN(%s)", TextUtils.join(",", encryptedToLoad)));
+                        cursor = database.queryFinalized(String.format(Locale.US, "SELECT q.data, u.name, q.user, q.g, q.authkey, q.ttl, u.data, u.status, q.layer, q.seq_in, q.seq_out, q.use_count, q.exchange_id, q.key_date, q.fprint, q.fauthkey, q.khash, q.in_seq_no, u.tname FROM enc_chats as q INNER JOIN users as u ON q.user = u.uid WHERE q.uid IN(%s)", TextUtils.join(",", encryptedToLoad)));
                         while (cursor.next()) {
                             String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
+                            String tName = cursor.stringValue(18);
 
                             String username = null;
                             int usernamePos = name.lastIndexOf(";;;");
@@ -726,17 +756,15 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
                     }
 
                     if (dialogsType != 2) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT u.data, u.status, u.name, u.uid FROM users as u INNER JOIN contacts as c ON u.uid = c.uid");
+                        cursor = database.executeFast("SELECT u.data, u.status, u.name, u.uid, u.tname FROM users as u INNER JOIN contacts as c ON u.uid = c.uid WHERE u.uid IN " +
+                                "(SELECT rowid FROM names_fts WHERE names_fts MATCH ?1 UNION SELECT rowid FROM tnames_fts WHERE tnames_fts MATCH ?1)").bindString(1, match).query();
                         while (cursor.next()) {
                             int uid = cursor.intValue(3);
                             if (dialogsResult.containsKey((long) uid)) {
                                 continue;
                             }
                             String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
+                            String tName = cursor.stringValue(4);
                             String username = null;
                             int usernamePos = name.lastIndexOf(";;;");
                             if (usernamePos != -1) {
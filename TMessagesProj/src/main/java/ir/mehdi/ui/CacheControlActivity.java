@@ -420,6 +420,7 @@ public class CacheControlActivity extends BaseFragment
                                         state5.dispose();
                                         state6.dispose();
                                         database.commitTransaction();
+                                        database.flushGroupTransaction();
                                         database.executeFast("VACUUM").stepThis().dispose();
                                     } catch (Exception e) {
                                         FileLog.e(e);
@@ -99,6 +99,11 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
     private final static int DOCUMENT_ATTACH_TYPE_MUSIC = 5;
     private final static int DOCUMENT_ATTACH_TYPE_STICKER = 6;
 
+    private final static int colorMessageTextOut = Theme.getColorKeyId(Theme.key_chat_messageTextOut);
+    private final static int colorMessageTextIn = Theme.getColorKeyId(Theme.key_chat_messageTextIn);
+    private final static int colorMessageLinkOut = Theme.getColorKeyId(Theme.key_chat_messageLinkOut);
+    private final static int colorMessageLinkIn = Theme.getColorKeyId(Theme.key_chat_messageLinkIn);
+
     private class BotButton {
         private int x;
         private int y;
@@ -235,6 +240,8 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
     private boolean mediaBackground;
     private boolean isCheckPressed = true;
     private boolean wasLayout;
+    private int seekBarColorsVersion;
+    private int layoutGeneration;
     private boolean isAvatarVisible;
     private boolean drawBackground = true;
     private int substractBackgroundHeight;
@@ -1748,7 +1755,7 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
     }
 
     public void setMessageObject(MessageObject messageObject, boolean bottomNear, boolean topNear) {
-        if (messageObject.checkLayout()) {
+        if (messageObject.checkLayout() || currentMessageObject == messageObject && layoutGeneration != messageObject.getLayoutGeneration()) {
             currentMessageObject = null;
         }
         boolean messageIdChanged = currentMessageObject == null || currentMessageObject.getId() != messageObject.getId();
@@ -1758,6 +1765,8 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
             pinnedBottom = bottomNear;
             pinnedTop = topNear;
             currentMessageObject = messageObject;
+            layoutGeneration = messageObject.getLayoutGeneration();
+            seekBarColorsVersion = 0;
             lastSendState = messageObject.messageOwner.send_state;
             lastDeleteDate = messageObject.messageOwner.destroyTime;
             lastViewsCount = messageObject.messageOwner.views;
@@ -3038,7 +3047,7 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        if (currentMessageObject != null && currentMessageObject.checkLayout()) {
+        if (currentMessageObject != null && (currentMessageObject.checkLayout() || layoutGeneration != currentMessageObject.getLayoutGeneration())) {
             inLayout = true;
             MessageObject messageObject = currentMessageObject;
             currentMessageObject = null;
@@ -3258,6 +3267,12 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
                                 canvas.drawPath(urlPathSelection.get(b), Theme.chat_textSearchSelectionPaint);
                             }
                         }
+                        TextPaint textPaint = block.textLayout.getPaint();
+                        if (textPaint != Theme.chat_msgTextPaint && textPaint != Theme.chat_msgGameTextPaint) {
+                            // layouts built off the UI thread keep their own paint
+                            textPaint.setColor(Theme.chat_msgTextPaint.getColor());
+                            textPaint.linkColor = Theme.chat_msgTextPaint.linkColor;
+                        }
                         try {
                             block.textLayout.draw(canvas);
                         } catch (Exception e) {
@@ -4650,26 +4665,27 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
             return;
         }
 
-        if (!wasLayout) {
+        if (!wasLayout || layoutGeneration != currentMessageObject.getLayoutGeneration()) {
             requestLayout();
             return;
         }
 
         if (currentMessageObject.isOutOwner()) {
-            Theme.chat_msgTextPaint.setColor(Theme.getColor(Theme.key_chat_messageTextOut));
-            Theme.chat_msgTextPaint.linkColor = Theme.getColor(Theme.key_chat_messageLinkOut);
-            Theme.chat_msgGameTextPaint.setColor(Theme.getColor(Theme.key_chat_messageTextOut));
-            Theme.chat_msgGameTextPaint.linkColor = Theme.getColor(Theme.key_chat_messageLinkOut);
-            Theme.chat_replyTextPaint.linkColor = Theme.getColor(Theme.key_chat_messageLinkOut);
+            Theme.chat_msgTextPaint.setColor(Theme.getColor(colorMessageTextOut));
+            Theme.chat_msgTextPaint.linkColor = Theme.getColor(colorMessageLinkOut);
+            Theme.chat_msgGameTextPaint.setColor(Theme.getColor(colorMessageTextOut));
+            Theme.chat_msgGameTextPaint.linkColor = Theme.getColor(colorMessageLinkOut);
+            Theme.chat_replyTextPaint.linkColor = Theme.getColor(colorMessageLinkOut);
         } else {
-            Theme.chat_msgTextPaint.setColor(Theme.getColor(Theme.key_chat_messageTextIn));
-            Theme.chat_msgTextPaint.linkColor = Theme.getColor(Theme.key_chat_messageLinkIn);
-            Theme.chat_msgGameTextPaint.setColor(Theme.getColor(Theme.key_chat_messageTextIn));
-            Theme.chat_msgGameTextPaint.linkColor = Theme.getColor(Theme.key_chat_messageLinkIn);
-            Theme.chat_replyTextPaint.linkColor = Theme.getColor(Theme.key_chat_messageLinkIn);
+            Theme.chat_msgTextPaint.setColor(Theme.getColor(colorMessageTextIn));
+            Theme.chat_msgTextPaint.linkColor = Theme.getColor(colorMessageLinkIn);
+            Theme.chat_msgGameTextPaint.setColor(Theme.getColor(colorMessageTextIn));
+            Theme.chat_msgGameTextPaint.linkColor = Theme.getColor(colorMessageLinkIn);
+            Theme.chat_replyTextPaint.linkColor = Theme.getColor(colorMessageLinkIn);
         }
 
-        if (documentAttach != null) {
+        if (documentAttach != null && seekBarColorsVersion != Theme.getColorsVersion()) {
+            seekBarColorsVersion = Theme.getColorsVersion();
             if (documentAttachType == DOCUMENT_ATTACH_TYPE_AUDIO) {
                 if (currentMessageObject.isOutOwner()) {
                     seekBarWaveform.setColors(Theme.getColor(Theme.key_chat_outVoiceSeekbar), Theme.getColor(Theme.key_chat_outVoiceSeekbarFill), Theme.getColor(Theme.key_chat_outVoiceSeekbarSelected));
@@ -4679,7 +4695,6 @@ public class ChatMessageCell extends BaseCell implements SeekBar.SeekBarDelegate
                     seekBar.setColors(Theme.getColor(Theme.key_chat_inAudioSeekbar), Theme.getColor(Theme.key_chat_inAudioSeekbarFill), Theme.getColor(Theme.key_chat_inAudioSeekbarSelected));
                 }
             } else if (documentAttachType == DOCUMENT_ATTACH_TYPE_MUSIC) {
-                documentAttachType = DOCUMENT_ATTACH_TYPE_MUSIC;
                 if (currentMessageObject.isOutOwner()) {
                     seekBar.setColors(Theme.getColor(Theme.key_chat_outAudioSeekbar), Theme.getColor(Theme.key_chat_outAudioSeekbarFill), Theme.getColor(Theme.key_chat_outAudioSeekbarSelected));
                 } else {
@@ -142,6 +142,7 @@ import ir.mehdi.ui.Components.ExtendedGridLayoutManager;
 import ir.mehdi.ui.Components.FragmentContextView;
 import ir.mehdi.ui.Components.InstantCameraView;
 import ir.mehdi.ui.Components.LayoutHelper;
+import ir.mehdi.ui.Components.MessageLayoutPrecomputer;
 import ir.mehdi.ui.Components.NumberTextView;
 import ir.mehdi.ui.Components.RadialProgressView;
 import ir.mehdi.ui.Components.RecyclerListView;
@@ -378,6 +379,8 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     private float startX = 0;
     private float startY = 0;
 
+    private MessageLayoutPrecomputer layoutPrecomputer = new MessageLayoutPrecomputer();
+
     private Runnable readRunnable = new Runnable() {
         @Override
         public void run() {
@@ -800,6 +803,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     @Override
     public void onFragmentDestroy() {
         super.onFragmentDestroy();
+        layoutPrecomputer.cancel();
         if (chatActivityEnterView != null) {
             chatActivityEnterView.onDestroy();
         }
@@ -7525,6 +7529,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
         }
 
         checkActionBarMenu();
+        precomputeMessageLayouts();
         if (replyImageLocation != null && replyImageView != null) {
             replyImageView.setImage(replyImageLocation, "50_50", (Drawable) null);
         }
@@ -7598,6 +7603,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     public void onPause() {
         super.onPause();
         AndroidUtilities.cancelRunOnUIThread(readRunnable);
+        layoutPrecomputer.cancel();
         MediaController.getInstance().stopRaiseToEarSensors(this);
         if (chatAttachAlert != null) {
             if (!ignoreAttachOnPause){
@@ -7726,7 +7732,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
             showReplyPanel(false, null, null, null, false);
         }
         if (replyingMessageObject == null && draftReplyMessage != null) {
-            replyingMessageObject = new MessageObject(draftReplyMessage, MessagesController.getInstance().getUsers(), false);
+            replyingMessageObject = new MessageObject(draftReplyMessage, null, false);
             showReplyPanel(true, replyingMessageObject, null, null, false);
         }
     }
@@ -7795,11 +7801,31 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     @Override
     public void onConfigurationChanged(android.content.res.Configuration newConfig) {
         fixLayout();
+        precomputeMessageLayouts();
         if (visibleDialog instanceof DatePickerDialog) {
             visibleDialog.dismiss();
         }
     }
 
+    private void precomputeMessageLayouts() {
+        if (chatListView == null || messages.isEmpty()) {
+            return;
+        }
+        int center = 0;
+        int count = chatListView.getChildCount();
+        for (int a = 0; a < count; a++) {
+            View child = chatListView.getChildAt(a);
+            if (child instanceof ChatMessageCell) {
+                int index = messages.indexOf(((ChatMessageCell) child).getMessageObject());
+                if (index != -1) {
+                    center = index;
+                    break;
+                }
+            }
+        }
+        layoutPrecomputer.start(messages, center);
+    }
+
     private void createDeleteMessagesAlert(final MessageObject finalSelectedObject) {
         AlertDialog.Builder builder = new AlertDialog.Builder(getParentActivity());
         builder.setMessage(LocaleController.formatString("AreYouSureDeleteMessages", R.string.AreYouSureDeleteMessages, LocaleController.formatPluralString("messages", finalSelectedObject != null ? 1 : selectedMessagesIds[0].size() + selectedMessagesIds[1].size())));
@@ -0,0 +1,140 @@
+/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+package ir.mehdi.ui.Components;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+
+import ir.mehdi.messenger.AndroidUtilities;
+import ir.mehdi.messenger.DispatchQueue;
+import ir.mehdi.messenger.MessageObject;
+
+import java.util.ArrayList;
+
+/**
+ * Rebuilds outdated message text layouts (after a rotation or a text size change) ahead of the
+ * scroll position. It starts at the visible messages and moves outwards. The UI thread only
+ * copies the text of each message while the main queue is idle. The StaticLayouts are built from
+ * these copies on {@link #layoutQueue}, and the results are swapped in on the UI thread.
+ */
+public class MessageLayoutPrecomputer implements MessageQueue.IdleHandler {
+
+    private static final int maxSliceTime = 4;
+    private static final int maxDistance = 60;
+
+    private static DispatchQueue layoutQueue = new DispatchQueue("layoutQueue");
+
+    private ArrayList<MessageObject> messages;
+    private int center;
+    private int distance;
+    private int generation;
+    private boolean idleHandlerAdded;
+
+    private Runnable addIdleHandlerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            addIdleHandler();
+        }
+    };
+
+    public void start(ArrayList<MessageObject> messages, int center) {
+        cancel();
+        this.messages = messages;
+        this.center = center;
+        distance = 0;
+        addIdleHandler();
+    }
+
+    public void cancel() {
+        messages = null;
+        generation++;
+        AndroidUtilities.cancelRunOnUIThread(addIdleHandlerRunnable);
+        if (idleHandlerAdded) {
+            idleHandlerAdded = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+    }
+
+    private void addIdleHandler() {
+        if (!idleHandlerAdded && messages != null) {
+            idleHandlerAdded = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        idleHandlerAdded = false;
+        if (messages == null) {
+            return false;
+        }
+        ArrayList<MessageObject.TextLayoutTask> tasks = new ArrayList<>();
+        long startTime = SystemClock.uptimeMillis();
+        while (distance <= maxDistance) {
+            int before = center - distance;
+            int after = center + distance;
+            if (before < 0 && after >= messages.size()) {
+                break;
+            }
+            if (before >= 0 && before < messages.size()) {
+                prepare(messages.get(before), tasks);
+            }
+            if (distance != 0 && after >= 0 && after < messages.size()) {
+                prepare(messages.get(after), tasks);
+            }
+            distance++;
+            if (SystemClock.uptimeMillis() - startTime >= maxSliceTime) {
+                break;
+            }
+        }
+        if (!tasks.isEmpty()) {
+            build(tasks);
+        }
+        if (distance > maxDistance || center - distance < 0 && center + distance >= messages.size()) {
+            messages = null;
+        } else {
+            // the next slice waits until the queue is idle again
+            AndroidUtilities.runOnUIThread(addIdleHandlerRunnable);
+        }
+        return false;
+    }
+
+    private void prepare(MessageObject messageObject, ArrayList<MessageObject.TextLayoutTask> tasks) {
+        MessageObject.TextLayoutTask task = messageObject.prepareTextLayout();
+        if (task != null) {
+            tasks.add(task);
+        } else {
+            messageObject.checkLayout();
+        }
+    }
+
+    private void build(final ArrayList<MessageObject.TextLayoutTask> tasks) {
+        final int taskGeneration = generation;
+        layoutQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                for (int a = 0; a < tasks.size(); a++) {
+                    tasks.get(a).build();
+                }
+                AndroidUtilities.runOnUIThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (taskGeneration != generation) {
+                            return;
+                        }
+                        for (int a = 0; a < tasks.size(); a++) {
+                            tasks.get(a).apply();
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -15,6 +15,7 @@ import android.os.Handler;
 import android.view.TextureView;
 
 import ir.mehdi.messenger.ApplicationLoader;
+import ir.mehdi.messenger.FileStreamLoadOperation;
 import ir.mehdi.messenger.exoplayer2.DefaultLoadControl;
 import ir.mehdi.messenger.exoplayer2.ExoPlaybackException;
 import ir.mehdi.messenger.exoplayer2.ExoPlayer;
@@ -41,6 +42,7 @@ import ir.mehdi.messenger.exoplayer2.upstream.DataSource;
 import ir.mehdi.messenger.exoplayer2.upstream.DefaultBandwidthMeter;
 import ir.mehdi.messenger.exoplayer2.upstream.DefaultDataSourceFactory;
 import ir.mehdi.messenger.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import ir.mehdi.tgnet.TLRPC;
 
 @SuppressLint("NewApi")
 public class VideoPlayer implements ExoPlayer.EventListener, SimpleExoPlayer.VideoListener {
@@ -64,6 +66,7 @@ public class VideoPlayer implements ExoPlayer.EventListener, SimpleExoPlayer.Vid
     private Handler mainHandler;
     private DataSource.Factory mediaDataSourceFactory;
     private TextureView textureView;
+    private Uri streamUri;
     private boolean autoplay;
 
     private VideoPlayerDelegate delegate;
@@ -150,7 +153,21 @@ public class VideoPlayer implements ExoPlayer.EventListener, SimpleExoPlayer.Vid
                 mediaSource = new SsMediaSource(uri, mediaDataSourceFactory, new DefaultSsChunkSource.Factory(mediaDataSourceFactory), mainHandler, null);
                 break;
             default:
-                mediaSource = new ExtractorMediaSource(uri, mediaDataSourceFactory, new DefaultExtractorsFactory(), mainHandler, null);
+                DataSource.Factory dataSourceFactory = mediaDataSourceFactory;
+                if (FileStreamLoadOperation.isStreamUri(uri)) {
+                    if (streamUri != null && !streamUri.equals(uri)) {
+                        FileStreamLoadOperation.releaseStreamUri(streamUri);
+                    }
+                    streamUri = uri;
+                    final TLRPC.Document document = FileStreamLoadOperation.getStreamDocument(uri);
+                    dataSourceFactory = new DataSource.Factory() {
+                        @Override
+                        public DataSource createDataSource() {
+                            return new FileStreamLoadOperation(document, BANDWIDTH_METER);
+                        }
+                    };
+                }
+                mediaSource = new ExtractorMediaSource(uri, dataSourceFactory, new DefaultExtractorsFactory(), mainHandler, null);
                 break;
         }
         player.prepare(mediaSource, true, true);
@@ -165,6 +182,10 @@ public class VideoPlayer implements ExoPlayer.EventListener, SimpleExoPlayer.Vid
             player.release();
             player = null;
         }
+        if (streamUri != null) {
+            FileStreamLoadOperation.releaseStreamUri(streamUri);
+            streamUri = null;
+        }
     }
 
     public void setTextureView(TextureView texture) {
@@ -1129,7 +1129,12 @@ public class DialogsActivity extends BaseFragment
 								{
 									FavoriteController.RemoveFromFavor(selectedDialog);
 								}
-								MessagesController.getInstance().sortDialogs(null);
+								TLRPC.TL_dialog favorDialog = MessagesController.getInstance().dialogs_dict.get(selectedDialog);
+								if (favorDialog != null)
+								{
+									MessagesController.getInstance().updateDialogFilters(favorDialog);
+									MessagesController.getInstance().refreshDialogsList();
+								}
 							}
 							else if (which == 1)
 							{
@@ -1249,7 +1254,12 @@ public class DialogsActivity extends BaseFragment
 								{
 									FavoriteController.RemoveFromFavor(selectedDialog);
 								}
-								MessagesController.getInstance().sortDialogs(null);
+								TLRPC.TL_dialog favorDialog = MessagesController.getInstance().dialogs_dict.get(selectedDialog);
+								if (favorDialog != null)
+								{
+									MessagesController.getInstance().updateDialogFilters(favorDialog);
+									MessagesController.getInstance().refreshDialogsList();
+								}
 							}
 							else if (which == 1)
 							{
@@ -1891,15 +1901,8 @@ public class DialogsActivity extends BaseFragment
 		{
 			if (dialogsAdapter != null)
 			{
-				if (dialogsAdapter.isDataSetChanged())
-				{
-					dialogsAdapter.Hiddenmode = hiddenMode; // telegraf
-					dialogsAdapter.notifyDataSetChanged();
-				}
-				else
-				{
-					updateVisibleRows(MessagesController.UPDATE_MASK_NEW_MESSAGE);
-				}
+				dialogsAdapter.Hiddenmode = hiddenMode; // telegraf
+				dialogsAdapter.updateDialogs();
 			}
 			if (dialogsSearchAdapter != null)
 			{
@@ -84,6 +84,7 @@ import ir.mehdi.messenger.exoplayer2.ui.AspectRatioFrameLayout;
 import ir.mehdi.messenger.query.SharedMediaQuery;
 import ir.mehdi.messenger.ApplicationLoader;
 import ir.mehdi.messenger.FileLoader;
+import ir.mehdi.messenger.FileStreamLoadOperation;
 import ir.mehdi.messenger.FileLog;
 import ir.mehdi.messenger.LocaleController;
 import ir.mehdi.messenger.MediaController;
@@ -811,7 +812,7 @@ public class PhotoViewer implements NotificationCenter.NotificationCenterDelegat
                 if (currentFileNames[a] != null && currentFileNames[a].equals(location)) {
                     photoProgressViews[a].setProgress(1.0f, true);
                     checkProgress(a, true);
-                    if (Build.VERSION.SDK_INT >= 16 && a == 0 && (currentMessageObject != null && currentMessageObject.isVideo() || currentBotInlineResult != null && (currentBotInlineResult.type.equals("video") || MessageObject.isVideoDocument(currentBotInlineResult.document)))) {
+                    if (Build.VERSION.SDK_INT >= 16 && a == 0 && videoPlayer == null && (currentMessageObject != null && currentMessageObject.isVideo() || currentBotInlineResult != null && (currentBotInlineResult.type.equals("video") || MessageObject.isVideoDocument(currentBotInlineResult.document)))) {
                         onActionClick(false);
                     }
                     break;
@@ -2380,8 +2381,12 @@ public class PhotoViewer implements NotificationCenter.NotificationCenterDelegat
         }
     }
 
-    @SuppressLint("NewApi")
     private void preparePlayer(File file, boolean playWhenReady, boolean preview) {
+        preparePlayer(file, Uri.fromFile(file), playWhenReady, preview);
+    }
+
+    @SuppressLint("NewApi")
+    private void preparePlayer(File file, Uri uri, boolean playWhenReady, boolean preview) {
         if (parentActivity == null) {
             return;
         }
@@ -2501,7 +2506,7 @@ public class PhotoViewer implements NotificationCenter.NotificationCenterDelegat
             duration /= 1000;
             int size = (int) Math.ceil(videoPlayerTime.getPaint().measureText(String.format("%02d:%02d / %02d:%02d", duration / 60, duration % 60, duration / 60, duration % 60)));
         }
-        videoPlayer.preparePlayer(Uri.fromFile(file), "other");
+        videoPlayer.preparePlayer(uri, "other");
         if (videoPlayerControlFrameLayout != null) {
             if (currentBotInlineResult != null && (currentBotInlineResult.type.equals("video") || MessageObject.isVideoDocument(currentBotInlineResult.document))) {
                 bottomLayout.setVisibility(View.VISIBLE);
@@ -5362,7 +5367,11 @@ public class PhotoViewer implements NotificationCenter.NotificationCenterDelegat
             if (download) {
                 if (currentMessageObject !=  null) {
                     if (!FileLoader.getInstance().isLoadingFile(currentFileNames[0])) {
-                        FileLoader.getInstance().loadFile(currentMessageObject.getDocument(), true, false);
+                        TLRPC.Document document = currentMessageObject.getDocument();
+                        FileLoader.getInstance().loadFile(document, true, false);
+                        if (Build.VERSION.SDK_INT >= 16 && currentMessageObject.isVideo() && FileStreamLoadOperation.canStream(document)) {
+                            preparePlayer(FileLoader.getPathToMessage(currentMessageObject.messageOwner), FileStreamLoadOperation.getStreamUri(document), true, false);
+                        }
                     } else {
                         FileLoader.getInstance().cancelLoadFile(currentMessageObject.getDocument());
                     }
@@ -0,0 +1,83 @@
+#!/usr/bin/env python3
+#
+# Generates TMessagesProj/src/main/java/ir/mehdi/tgnet/TLClassStore.java from the
+# constructor ids declared in TLRPC.java. Run it after TLRPC.java is regenerated
+# for a new layer:
+#
+#   python3 Tools/generate_tl_class_store.py
+#
+
+import os
+import re
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+TGNET = os.path.join(ROOT, "TMessagesProj", "src", "main", "java", "ir", "mehdi", "tgnet")
+
+CLASS_PATTERN = re.compile(r"public static class (TL_\w+)[^{]*\{\s*public static int constructor = (0x[0-9a-fA-F]+);")
+
+# constructors that must be read through a different class than the one declaring them
+OVERRIDES = {
+    "TL_decryptedMessage_layer17": "TL_decryptedMessage",
+}
+
+HEADER = """/*
+ * This is the source code of Telegram for Android v. 3.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2017.
+ */
+
+// This file is generated by Tools/generate_tl_class_store.py, do not edit it by hand.
+
+package ir.mehdi.tgnet;
+
+public class TLClassStore {
+
+    static TLClassStore store = null;
+
+    public static TLClassStore Instance() {
+        if (store == null) {
+            store = new TLClassStore();
+        }
+        return store;
+    }
+
+    public TLObject TLdeserialize(NativeByteBuffer stream, int constructor, boolean exception) {
+        TLObject response = newObject(constructor);
+        if (response != null) {
+            response.readParams(stream, exception);
+        }
+        return response;
+    }
+
+    public static TLObject newObject(int constructor) {
+        switch (constructor) {
+"""
+
+FOOTER = """        }
+        return null;
+    }
+}
+"""
+
+
+def main():
+    with open(os.path.join(TGNET, "TLRPC.java")) as f:
+        source = f.read()
+    seen = set()
+    cases = []
+    for name, constructor in CLASS_PATTERN.findall(source):
+        value = int(constructor, 16)
+        if value in seen:
+            continue
+        seen.add(value)
+        cases.append("            case 0x%08x:\n                return new TLRPC.%s();\n" % (value, OVERRIDES.get(name, name)))
+    with open(os.path.join(TGNET, "TLClassStore.java"), "w") as f:
+        f.write(HEADER)
+        f.write("".join(cases))
+        f.write(FOOTER)
+
+
+if __name__ == "__main__":
+    main()